@@ -0,0 +1,73 @@
+package com.tystr.bench;
+
+import com.tystr.delta.BarResampler;
+import com.tystr.tick.TickTape;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resampling a tick stream into constant volume, range and delta bars. Scores are per tick.
+ *
+ * @author Tyler Stroud
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BarResamplerBenchmark {
+    private static final int TICKS = 1_000_000;
+    private static final int history = 10;
+
+    @Param({"400"})
+    private int levels;
+
+    @Param({"VOLUME", "RANGE", "DELTA"})
+    private BarResampler.Type type;
+
+    private TickTape ticks;
+    private long size; // closes a bar every few hundred ticks of the stream
+
+    @Setup
+    public void setUp() {
+        ticks = SyntheticTicks.create(TICKS, levels, 42);
+        switch (type) {
+            case VOLUME:
+                size = 1000;
+                break;
+            case RANGE:
+                size = 8;
+                break;
+            default:
+                size = 100;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public BarResampler oneTrack(Blackhole blackhole) {
+        BarResampler resampler = new BarResampler(SyntheticTicks.TICK_SIZE);
+        resampler.setListener(track -> blackhole.consume(track.getDelta(track.getCount() - 1)));
+        resampler.addTrack(type, size, history);
+        ticks.replay(0, ticks.size(), resampler);
+        return resampler;
+    }
+
+    /**
+     * Builds three resolutions in the same pass, as Delta Pivots 3 does for its GBX, Euro and RTH windows
+     */
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public BarResampler threeTracks(Blackhole blackhole) {
+        BarResampler resampler = new BarResampler(SyntheticTicks.TICK_SIZE);
+        resampler.setListener(track -> blackhole.consume(track.getDelta(track.getCount() - 1)));
+        resampler.addTrack(type, size, history);
+        resampler.addTrack(type, size * 2, history);
+        resampler.addTrack(type, size * 5, history);
+        ticks.replay(0, ticks.size(), resampler);
+        return resampler;
+    }
+}
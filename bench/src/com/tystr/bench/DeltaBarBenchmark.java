@@ -0,0 +1,74 @@
+package com.tystr.bench;
+
+import com.tystr.delta.DeltaBar;
+import com.tystr.delta.Footprint;
+import com.tystr.tick.TickTape;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding a tick stream to delta bars and footprints. Scores are per tick.
+ *
+ * @author Tyler Stroud
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeltaBarBenchmark {
+    private static final int TICKS = 1_000_000;
+
+    @Param({"400"})
+    private int levels;
+
+    private TickTape ticks;
+
+    @Setup
+    public void setUp() {
+        ticks = SyntheticTicks.create(TICKS, levels, 42);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public DeltaBar addVolume() {
+        DeltaBar deltaBar = new DeltaBar(SyntheticTicks.TICK_SIZE);
+        for (int i = 0; i < ticks.size(); i++) {
+            if (ticks.isAskTick(i)) {
+                deltaBar.addVolumeAtAsk(ticks.getAskPrice(i), ticks.getVolume(i));
+            } else {
+                deltaBar.addVolumeAtBid(ticks.getBidPrice(i), ticks.getVolume(i));
+            }
+        }
+        return deltaBar;
+    }
+
+    /**
+     * Reads the delta after every tick, as the delta candle calculator does for live ticks
+     */
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public void addVolumeAndGetDelta(Blackhole blackhole) {
+        DeltaBar deltaBar = new DeltaBar(SyntheticTicks.TICK_SIZE);
+        for (int i = 0; i < ticks.size(); i++) {
+            if (ticks.isAskTick(i)) {
+                deltaBar.addVolumeAtAsk(ticks.getAskPrice(i), ticks.getVolume(i));
+            } else {
+                deltaBar.addVolumeAtBid(ticks.getBidPrice(i), ticks.getVolume(i));
+            }
+            blackhole.consume(deltaBar.getDelta());
+            blackhole.consume(deltaBar.getDeltaPercent());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public Footprint footprintAddTick() {
+        Footprint footprint = new Footprint(SyntheticTicks.TICK_SIZE);
+        ticks.replay(0, ticks.size(), footprint::addTick);
+        return footprint;
+    }
+}
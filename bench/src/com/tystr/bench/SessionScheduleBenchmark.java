@@ -0,0 +1,64 @@
+package com.tystr.bench;
+
+import com.motivewave.platform.sdk.common.Instrument;
+import com.tystr.SessionCalendar;
+import com.tystr.SessionSchedule;
+import com.tystr.headless.HeadlessInstrument;
+import com.tystr.tick.TickTape;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving the sessions active at each tick with a session schedule cursor, as the Delta Pivots 3 calculator does for
+ * every tick. The schedule is created for each run, so trading days are expanded as the cursor reaches them. Scores are
+ * per tick.
+ *
+ * @author Tyler Stroud
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionScheduleBenchmark {
+    private static final int TICKS = 1_000_000;
+    private static final int tickSpacingMillis = 250; // about three trading days of ticks
+
+    @Param({"400"})
+    private int levels;
+
+    private TickTape ticks;
+    private SessionCalendar calendar;
+    private List<SessionSchedule.Session> sessions;
+
+    @Setup
+    public void setUp() {
+        ticks = SyntheticTicks.create(TICKS, levels, 42, tickSpacingMillis);
+        Instrument instrument = new HeadlessInstrument("BENCH", SyntheticTicks.TICK_SIZE, ticks).asInstrument();
+        calendar = SessionCalendar.get(instrument, false);
+
+        // the default GBX, Euro and RTH windows of Delta Pivots 3
+        ZoneId zone = ZoneId.of("America/New_York");
+        sessions = List.of(
+                new SessionSchedule.Session("GBX", zone, LocalTime.of(18, 0), LocalTime.of(3, 25)),
+                new SessionSchedule.Session("EURO", zone, LocalTime.of(3, 31), LocalTime.of(8, 31)),
+                new SessionSchedule.Session("RTH", zone, LocalTime.of(13, 30), LocalTime.of(15, 50))
+        );
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public int seek() {
+        SessionSchedule.Cursor cursor = new SessionSchedule(calendar, sessions).cursor();
+        int active = 0;
+        for (int i = 0; i < ticks.size(); i++) {
+            active += cursor.seek(ticks.getTime(i));
+        }
+        return active;
+    }
+}
@@ -0,0 +1,192 @@
+package com.tystr.bench;
+
+import com.motivewave.platform.sdk.common.DataSeries;
+import com.motivewave.platform.sdk.common.Defaults;
+import com.motivewave.platform.sdk.common.TickOperation;
+import com.motivewave.platform.sdk.common.Util;
+import com.tystr.DeltaCandleColor;
+import com.tystr.DeltaPivots3;
+import com.tystr.RedrawCoalescer;
+import com.tystr.SettingValues;
+import com.tystr.StudyLog;
+import com.tystr.StudyMetrics;
+import com.tystr.delta.FootprintStore;
+import com.tystr.headless.Headless;
+import com.tystr.headless.HeadlessInstrument;
+import com.tystr.headless.HeadlessSeries;
+import com.tystr.headless.StudySettings;
+import com.tystr.study.DevelopingValueArea;
+import com.tystr.study.VolumeTaperStudy;
+import com.tystr.tick.LiveTickBuffer;
+import com.tystr.tick.TickTape;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Replaying a tick stream through the tick calculators of the Delta Candle Color, Developing Value Area, Delta
+ * Pivots 3 and Volume Taper studies, as their backfills do, and as live ticks for the calculators that do more work
+ * per live tick. Scores are per tick.
+ * <p>
+ * The ticks are spread over three trading days and run against one minute bars built from them. The bars are a
+ * headless series, which forwards each call reflectively (see {@code com.tystr.headless.Headless}), so every series
+ * call a calculator makes carries a small fixed cost that it does not have in MotiveWave. Compare scores of these
+ * benchmarks with each other and over time, not with timings taken in the platform. The calculators are created the
+ * way their studies create them, with the studies' default settings (see {@link StudySettings}).
+ *
+ * @author Tyler Stroud
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StudyCalculatorBenchmark {
+    private static final int TICKS = 1_000_000;
+    private static final int tickSpacingMillis = 250; // about three trading days of ticks
+
+    @Param({"400"})
+    private int levels;
+
+    private TickTape ticks;
+    private DataSeries series;
+    private Defaults defaults;
+    private Path footprintRoot;
+    private FootprintStore footprintStore;
+    private DeltaCandleColor.SettingsSnapshot deltaCandleSettings;
+    private DeltaPivots3.SettingsSnapshot chartWindowSettings; // rolling windows over the chart's bars
+    private DeltaPivots3.SettingsSnapshot volumeWindowSettings; // rolling windows over resampled volume bars
+    private VolumeTaperStudy.SettingsSnapshot volumeTaperSettings;
+    private StudyLog log;
+
+    @Setup
+    public void setUp() throws IOException {
+        ticks = SyntheticTicks.create(TICKS, levels, 42, tickSpacingMillis);
+        HeadlessInstrument instrument = new HeadlessInstrument("BENCH", SyntheticTicks.TICK_SIZE, ticks);
+        HeadlessSeries bars = HeadlessSeries.fromTicks(instrument, Util.MILLIS_IN_MINUTE, false);
+        series = bars.asDataSeries();
+        defaults = Headless.defaults();
+
+        // the delta candle and volume taper calculators save the footprint of each finished bar. Stores are looked up
+        // by bar size, which cannot be created outside MotiveWave, so the store is created in a directory of its own.
+        footprintRoot = Files.createTempDirectory("tystr-bench-footprints");
+        footprintStore = FootprintStore.get(footprintRoot);
+
+        deltaCandleSettings = new DeltaCandleColor.SettingsSnapshot(SettingValues.of(StudySettings.deltaCandleColor()));
+
+        log = new StudyLog("DeltaPivots3 bench");
+        Map<String, Object> deltaPivotsSettings = StudySettings.deltaPivots3();
+        chartWindowSettings = new DeltaPivots3.SettingsSnapshot(SettingValues.of(deltaPivotsSettings), log);
+        deltaPivotsSettings.put("WindowBars", "Volume");
+        volumeWindowSettings = new DeltaPivots3.SettingsSnapshot(SettingValues.of(deltaPivotsSettings), log);
+
+        Map<String, Object> taperSettings = StudySettings.volumeTaper();
+        taperSettings.put("showDeltaTriggers", true);
+        volumeTaperSettings = new VolumeTaperStudy.SettingsSnapshot(SettingValues.of(taperSettings));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        // footprints may still be queued for writing, so files that appear while deleting are left behind
+        try (Stream<Path> paths = Files.walk(footprintRoot)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public TickOperation deltaCandleColorBackfill() {
+        return replay(newDeltaCalculator());
+    }
+
+    /**
+     * Colors the bar on every tick, as the calculator does for live ticks
+     */
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public TickOperation deltaCandleColorLive() {
+        DeltaCandleColor.DeltaCalculator calculator = newDeltaCalculator();
+        calculator.setCalculating(false);
+        return replay(calculator);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public TickOperation developingValueAreaBackfill() {
+        return replay(newVPCalculator());
+    }
+
+    /**
+     * Reads the value area on every tick, as the calculator does for live ticks
+     */
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public TickOperation developingValueAreaLive() {
+        DevelopingValueArea.VPCalculator calculator = newVPCalculator();
+        calculator.setCalculating(false);
+        return replay(calculator);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public TickOperation deltaPivotsBackfill() {
+        return replay(newSDPCalculator(chartWindowSettings));
+    }
+
+    /**
+     * Runs the rolling windows over volume bars resampled from the ticks, one resolution per session
+     */
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public TickOperation deltaPivotsVolumeBarsBackfill() {
+        return replay(newSDPCalculator(volumeWindowSettings));
+    }
+
+    /**
+     * Evaluates the footprint of each bar as it closes, with the delta follow through of tapering bars
+     */
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public TickOperation volumeTaperBackfill(Blackhole blackhole) {
+        return replay(new VolumeTaperStudy.VolumeTaperCalculator(1, series, footprintStore, volumeTaperSettings, new LiveTickBuffer(),
+                StudyMetrics.get("VolumeTaperStudy bench"), (mark, index) -> blackhole.consume(index)));
+    }
+
+    private DeltaCandleColor.DeltaCalculator newDeltaCalculator() {
+        return new DeltaCandleColor.DeltaCalculator(1, series, defaults, footprintStore, deltaCandleSettings, new LiveTickBuffer(),
+                StudyMetrics.get("DeltaCandleColor bench"), heldRedraws());
+    }
+
+    private DevelopingValueArea.VPCalculator newVPCalculator() {
+        return new DevelopingValueArea.VPCalculator(1, series, false, "Daily", StudyMetrics.get("DevelopingValueArea bench"));
+    }
+
+    private DeltaPivots3.SDPCalculator newSDPCalculator(DeltaPivots3.SettingsSnapshot windowSettings) {
+        return new DeltaPivots3.SDPCalculator(1, series, defaults, windowSettings, StudyMetrics.get("DeltaPivots3 bench"), heldRedraws(), log, figure -> {});
+    }
+
+    /**
+     * Replays every tick through the calculator
+     */
+    private TickOperation replay(TickOperation calculator) {
+        ticks.replay(0, ticks.size(), calculator);
+        return calculator;
+    }
+
+    /**
+     * @return Redraws held for the whole run, so no redraws are scheduled
+     */
+    private static RedrawCoalescer heldRedraws() {
+        RedrawCoalescer redraws = new RedrawCoalescer(() -> {});
+        redraws.hold();
+        return redraws;
+    }
+}
@@ -0,0 +1,56 @@
+package com.tystr.bench;
+
+import com.tystr.tick.TickTape;
+
+import java.util.Random;
+
+/**
+ * Builds tick streams for the benchmarks: a random walk of the last price over a fixed number of price levels, by
+ * default one tick every 20 milliseconds on average, with trades at the bid or the ask and a skewed trade size
+ * distribution. The same seed always builds the same stream.
+ *
+ * @author Tyler Stroud
+ */
+public class SyntheticTicks {
+    public static final float TICK_SIZE = 0.25f;
+    public static final float BASE_PRICE = 4000f;
+    public static final long START_TIME = 1_700_000_000_000L;
+
+    private SyntheticTicks() {}
+
+    /**
+     * @param count count is the number of ticks to build
+     * @param levels levels is the number of price levels the price walks over
+     * @param seed seed is the seed of the random walk
+     */
+    public static TickTape create(int count, int levels, long seed) {
+        return create(count, levels, seed, 20);
+    }
+
+    /**
+     * @param count count is the number of ticks to build
+     * @param levels levels is the number of price levels the price walks over
+     * @param seed seed is the seed of the random walk
+     * @param meanSpacingMillis meanSpacingMillis is the average time between ticks, e.g. to spread the ticks over
+     *                          several trading days
+     */
+    public static TickTape create(int count, int levels, long seed, int meanSpacingMillis) {
+        Random random = new Random(seed);
+        TickTape tape = new TickTape(count);
+        int level = levels / 2;
+        long time = START_TIME;
+        for (int i = 0; i < count; i++) {
+            int step = random.nextInt(8);
+            if (step == 0 && level > 0) level--;
+            if (step == 1 && level < levels - 1) level++;
+
+            float bid = BASE_PRICE + level * TICK_SIZE;
+            float ask = bid + TICK_SIZE;
+            boolean isAskTick = random.nextBoolean();
+            int volume = 1 + (int) Math.min(200, -Math.log(1 - random.nextDouble()) * 4);
+            time += random.nextInt(2 * meanSpacingMillis);
+            tape.add(time, isAskTick ? ask : bid, bid, ask, volume, isAskTick);
+        }
+        return tape;
+    }
+}
@@ -0,0 +1,74 @@
+package com.tystr.bench;
+
+import com.tystr.VolumeProfile;
+import com.tystr.tick.TickTape;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding a tick stream to a volume profile, and calculating the value area of the resulting profile. Scores of the
+ * stream benchmarks are per tick.
+ *
+ * @author Tyler Stroud
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VolumeProfileBenchmark {
+    private static final int TICKS = 1_000_000;
+
+    @Param({"400"})
+    private int levels;
+
+    private TickTape ticks;
+    private VolumeProfile filled;
+
+    @Setup
+    public void setUp() {
+        ticks = SyntheticTicks.create(TICKS, levels, 42);
+        filled = new VolumeProfile();
+        filled.setTickSize(SyntheticTicks.TICK_SIZE);
+        addAll(filled, ticks);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public VolumeProfile addVolumeAtPrice() {
+        VolumeProfile profile = new VolumeProfile();
+        profile.setTickSize(SyntheticTicks.TICK_SIZE);
+        addAll(profile, ticks);
+        return profile;
+    }
+
+    /**
+     * Reads the value area after every tick, as a live calculator does, with the value area maintained incrementally
+     */
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public void addVolumeAtPriceIncremental(Blackhole blackhole) {
+        VolumeProfile profile = new VolumeProfile();
+        profile.setTickSize(SyntheticTicks.TICK_SIZE);
+        profile.setIncremental(true);
+        for (int i = 0; i < ticks.size(); i++) {
+            profile.addVolumeAtPrice(ticks.getPrice(i), ticks.getVolume(i));
+            blackhole.consume(profile.getValueAreaHigh());
+        }
+    }
+
+    @Benchmark
+    public float calculateValueArea() {
+        filled.calculateValueArea();
+        return filled.getValueAreaHigh();
+    }
+
+    private static void addAll(VolumeProfile profile, TickTape ticks) {
+        for (int i = 0; i < ticks.size(); i++) {
+            profile.addVolumeAtPrice(ticks.getPrice(i), ticks.getVolume(i));
+        }
+    }
+}
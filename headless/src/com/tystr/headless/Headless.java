@@ -0,0 +1,135 @@
+package com.tystr.headless;
+
+import com.motivewave.platform.sdk.common.Defaults;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Implements SDK interfaces outside MotiveWave by forwarding their methods to plain objects. The SDK interfaces have
+ * many more methods than the studies use, so rather than implementing all of them, {@link #implement(Class, Object)}
+ * returns a proxy that calls the public method of the backing object with the same name and parameter types:
+ * <ul>
+ *     <li>methods the backing object does not have fall back to the interface's default method, if there is one</li>
+ *     <li>otherwise methods that return nothing do nothing, e.g. setting the color of a bar</li>
+ *     <li>and any other method throws an {@link UnsupportedOperationException} naming the method, so a calculator
+ *     that needs more of the SDK fails loudly instead of calculating with made up values</li>
+ * </ul>
+ * <p>
+ * This covers the data the calculators read: {@link com.motivewave.platform.sdk.common.Instrument},
+ * {@link com.motivewave.platform.sdk.common.DataSeries}, {@link com.motivewave.platform.sdk.common.DataContext} and
+ * {@link Defaults}. It does not run a {@link com.motivewave.platform.sdk.study.Study} subclass through
+ * {@code initialize}, {@code calculateValues} and {@code onTick}. A study can not even be constructed here: the
+ * {@code Study} constructor and its settings need MotiveWave runtime classes, such as
+ * {@code com.motivewave.common.util.FastMap} and the platform's study factory and settings wrapper, that
+ * {@code mwave_sdk.jar} does not include. The SDK's enums, such as the marker types, can not be initialized either,
+ * as they look up their labels through the platform. Headless runs therefore only drive the calculators behind the
+ * studies, created directly the way {@link TickLoad} and the benchmarks do: historical ticks through the tick archive,
+ * dispatcher or {@link com.tystr.tick.LiveTickBuffer} backfill, and live ticks through the same operation
+ * afterwards. A calculator that runs here leaves drawing figures to its study.
+ * <p>
+ * Even the proxies need one platform class: a proxy class initializes the types in its interface's method signatures,
+ * which for {@code DataSeries} include SDK enums, and those resolve their labels through
+ * {@code com.motivewave.common.StringResolver}. Headless runs take it from the jars of a MotiveWave installation (see
+ * {@code mwave.lib.dir} in the build), and {@link #implement(Class, Object)} fails with a message saying so when it is
+ * missing.
+ *
+ * @author Tyler Stroud
+ */
+public class Headless {
+    private static final Map<Class<?>, Map<Method, Method>> backingMethods = new ConcurrentHashMap<>();
+    private static final Method MISSING;
+
+    static {
+        try {
+            MISSING = Object.class.getMethod("hashCode");
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Headless() {}
+
+    /**
+     * @param type type is the SDK interface to implement
+     * @param backing backing is the object whose public methods implement the interface
+     * @return A proxy implementing the given interface
+     */
+    public static <T> T implement(Class<T> type, Object backing) {
+        try {
+            return type.cast(newProxy(type, backing));
+        } catch (NoClassDefFoundError e) {
+            throw new IllegalStateException("Implementing " + type.getSimpleName() + " headless needs MotiveWave's jars on the "
+                    + "class path, set mwave.lib.dir to their directory", e);
+        }
+    }
+
+    private static Object newProxy(Class<?> type, Object backing) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (self, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return self == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(self);
+                    default:
+                        return type.getSimpleName() + "[" + backing + "]";
+                }
+            }
+
+            Method target = backingMethods.computeIfAbsent(backing.getClass(), c -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(method, m -> findBackingMethod(backing.getClass(), m));
+            if (target != MISSING) {
+                try {
+                    return target.invoke(backing, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+            if (method.isDefault()) {
+                return MethodHandles.privateLookupIn(type, MethodHandles.lookup())
+                        .unreflectSpecial(method, type)
+                        .bindTo(self)
+                        .invokeWithArguments(args == null ? new Object[0] : args);
+            }
+            if (method.getReturnType() == void.class) return null;
+            throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName() + " is not supported headless");
+        });
+    }
+
+    /**
+     * @return Defaults with a gray color for every color and the default font, for studies that only use the defaults
+     * to draw
+     */
+    public static Defaults defaults() {
+        return (Defaults) Proxy.newProxyInstance(Defaults.class.getClassLoader(), new Class<?>[] { Defaults.class }, (self, method, args) -> {
+            Class<?> returnType = method.getReturnType();
+            if (returnType == Color.class) return Color.GRAY;
+            if (returnType == Font.class) return new Font(Font.SANS_SERIF, Font.PLAIN, 12);
+            if (method.getDeclaringClass() == Object.class) {
+                if (method.getName().equals("equals")) return self == args[0];
+                if (method.getName().equals("hashCode")) return System.identityHashCode(self);
+                return "Defaults[headless]";
+            }
+            if (returnType == void.class) return null;
+            throw new UnsupportedOperationException("Defaults." + method.getName() + " is not supported headless");
+        });
+    }
+
+    private static Method findBackingMethod(Class<?> backingType, Method method) {
+        try {
+            Method target = backingType.getMethod(method.getName(), method.getParameterTypes());
+            if (!method.getReturnType().isAssignableFrom(target.getReturnType())) return MISSING;
+            target.setAccessible(true);
+            return target;
+        } catch (NoSuchMethodException e) {
+            return MISSING;
+        }
+    }
+}
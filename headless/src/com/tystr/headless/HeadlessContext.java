@@ -0,0 +1,76 @@
+package com.tystr.headless;
+
+import com.motivewave.platform.sdk.common.DataContext;
+import com.motivewave.platform.sdk.common.DataSeries;
+import com.motivewave.platform.sdk.common.Defaults;
+import com.motivewave.platform.sdk.common.Instrument;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * A data context for running calculators outside MotiveWave. Use {@link #asDataContext()} to get the
+ * {@link DataContext} to pass to a calculator. The current time defaults to the end of the last bar and can be moved forward while live ticks
+ * are replayed.
+ *
+ * @author Tyler Stroud
+ */
+public class HeadlessContext {
+    private final HeadlessSeries series;
+    private final boolean rth;
+    private final Defaults defaults = Headless.defaults();
+    private final DataContext context;
+    private long currentTime;
+
+    /**
+     * @param series series series is the chart series
+     * @param rth rth is {@code true} if the chart only shows regular trading hours
+     */
+    public HeadlessContext(HeadlessSeries series, boolean rth) {
+        this.series = series;
+        this.rth = rth;
+        this.currentTime = series.size() == 0 ? 0 : series.getEndTime();
+        this.context = Headless.implement(DataContext.class, this);
+    }
+
+    public DataContext asDataContext() {
+        return context;
+    }
+
+    public DataSeries getDataSeries() {
+        return series.asDataSeries();
+    }
+
+    public Instrument getInstrument() {
+        return series.getInstrument();
+    }
+
+    public List<Instrument> getInstruments() {
+        return Collections.singletonList(series.getInstrument());
+    }
+
+    public boolean isRTH() {
+        return rth;
+    }
+
+    public long getCurrentTime() {
+        return currentTime;
+    }
+
+    public void setCurrentTime(long currentTime) {
+        this.currentTime = currentTime;
+    }
+
+    public TimeZone getTimeZone() {
+        return series.getInstrument().getTimeZone();
+    }
+
+    public Defaults getDefaults() {
+        return defaults;
+    }
+
+    public boolean isLoadingData() {
+        return false;
+    }
+}
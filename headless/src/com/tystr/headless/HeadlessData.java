@@ -0,0 +1,73 @@
+package com.tystr.headless;
+
+import com.tystr.tick.TickTape;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Loads bars and ticks from local CSV files for running studies outside MotiveWave. Lines that do not start with a
+ * digit, such as a header, are skipped. Times are milliseconds since the epoch.
+ * <pre>
+ *     ticks: time,price,bidPrice,askPrice,volume,side   (side is A or 1 for trades at the ask, B or 0 at the bid)
+ *     bars:  time,open,high,low,close,volume
+ * </pre>
+ *
+ * @author Tyler Stroud
+ */
+public class HeadlessData {
+    private HeadlessData() {}
+
+    public static TickTape loadTicks(Path file) throws IOException {
+        TickTape tape = new TickTape();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || !Character.isDigit(line.charAt(0))) continue;
+                String[] columns = line.split(",");
+                if (columns.length < 6) throw new IOException(file + ":" + lineNumber + ": expected 6 columns, found " + columns.length);
+                String side = columns[5].trim();
+                tape.add(
+                        Long.parseLong(columns[0].trim()),
+                        Float.parseFloat(columns[1].trim()),
+                        Float.parseFloat(columns[2].trim()),
+                        Float.parseFloat(columns[3].trim()),
+                        Integer.parseInt(columns[4].trim()),
+                        side.equalsIgnoreCase("A") || side.equals("1")
+                );
+            }
+        }
+        return tape;
+    }
+
+    /**
+     * @param barMillis barMillis is the length of each bar in the file
+     */
+    public static HeadlessSeries loadBars(Path file, HeadlessInstrument instrument, long barMillis) throws IOException {
+        HeadlessSeries series = new HeadlessSeries(instrument, barMillis);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || !Character.isDigit(line.charAt(0))) continue;
+                String[] columns = line.split(",");
+                if (columns.length < 6) throw new IOException(file + ":" + lineNumber + ": expected 6 columns, found " + columns.length);
+                series.addBar(
+                        Long.parseLong(columns[0].trim()),
+                        Float.parseFloat(columns[1].trim()),
+                        Float.parseFloat(columns[2].trim()),
+                        Float.parseFloat(columns[3].trim()),
+                        Float.parseFloat(columns[4].trim()),
+                        Long.parseLong(columns[5].trim())
+                );
+            }
+        }
+        return series;
+    }
+}
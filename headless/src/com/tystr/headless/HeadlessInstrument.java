@@ -0,0 +1,216 @@
+package com.tystr.headless;
+
+import com.motivewave.platform.sdk.common.Instrument;
+import com.motivewave.platform.sdk.common.Tick;
+import com.motivewave.platform.sdk.common.TickOperation;
+import com.tystr.tick.ReplayTick;
+import com.tystr.tick.TickTape;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An instrument for running calculators outside MotiveWave, backed by a {@link TickTape} of historical ticks. Use
+ * {@link #asInstrument()} to get the {@link Instrument} to pass to a calculator.
+ * <p>
+ * Trading days follow a fixed session: by default CME equity index futures, which open at 18:00 New York time on the
+ * previous calendar day and close at 17:00, with regular trading hours from 09:30 to 16:00. Trading days fall on
+ * Monday to Friday. Live ticks are delivered to listeners with {@link #publish(Tick)}.
+ *
+ * @author Tyler Stroud
+ */
+public class HeadlessInstrument {
+    private final String symbol;
+    private final double tickSize;
+    private final TickTape ticks;
+    private final List<TickOperation> listeners = new CopyOnWriteArrayList<>();
+    private final Instrument instrument;
+
+    private ZoneId zone = ZoneId.of("America/New_York");
+    private LocalTime sessionStart = LocalTime.of(18, 0);
+    private LocalTime sessionEnd = LocalTime.of(17, 0);
+    private LocalTime rthStart = LocalTime.of(9, 30);
+    private LocalTime rthEnd = LocalTime.of(16, 0);
+
+    /**
+     * @param symbol symbol is the symbol of the instrument
+     * @param tickSize tickSize is the price increment of the instrument
+     * @param ticks ticks is the historical ticks of the instrument, in time order
+     */
+    public HeadlessInstrument(String symbol, double tickSize, TickTape ticks) {
+        this.symbol = symbol;
+        this.tickSize = tickSize;
+        this.ticks = ticks;
+        this.instrument = Headless.implement(Instrument.class, this);
+    }
+
+    /**
+     * Sets the session of each trading day. A session start after the session end opens on the previous calendar day.
+     */
+    public void setSession(ZoneId zone, LocalTime sessionStart, LocalTime sessionEnd, LocalTime rthStart, LocalTime rthEnd) {
+        this.zone = zone;
+        this.sessionStart = sessionStart;
+        this.sessionEnd = sessionEnd;
+        this.rthStart = rthStart;
+        this.rthEnd = rthEnd;
+    }
+
+    public Instrument asInstrument() {
+        return instrument;
+    }
+
+    public TickTape getTickTape() {
+        return ticks;
+    }
+
+    /**
+     * Passes the given tick to every listener added to the instrument, as a live tick
+     */
+    public void publish(Tick tick) {
+        for (TickOperation listener : listeners) {
+            listener.onTick(tick);
+        }
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public String getExchangeSymbol() {
+        return symbol;
+    }
+
+    public double getTickSize() {
+        return tickSize;
+    }
+
+    public double getPointSize() {
+        return 1;
+    }
+
+    public float round(float price) {
+        return (float) (Math.round(price / tickSize) * tickSize);
+    }
+
+    public double round(double price) {
+        return Math.round(price / tickSize) * tickSize;
+    }
+
+    public String format(float price) {
+        return String.valueOf(round(price));
+    }
+
+    public String format(double price) {
+        return String.valueOf(round(price));
+    }
+
+    public TimeZone getTimeZone() {
+        return TimeZone.getTimeZone(zone);
+    }
+
+    public long getLastTimestamp() {
+        return ticks.size() == 0 ? 0 : ticks.getTime(ticks.size() - 1);
+    }
+
+    public float getLastPrice() {
+        return ticks.size() == 0 ? 0 : ticks.getPrice(ticks.size() - 1);
+    }
+
+    public void forEachTick(long start, long end, boolean rth, TickOperation operation) {
+        forEachTick(start, end, rth, false, operation);
+    }
+
+    public void forEachTick(long start, long end, boolean rth, boolean ignored, TickOperation operation) {
+        if (!rth) {
+            ticks.replay(0, ticks.size(), start, end, operation);
+            return;
+        }
+        ticks.replay(0, ticks.size(), start, end, tick -> {
+            if (isInsideTradingHours(tick.getTime(), true)) operation.onTick(tick);
+        });
+    }
+
+    public void forEachTick(long start, long end, TickOperation operation) {
+        forEachTick(start, end, false, false, operation);
+    }
+
+    public List<Tick> getTicks(long start, long end, boolean rth, boolean ignored) {
+        List<Tick> result = new ArrayList<>();
+        forEachTick(start, end, rth, ignored, tick -> result.add(new ReplayTick().set(tick)));
+        return result;
+    }
+
+    public void addListener(TickOperation listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TickOperation listener) {
+        listeners.remove(listener);
+    }
+
+    public long getStartOfDay(long time, boolean rth) {
+        LocalDate day = tradingDay(time);
+        return rth ? toMillis(day, rthStart) : toMillis(sessionStartDate(day), sessionStart);
+    }
+
+    public long getEndOfDay(long time, boolean rth) {
+        LocalDate day = tradingDay(time);
+        return rth ? toMillis(day, rthEnd) : toMillis(day, sessionEnd);
+    }
+
+    public long getStartOfEveningSession(long time) {
+        LocalDate day = tradingDay(time);
+        return toMillis(sessionStartDate(day), sessionStart);
+    }
+
+    public long getStartOfWeek(long time, boolean rth) {
+        LocalDate monday = tradingDay(time).with(DayOfWeek.MONDAY);
+        return getStartOfDay(toMillis(monday, rthStart), rth);
+    }
+
+    public long getEndOfWeek(long time, boolean rth) {
+        LocalDate friday = tradingDay(time).with(DayOfWeek.FRIDAY);
+        return getEndOfDay(toMillis(friday, rthStart), rth);
+    }
+
+    public boolean isInsideTradingHours(long time, boolean rth) {
+        LocalDate day = tradingDay(time);
+        if (day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY) return false;
+        return time >= getStartOfDay(time, rth) && time < getEndOfDay(time, rth);
+    }
+
+    /**
+     * @return The trading day the given time belongs to. Times after the session end belong to the next trading day,
+     * skipping weekends.
+     */
+    private LocalDate tradingDay(long time) {
+        ZonedDateTime dateTime = Instant.ofEpochMilli(time).atZone(zone);
+        LocalDate day = dateTime.toLocalDate();
+        if (!dateTime.toLocalTime().isBefore(sessionEnd)) day = day.plusDays(1);
+        while (day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY) {
+            day = day.plusDays(1);
+        }
+        return day;
+    }
+
+    private LocalDate sessionStartDate(LocalDate tradingDay) {
+        return sessionStart.isAfter(sessionEnd) ? tradingDay.minusDays(1) : tradingDay;
+    }
+
+    private long toMillis(LocalDate date, LocalTime time) {
+        return date.atTime(time).atZone(zone).toInstant().toEpochMilli();
+    }
+
+    @Override
+    public String toString() {
+        return symbol;
+    }
+}
@@ -0,0 +1,289 @@
+package com.tystr.headless;
+
+import com.motivewave.platform.sdk.common.BarSize;
+import com.motivewave.platform.sdk.common.DataSeries;
+import com.motivewave.platform.sdk.common.Instrument;
+import com.tystr.tick.TickTape;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A data series for running calculators outside MotiveWave, backed by arrays of bars. Use {@link #asDataSeries()} to
+ * get the {@link DataSeries} to pass to a calculator. Values set by the calculator are kept per bar, by key.
+ * <p>
+ * Bars span a fixed number of milliseconds; the end time of a bar is the last millisecond before the next bar starts.
+ *
+ * @author Tyler Stroud
+ */
+public class HeadlessSeries {
+    private final HeadlessInstrument instrument;
+    private final long barMillis;
+    private long[] startTimes;
+    private float[] opens;
+    private float[] highs;
+    private float[] lows;
+    private float[] closes;
+    private long[] volumes;
+    private boolean[] complete;
+    private final List<Map<Object, Object>> values = new ArrayList<>(); // per bar, null until a value is set
+    private int size = 0;
+    private BarSize barSize;
+    private final DataSeries series;
+
+    /**
+     * @param instrument instrument the bars belong to
+     * @param barMillis barMillis is the length of each bar
+     */
+    public HeadlessSeries(HeadlessInstrument instrument, long barMillis) {
+        this.instrument = instrument;
+        this.barMillis = barMillis;
+        int capacity = 1024;
+        startTimes = new long[capacity];
+        opens = new float[capacity];
+        highs = new float[capacity];
+        lows = new float[capacity];
+        closes = new float[capacity];
+        volumes = new long[capacity];
+        complete = new boolean[capacity];
+        series = Headless.implement(DataSeries.class, this);
+    }
+
+    /**
+     * Builds bars of the given length from the ticks of the instrument, skipping periods without ticks
+     *
+     * @param rth rth is {@code true} to only use ticks inside regular trading hours
+     */
+    public static HeadlessSeries fromTicks(HeadlessInstrument instrument, long barMillis, boolean rth) {
+        HeadlessSeries series = new HeadlessSeries(instrument, barMillis);
+        TickTape ticks = instrument.getTickTape();
+        for (int i = 0; i < ticks.size(); i++) {
+            long time = ticks.getTime(i);
+            if (rth && !instrument.isInsideTradingHours(time, true)) continue;
+            series.addTick(time, ticks.getPrice(i), ticks.getVolume(i));
+        }
+        return series;
+    }
+
+    public DataSeries asDataSeries() {
+        return series;
+    }
+
+    /**
+     * Appends a bar
+     */
+    public void addBar(long startTime, float open, float high, float low, float close, long volume) {
+        if (size == startTimes.length) grow();
+        startTimes[size] = startTime;
+        opens[size] = open;
+        highs[size] = high;
+        lows[size] = low;
+        closes[size] = close;
+        volumes[size] = volume;
+        values.add(null);
+        size++;
+    }
+
+    /**
+     * Adds a trade to the last bar, or starts a new bar if the trade is after the end of the last bar
+     */
+    public void addTick(long time, float price, int volume) {
+        if (size == 0 || time > getEndTime(size - 1)) {
+            addBar(time - Math.floorMod(time, barMillis), price, price, price, price, volume);
+            return;
+        }
+        int i = size - 1;
+        highs[i] = Math.max(highs[i], price);
+        lows[i] = Math.min(lows[i], price);
+        closes[i] = price;
+        volumes[i] += volume;
+    }
+
+    public void setBarSize(BarSize barSize) {
+        this.barSize = barSize;
+    }
+
+    public BarSize getBarSize() {
+        return barSize;
+    }
+
+    public Instrument getInstrument() {
+        return instrument.asInstrument();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getStartIndex() {
+        return 0;
+    }
+
+    public int getEndIndex() {
+        return size - 1;
+    }
+
+    public long getStartTime(int index) {
+        return startTimes[index];
+    }
+
+    public long getStartTime() {
+        return startTimes[size - 1];
+    }
+
+    public long getEndTime(int index) {
+        return startTimes[index] + barMillis - 1;
+    }
+
+    public long getEndTime() {
+        return getEndTime(size - 1);
+    }
+
+    /**
+     * @return The index of the last bar starting at or before the given time, or 0 if the time is before the first bar
+     */
+    public int findIndex(long time) {
+        int i = Arrays.binarySearch(startTimes, 0, size, time);
+        if (i < 0) i = -i - 2;
+        return Math.max(0, Math.min(i, size - 1));
+    }
+
+    public float getOpen(int index) {
+        return opens[index];
+    }
+
+    public float getHigh(int index) {
+        return highs[index];
+    }
+
+    public float getLow(int index) {
+        return lows[index];
+    }
+
+    public float getClose(int index) {
+        return closes[index];
+    }
+
+    public float getOpen() {
+        return opens[size - 1];
+    }
+
+    public float getHigh() {
+        return highs[size - 1];
+    }
+
+    public float getLow() {
+        return lows[size - 1];
+    }
+
+    public float getClose() {
+        return closes[size - 1];
+    }
+
+    public long getVolume(int index) {
+        return volumes[index];
+    }
+
+    public float getVolumeAsFloat(int index) {
+        return volumes[index];
+    }
+
+    public void setComplete(int index) {
+        complete[index] = true;
+    }
+
+    public void setComplete(int index, boolean isComplete) {
+        complete[index] = isComplete;
+    }
+
+    public boolean isComplete(int index) {
+        return complete[index];
+    }
+
+    public boolean isBarComplete(int index) {
+        return index < size - 1;
+    }
+
+    public void setValue(int index, Object key, Object value) {
+        Map<Object, Object> bar = values.get(index);
+        if (bar == null) {
+            bar = new HashMap<>();
+            values.set(index, bar);
+        }
+        bar.put(key, value);
+    }
+
+    public Object getValue(int index, Object key) {
+        Map<Object, Object> bar = index < values.size() ? values.get(index) : null;
+        return bar == null ? null : bar.get(key);
+    }
+
+    public void setDouble(int index, Object key, Double value) {
+        setValue(index, key, value);
+    }
+
+    public Double getDouble(int index, Object key) {
+        Object value = getValue(index, key);
+        return value == null ? null : ((Number) value).doubleValue();
+    }
+
+    public double getDouble(int index, Object key, double defaultValue) {
+        Double value = getDouble(index, key);
+        return value == null ? defaultValue : value;
+    }
+
+    public void setFloat(int index, Object key, Float value) {
+        setValue(index, key, value);
+    }
+
+    public Float getFloat(int index, Object key) {
+        Object value = getValue(index, key);
+        return value == null ? null : ((Number) value).floatValue();
+    }
+
+    public float getFloat(int index, Object key, float defaultValue) {
+        Float value = getFloat(index, key);
+        return value == null ? defaultValue : value;
+    }
+
+    public void setInt(int index, Object key, int value) {
+        setValue(index, key, value);
+    }
+
+    public int getInt(int index, Object key) {
+        Object value = getValue(index, key);
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    public void setBoolean(int index, Object key, Boolean value) {
+        setValue(index, key, value);
+    }
+
+    public Boolean getBoolean(int index, Object key) {
+        return (Boolean) getValue(index, key);
+    }
+
+    public boolean getBoolean(int index, Object key, boolean defaultValue) {
+        Boolean value = getBoolean(index, key);
+        return value == null ? defaultValue : value;
+    }
+
+    private void grow() {
+        int capacity = startTimes.length * 2;
+        startTimes = Arrays.copyOf(startTimes, capacity);
+        opens = Arrays.copyOf(opens, capacity);
+        highs = Arrays.copyOf(highs, capacity);
+        lows = Arrays.copyOf(lows, capacity);
+        closes = Arrays.copyOf(closes, capacity);
+        volumes = Arrays.copyOf(volumes, capacity);
+        complete = Arrays.copyOf(complete, capacity);
+    }
+
+    @Override
+    public String toString() {
+        return instrument + " " + barMillis + "ms x " + size;
+    }
+}
@@ -0,0 +1,63 @@
+package com.tystr.headless;
+
+import java.awt.Color;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The default settings of the studies whose calculators run headless, as their settings descriptors set them, for
+ * building their settings snapshots with {@link com.tystr.SettingValues#of(Map)}. Each call returns a new map, so a
+ * caller can change a setting before building a snapshot. Colors are plain AWT colors rather than the platform's.
+ *
+ * @author Tyler Stroud
+ */
+public class StudySettings {
+    private StudySettings() {}
+
+    public static Map<String, Object> deltaCandleColor() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("PositiveDeltaThreshold", 20);
+        settings.put("NegativeDeltaThreshold", -20);
+        settings.put("NeutralDeltaLowThreshold", -5);
+        settings.put("NeutralDeltaHighThreshold", 5);
+        settings.put("PositiveDeltaColor", Color.GREEN.darker());
+        settings.put("NegativeDeltaColor", Color.RED);
+        settings.put("NeutralDeltaColor", Color.ORANGE);
+        settings.put("RedrawInterval", 33);
+        return settings;
+    }
+
+    /**
+     * @return The settings of Delta Pivots 3, without writing levels to a csv file
+     */
+    public static Map<String, Object> deltaPivots3() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("RthWindowSize", 10);
+        settings.put("GbxWindowSize", 10);
+        settings.put("EuroWindowSize", 10);
+        settings.put("WindowBars", "Chart");
+        settings.put("RthBarSize", 5000);
+        settings.put("GbxBarSize", 1000);
+        settings.put("EuroBarSize", 2000);
+        settings.put("SessionTimeZone", "America/New_York");
+        settings.put("HighlightWindows", false);
+        settings.put("RedrawInterval", 33);
+        settings.put("WriteCsv", false);
+        settings.put("CsvFilePath", "");
+        return settings;
+    }
+
+    public static Map<String, Object> volumeTaper() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("UpNumPrices", 3);
+        settings.put("DownNumPrices", 3);
+        settings.put("MinBarSize", 5);
+        settings.put("tickInterval", 1);
+        settings.put("showDeltaTriggers", false);
+        settings.put("bearishDeltaPercentThreshold", -0.10);
+        settings.put("bullishDeltaPercentThreshold", 0.10);
+        settings.put("offsetAboveInTicks", 2);
+        settings.put("offsetBelowInTicks", 2);
+        return settings;
+    }
+}
@@ -0,0 +1,209 @@
+package com.tystr.headless;
+
+import com.motivewave.platform.sdk.common.TickOperation;
+import com.tystr.tick.ReplayTick;
+import com.tystr.tick.TickTape;
+
+import java.util.Random;
+
+/**
+ * Generates order flow for load and soak testing the tick paths of the studies. The same seed and settings always
+ * generate the same ticks.
+ * <p>
+ * Trades hit the bid or lift the ask. The aggressor tends to stay on the same side for a while, as it does when a
+ * large order is worked. Each price level holds a random amount of resting size. When the aggressor has used it up,
+ * the inside market moves one tick in that direction, so the price walks on the instrument's tick size. Trade sizes
+ * are log-normal. Bursts, such as news, raise the tick rate and the trade sizes for a number of ticks.
+ * <p>
+ * Ticks are spaced by exponential gaps around {@link #setTicksPerSecond(double)} in generated time. Use
+ * {@link TickLoad} to deliver them at a wall clock rate.
+ *
+ * @author Tyler Stroud
+ */
+public class TickGenerator {
+    private static final double defaultTicksPerSecond = 10_000;
+    private static final double defaultSidePersistence = 0.75;
+    private static final double defaultMeanVolume = 3;
+    private static final double defaultVolumeSpread = 0.9;
+    private static final int defaultMaxVolume = 500;
+    private static final int defaultMeanLevelSize = 60;
+    private static final double defaultBurstProbability = 0.00005;
+    private static final int defaultBurstLength = 2_000;
+    private static final double defaultBurstMultiplier = 8;
+
+    private final Random random;
+    private final float tickSize;
+    private double ticksPerSecond = defaultTicksPerSecond;
+    private double sidePersistence = defaultSidePersistence;
+    private double meanVolume = defaultMeanVolume;
+    private double volumeSpread = defaultVolumeSpread;
+    private int maxVolume = defaultMaxVolume;
+    private int meanLevelSize = defaultMeanLevelSize;
+    private double burstProbability = defaultBurstProbability;
+    private int burstLength = defaultBurstLength;
+    private double burstMultiplier = defaultBurstMultiplier;
+
+    private long bidTick;
+    private double timeMillis;
+    private boolean isAskSide;
+    private int bidSize;
+    private int askSize;
+    private int burstRemaining = 0;
+
+    /**
+     * @param seed seed is the seed of the random number generator
+     * @param tickSize tickSize is the price increment of the instrument
+     * @param startPrice startPrice is the first bid price. It is rounded to the tick size.
+     * @param startTime startTime is the time of the first tick, in milliseconds since the epoch
+     */
+    public TickGenerator(long seed, float tickSize, float startPrice, long startTime) {
+        this.random = new Random(seed);
+        this.tickSize = tickSize;
+        this.bidTick = Math.round(startPrice / tickSize);
+        this.timeMillis = startTime;
+        this.isAskSide = random.nextBoolean();
+        this.bidSize = nextLevelSize();
+        this.askSize = nextLevelSize();
+    }
+
+    /**
+     * Sets the average number of ticks per second outside of bursts
+     */
+    public TickGenerator setTicksPerSecond(double ticksPerSecond) {
+        if (ticksPerSecond <= 0) throw new IllegalArgumentException("ticksPerSecond must be positive: " + ticksPerSecond);
+        this.ticksPerSecond = ticksPerSecond;
+        return this;
+    }
+
+    /**
+     * @param sidePersistence sidePersistence is the chance that a trade is on the same side as the trade before it,
+     *                        between 0 and 1. 0.5 makes every trade independent.
+     */
+    public TickGenerator setSidePersistence(double sidePersistence) {
+        this.sidePersistence = sidePersistence;
+        return this;
+    }
+
+    /**
+     * @param meanVolume meanVolume is the median trade size outside of bursts
+     * @param volumeSpread volumeSpread is the standard deviation of the log of the trade size; larger values give
+     *                     more large trades
+     * @param maxVolume maxVolume is the largest trade size
+     */
+    public TickGenerator setVolume(double meanVolume, double volumeSpread, int maxVolume) {
+        this.meanVolume = meanVolume;
+        this.volumeSpread = volumeSpread;
+        this.maxVolume = maxVolume;
+        return this;
+    }
+
+    /**
+     * @param meanLevelSize meanLevelSize is the average size resting at a price before the aggressor moves the price
+     */
+    public TickGenerator setMeanLevelSize(int meanLevelSize) {
+        this.meanLevelSize = Math.max(1, meanLevelSize);
+        return this;
+    }
+
+    /**
+     * @param burstProbability burstProbability is the chance that a burst starts at any tick
+     * @param burstLength burstLength is the number of ticks in a burst
+     * @param burstMultiplier burstMultiplier multiplies the tick rate and the median trade size during a burst
+     */
+    public TickGenerator setBursts(double burstProbability, int burstLength, double burstMultiplier) {
+        this.burstProbability = burstProbability;
+        this.burstLength = burstLength;
+        this.burstMultiplier = burstMultiplier;
+        return this;
+    }
+
+    public float getTickSize() {
+        return tickSize;
+    }
+
+    /**
+     * @return The generated time of the last tick in milliseconds, without truncating it to the tick's millisecond
+     */
+    public double getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return {@code true} if the last generated tick was part of a burst
+     */
+    public boolean isBursting() {
+        return burstRemaining > 0;
+    }
+
+    /**
+     * Generates the next tick into the given tick
+     *
+     * @return The given tick
+     */
+    public ReplayTick next(ReplayTick tick) {
+        if (burstRemaining > 0) {
+            burstRemaining--;
+        } else if (random.nextDouble() < burstProbability) {
+            burstRemaining = burstLength;
+        }
+        double multiplier = burstRemaining > 0 ? burstMultiplier : 1;
+
+        timeMillis += -Math.log(1 - random.nextDouble()) * 1000 / (ticksPerSecond * multiplier);
+        if (random.nextDouble() >= sidePersistence) isAskSide = !isAskSide;
+
+        double size = meanVolume * multiplier * Math.exp(random.nextGaussian() * volumeSpread);
+        int volume = (int) Math.max(1, Math.min(maxVolume, Math.round(size)));
+
+        float bid = bidTick * tickSize;
+        float ask = (bidTick + 1) * tickSize;
+        tick.set((long) timeMillis, isAskSide ? ask : bid, bid, ask, volume, isAskSide);
+
+        // Take the resting size and move the inside market once a level is used up
+        if (isAskSide) {
+            askSize -= volume;
+            if (askSize <= 0) {
+                bidTick++;
+                bidSize = nextLevelSize();
+                askSize = nextLevelSize();
+            }
+        } else {
+            bidSize -= volume;
+            if (bidSize <= 0) {
+                bidTick--;
+                bidSize = nextLevelSize();
+                askSize = nextLevelSize();
+            }
+        }
+        return tick;
+    }
+
+    /**
+     * Passes the next {@code count} ticks to the given operation. The same tick instance is refilled for every call.
+     */
+    public void forEach(int count, TickOperation operation) {
+        ReplayTick tick = new ReplayTick();
+        for (int i = 0; i < count; i++) {
+            operation.onTick(next(tick));
+        }
+    }
+
+    /**
+     * @return A tape holding the next {@code count} ticks
+     */
+    public TickTape generate(int count) {
+        TickTape tape = new TickTape(count);
+        forEach(count, tape::add);
+        return tape;
+    }
+
+    /**
+     * @return An instrument whose {@code forEachTick} replays the next {@code count} ticks
+     */
+    public HeadlessInstrument toInstrument(String symbol, int count) {
+        return new HeadlessInstrument(symbol, tickSize, generate(count));
+    }
+
+    private int nextLevelSize() {
+        return 1 + random.nextInt(2 * meanLevelSize);
+    }
+}
@@ -0,0 +1,184 @@
+package com.tystr.headless;
+
+import com.motivewave.platform.sdk.common.DataSeries;
+import com.motivewave.platform.sdk.common.Defaults;
+import com.motivewave.platform.sdk.common.TickOperation;
+import com.motivewave.platform.sdk.common.Util;
+import com.tystr.DeltaCandleColor;
+import com.tystr.DeltaPivots3;
+import com.tystr.RedrawCoalescer;
+import com.tystr.SettingValues;
+import com.tystr.StudyLog;
+import com.tystr.StudyMetrics;
+import com.tystr.delta.FootprintStore;
+import com.tystr.study.VolumeTaperStudy;
+import com.tystr.tick.LiveTickBuffer;
+import com.tystr.tick.ReplayTick;
+import com.tystr.tick.TickTape;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Delivers generated ticks to an operation on the calling thread at a wall clock rate, and measures how far behind
+ * schedule each tick was handled. A tick is due when its generated time, divided by the speed, has passed since the
+ * start of the run; its latency is the time from then until the operation returns. An operation that cannot keep up
+ * falls further behind with every tick, which shows as a growing latency rather than a lower rate.
+ * <p>
+ * Run from the command line to soak the live tick paths of the Delta Candle Color, Volume Taper and Delta Pivots 3
+ * calculators:
+ * <pre>
+ *     java com.tystr.headless.TickLoad [ticks] [ticksPerSecond] [seed]
+ * </pre>
+ * Each tick is added to one minute bars, as the platform updates the chart's series, and then passed to the live tick
+ * buffer of each study, which hands it to the study's calculator. The calculators are those the studies create, with
+ * their default settings. The bars are a headless series, which forwards each call reflectively, so the latencies
+ * include a small fixed cost per series call that the calculators do not have in MotiveWave. The series needs the jars
+ * of a MotiveWave installation on the class path (see {@link Headless}).
+ *
+ * @author Tyler Stroud
+ */
+public class TickLoad {
+    private static final long spinNanos = 100_000;
+
+    private TickLoad() {}
+
+    /**
+     * @param generator generator generates the ticks
+     * @param count count is the number of ticks to deliver
+     * @param speed speed divides the generated time between ticks. 1 delivers at the generator's tick rate.
+     * @param operation operation is passed every tick
+     */
+    public static Report run(TickGenerator generator, int count, double speed, TickOperation operation) {
+        ReplayTick tick = new ReplayTick();
+        long[] latencies = new long[count];
+        double firstTime = Double.NaN;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            generator.next(tick);
+            if (Double.isNaN(firstTime)) firstTime = generator.getTimeMillis();
+            long due = start + (long) ((generator.getTimeMillis() - firstTime) * 1_000_000 / speed);
+            waitUntil(due);
+            operation.onTick(tick);
+            latencies[i] = Math.max(0, System.nanoTime() - due);
+        }
+        return new Report(latencies, System.nanoTime() - start);
+    }
+
+    private static void waitUntil(long due) {
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            if (remaining > spinNanos) LockSupport.parkNanos(remaining - spinNanos);
+            else Thread.onSpinWait();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        double ticksPerSecond = args.length > 1 ? Double.parseDouble(args[1]) : 100_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        float tickSize = 0.25f;
+        float startPrice = 4000f;
+        long startTime = System.currentTimeMillis();
+        TickGenerator generator = new TickGenerator(seed, tickSize, startPrice, startTime)
+                .setTicksPerSecond(ticksPerSecond);
+
+        // the series starts with the empty bar of the first tick, so the calculators can be created at its index
+        HeadlessInstrument instrument = new HeadlessInstrument("SOAK", tickSize, new TickTape());
+        HeadlessSeries bars = new HeadlessSeries(instrument, Util.MILLIS_IN_MINUTE);
+        bars.addBar(startTime - Math.floorMod(startTime, Util.MILLIS_IN_MINUTE), startPrice, startPrice, startPrice, startPrice, 0);
+        DataSeries series = bars.asDataSeries();
+        Defaults defaults = Headless.defaults();
+        StudyLog log = new StudyLog(TickLoad.class.getSimpleName());
+        RedrawCoalescer redraws = new RedrawCoalescer(() -> {});
+        Path footprintRoot = Files.createTempDirectory("tystr-soak-footprints");
+        FootprintStore footprintStore = FootprintStore.get(footprintRoot);
+
+        LiveTickBuffer deltaCandleTicks = new LiveTickBuffer(log);
+        DeltaCandleColor.DeltaCalculator deltaCandle = new DeltaCandleColor.DeltaCalculator(0, series, defaults, footprintStore,
+                new DeltaCandleColor.SettingsSnapshot(SettingValues.of(StudySettings.deltaCandleColor())), deltaCandleTicks,
+                StudyMetrics.get("DeltaCandleColor soak"), redraws);
+        deltaCandle.setCalculating(false);
+        publish(deltaCandleTicks, deltaCandle);
+
+        LiveTickBuffer volumeTaperTicks = new LiveTickBuffer(log);
+        publish(volumeTaperTicks, new VolumeTaperStudy.VolumeTaperCalculator(0, series, footprintStore,
+                new VolumeTaperStudy.SettingsSnapshot(SettingValues.of(StudySettings.volumeTaper())), volumeTaperTicks,
+                StudyMetrics.get("VolumeTaperStudy soak"), (mark, index) -> {}));
+
+        LiveTickBuffer deltaPivotsTicks = new LiveTickBuffer(log);
+        publish(deltaPivotsTicks, new DeltaPivots3.SDPCalculator(0, series, defaults,
+                new DeltaPivots3.SettingsSnapshot(SettingValues.of(StudySettings.deltaPivots3()), log),
+                StudyMetrics.get("DeltaPivots3 soak"), redraws, log, figure -> {}));
+
+        try {
+            System.out.println(run(generator, count, 1, tick -> {
+                bars.addTick(tick.getTime(), tick.getPrice(), tick.getVolume());
+                deltaCandleTicks.onTick(tick);
+                volumeTaperTicks.onTick(tick);
+                deltaPivotsTicks.onTick(tick);
+            }));
+        } finally {
+            // footprints may still be queued for writing, so files that appear while deleting are left behind
+            try (Stream<Path> paths = Files.walk(footprintRoot)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Makes the calculator the target of the study's live ticks, as the study does once its backfill has finished
+     */
+    private static void publish(LiveTickBuffer liveTicks, TickOperation calculator) {
+        liveTicks.finishBackfill(liveTicks.startBackfill(calculator));
+    }
+
+    /**
+     * Throughput and latency of a run
+     */
+    public static class Report {
+        private final long[] latencies;
+        private final long elapsedNanos;
+
+        Report(long[] latencies, long elapsedNanos) {
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getCount() {
+            return latencies.length;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getTicksPerSecond() {
+            return elapsedNanos == 0 ? 0 : latencies.length * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @param percentile percentile is between 0 and 100
+         * @return The latency of the given percentile, in nanoseconds
+         */
+        public long getLatency(double percentile) {
+            if (latencies.length == 0) return 0;
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ticks in %.2f s (%.0f ticks/s), latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                    getCount(), elapsedNanos / 1e9, getTicksPerSecond(),
+                    getLatency(50) / 1e3, getLatency(99) / 1e3, getLatency(99.9) / 1e3, getLatency(100) / 1e3);
+        }
+    }
+}
@@ -6,6 +6,10 @@ import com.motivewave.platform.sdk.study.RuntimeDescriptor;
 import com.motivewave.platform.sdk.study.Study;
 import com.motivewave.platform.sdk.study.StudyHeader;
 import com.tystr.delta.DeltaBar;
+import com.tystr.delta.Footprint;
+import com.tystr.delta.FootprintStore;
+import com.tystr.tick.LiveTickBuffer;
+import com.tystr.tick.TickDispatcher;
 
 import java.awt.*;
 import java.util.Collection;
@@ -26,7 +30,10 @@ public class DeltaCandleColor extends Study
 {
     enum Values { DELTA, DELTA_PERCENT};
     private DeltaCalculator calculator;
-    private boolean isCalculating = false;
+    private final LiveTickBuffer liveTicks = new LiveTickBuffer(new StudyLog(this)); // live ticks received during the backfill
+    private final RedrawCoalescer redraws = new RedrawCoalescer(this::notifyRedraw);
+    private volatile SettingsSnapshot settings; // replaced as a whole when the settings change
+    private volatile StudyMetrics metrics;
 
     @Override
     public void initialize(Defaults defaults)
@@ -47,6 +54,9 @@ public class DeltaCandleColor extends Study
         colorGroup.addRow(new ColorDescriptor("NegativeDeltaColor", "Negative Delta Candle Color", defaults.getRed()));
         colorGroup.addRow(new ColorDescriptor("NeutralDeltaColor", "Neutral Delta Candle Color", defaults.getOrange()));
 
+        SettingGroup displayGroup = tab.addGroup("Display");
+        displayGroup.addRow(new IntegerDescriptor("RedrawInterval", "Redraw Interval (ms)", 33, 16, 1000, 1));
+
         sd.addQuickSettings(
                 "PositiveDeltaThreshold",
                 "NegativeDeltaThreshold",
@@ -62,58 +72,133 @@ public class DeltaCandleColor extends Study
         rd.exportValue(new ValueDescriptor(Values.DELTA_PERCENT, "Delta %", null));
     }
 
+    @Override
+    public void onSettingsUpdated(DataContext ctx) {
+        settings = new SettingsSnapshot(SettingValues.of(getSettings()));
+        DeltaCalculator c = calculator;
+        if (c != null) c.setSettings(settings);
+        super.onSettingsUpdated(ctx);
+    }
+
     @Override
     protected void calculateValues(DataContext ctx) {
+        settings = new SettingsSnapshot(SettingValues.of(getSettings()));
         DataSeries series = ctx.getDataSeries();
         Defaults defaults = ctx.getDefaults();
         Instrument instrument = series.getInstrument();
 
+        metrics = StudyMetrics.get("DeltaCandleColor " + instrument.getSymbol() + " " + series.getBarSize());
+        metrics.startBackfill();
+
         int startIndex = 1;
-        calculator = new DeltaCalculator(startIndex, series, defaults);
-        isCalculating = true;
-        instrument.forEachTick(series.getStartTime(startIndex), ctx.getCurrentTime() + Util.MILLIS_IN_MINUTE, ctx.isRTH(), calculator);
-        isCalculating = false;
+        FootprintStore footprintStore = FootprintStore.get(instrument, series.getBarSize(), ctx.isRTH());
+        calculator = new DeltaCalculator(startIndex, series, defaults, footprintStore, settings, liveTicks, metrics, redraws);
+        redraws.setFrameMillis(settings.redrawInterval);
+        redraws.hold();
+        TickOperation backfill = liveTicks.startBackfill(calculator);
+        try {
+            calculator.loadSavedBars();
+            TickDispatcher.forEachTick(instrument, series.getStartTime(calculator.getNextIndex()), ctx.getCurrentTime() + Util.MILLIS_IN_MINUTE, ctx.isRTH(), metrics.countTicks(backfill));
+        } finally {
+            calculator.setCalculating(false);
+            liveTicks.finishBackfill(backfill);
+            redraws.release();
+            metrics.finishBackfill();
+            debug(metrics.getSummary());
+        }
     }
 
     @Override
     public void onTick(DataContext ctx, Tick tick) {
-        if (isCalculating || calculator == null) return;
-        calculator.onTick(tick);
+        long start = System.nanoTime();
+        liveTicks.onTick(tick);
+        StudyMetrics m = metrics;
+        if (m != null) m.recordTick(start);
     }
 
-    class DeltaCalculator implements TickOperation {
+    /**
+     * Builds the delta and footprint of each bar from ticks, colors bars once they close and, for live ticks, while
+     * they form. Takes everything it uses from the study, so it can also be created outside MotiveWave.
+     */
+    public static class DeltaCalculator implements TickOperation {
         private final DataSeries series;
+        private final FootprintStore footprintStore;
+        private final LiveTickBuffer liveTicks;
+        private final StudyMetrics metrics;
+        private final RedrawCoalescer redraws;
+        private volatile SettingsSnapshot settings;
+        private volatile boolean isCalculating = true;
         private int nextIndex;
         private DeltaBar deltaBar;
+        private Footprint footprint;
 
         private long nextEnd;
         private final Color defaultBarUpColor;
         private final Color defaultBarDownColor;
-        public DeltaCalculator(int startIndex, DataSeries series, Defaults defaults) {
+        /**
+         * @param footprintStore footprintStore is where the footprints of finished bars are loaded from and saved to
+         * @param liveTicks liveTicks is the buffer the calculator receives ticks through, asked whether a bar's live
+         *                  ticks were all seen before its footprint is saved
+         * @param redraws redraws is asked to redraw when a bar is colored
+         */
+        public DeltaCalculator(int startIndex, DataSeries series, Defaults defaults, FootprintStore footprintStore, SettingsSnapshot settings,
+                               LiveTickBuffer liveTicks, StudyMetrics metrics, RedrawCoalescer redraws) {
             this.series = series;
+            this.footprintStore = footprintStore;
+            this.settings = settings;
+            this.liveTicks = liveTicks;
+            this.metrics = metrics;
+            this.redraws = redraws;
             this.nextIndex = startIndex;
             this.nextEnd = series.getEndTime(startIndex);
-            this.deltaBar = new DeltaBar();
+            this.deltaBar = new DeltaBar((float) series.getInstrument().getTickSize());
+            this.footprint = new Footprint((float) series.getInstrument().getTickSize());
             defaultBarUpColor = defaults.getBarUpColor();
             defaultBarDownColor = defaults.getBarDownColor();
         }
 
-        public void onTick(Tick tick) {
-            if (tick.getTime() > series.getEndTime(nextIndex)) { // Bar is complete, set color and reset delta
+        /**
+         * Completes bars from saved footprints, starting at the next index, until a bar has not been saved. Ticks only
+         * need to be replayed from the bar at {@code nextIndex} afterwards.
+         */
+        public void loadSavedBars() {
+            while (nextIndex < series.size() - 1) {
+                Footprint saved = footprintStore.load(series.getStartTime(nextIndex));
+                if (saved == null) return;
+
+                deltaBar = saved.toDeltaBar();
                 if (!deltaBar.isEmpty()) {
-                    colorBar(deltaBar);
-                    notifyRedraw();
+                    series.setInt(nextIndex, Values.DELTA, deltaBar.getDelta());
+                    series.setFloat(nextIndex, Values.DELTA_PERCENT, deltaBar.getDeltaPercent());
+                    metrics.addValues(2);
                 }
+                completeBar(false);
+            }
+        }
+
+        public int getNextIndex() {
+            return nextIndex;
+        }
 
-                series.setValue(nextIndex, "DeltaBar", deltaBar);
-                series.setComplete(nextIndex);
+        public void setSettings(SettingsSnapshot settings) {
+            this.settings = settings;
+        }
+
+        /**
+         * @param isCalculating isCalculating is {@code false} once the backfill has finished, from when the bar is
+         *                      colored on every tick
+         */
+        public void setCalculating(boolean isCalculating) {
+            this.isCalculating = isCalculating;
+        }
 
-                // reset for next bar
-                deltaBar = new DeltaBar();
-                nextIndex++;
-                nextEnd = series.getEndTime(nextIndex);
+        public void onTick(Tick tick) {
+            // the last bar is still forming, so the index never moves past it
+            while (nextIndex < series.size() - 1 && tick.getTime() > series.getEndTime(nextIndex)) { // Bar is complete, set color and reset delta
+                completeBar(true);
             }
 
+            footprint.addTick(tick);
             if (tick.isAskTick()) {
                 deltaBar.addVolumeAtAsk(tick.getAskPrice(), tick.getVolume());
             } else {
@@ -121,21 +206,47 @@ public class DeltaCandleColor extends Study
             }
             series.setInt(nextIndex, Values.DELTA, deltaBar.getDelta());
             series.setFloat(nextIndex, Values.DELTA_PERCENT, deltaBar.getDeltaPercent());
+            metrics.addValues(2);
 
             if (!isCalculating) {
                 colorBar(deltaBar);
-                notifyRedraw();
+                redraws.requestRedraw();
+            }
+        }
+
+        private void completeBar(boolean save) {
+            if (!deltaBar.isEmpty()) {
+                colorBar(deltaBar);
+                redraws.requestRedraw();
+            }
+
+            series.setValue(nextIndex, "DeltaBar", deltaBar);
+            series.setComplete(nextIndex);
+            metrics.addValues(1);
+            // a saved footprint is not replaced, so a bar is only saved once its ticks add up to the whole bar: not a bar
+            // that received no ticks, e.g. across a gap in tick history, and not one missing live ticks dropped during
+            // the backfill
+            if (save && footprint.getVolume() > 0 && series.isBarComplete(nextIndex) && footprint.getVolume() == series.getVolume(nextIndex)
+                    && liveTicks.isComplete(series.getStartTime(nextIndex), series.getEndTime(nextIndex))) {
+                footprintStore.save(series.getStartTime(nextIndex), footprint);
             }
+
+            // reset for next bar
+            deltaBar = new DeltaBar((float) series.getInstrument().getTickSize());
+            footprint = new Footprint((float) series.getInstrument().getTickSize());
+            nextIndex++;
+            nextEnd = series.getEndTime(nextIndex);
         }
 
         private void colorBar(DeltaBar deltaBar) {
+            SettingsSnapshot s = settings;
             float deltaPercent = deltaBar.getDeltaPercent();
-            if (deltaPercent > getPositiveDeltaThreshold()) {
-                series.setPriceBarColor(nextIndex, getSettings().getColor("PositiveDeltaColor"));
-            } else if (deltaPercent < getNegativeDeltaThreshold()) {
-                series.setPriceBarColor(nextIndex, getSettings().getColor("NegativeDeltaColor"));
-            } else if (deltaPercent > getNeutralDeltaLowThreshold() && deltaPercent < getNeutralDeltaHighThreshold()) {
-                series.setPriceBarColor(nextIndex, getSettings().getColor("NeutralDeltaColor"));
+            if (deltaPercent > s.positiveDeltaThreshold) {
+                series.setPriceBarColor(nextIndex, s.positiveDeltaColor);
+            } else if (deltaPercent < s.negativeDeltaThreshold) {
+                series.setPriceBarColor(nextIndex, s.negativeDeltaColor);
+            } else if (deltaPercent > s.neutralDeltaLowThreshold && deltaPercent < s.neutralDeltaHighThreshold) {
+                series.setPriceBarColor(nextIndex, s.neutralDeltaColor);
             } else {
                 if (series.getClose(nextIndex) > series.getOpen(nextIndex)) {
                     series.setPriceBarColor(defaultBarUpColor);
@@ -144,19 +255,31 @@ public class DeltaCandleColor extends Study
                 }
             }
         }
+    }
 
-        private float getPositiveDeltaThreshold() {
-            return (float) getSettings().getInteger("PositiveDeltaThreshold") / 100;
-        }
-        private float getNegativeDeltaThreshold() {
-            return (float) getSettings().getInteger("NegativeDeltaThreshold") / 100;
-        }
-        private float getNeutralDeltaLowThreshold() {
-            return (float) getSettings().getInteger("NeutralDeltaLowThreshold") / 100;
-        }
-        private float getNeutralDeltaHighThreshold() {
-            return (float) getSettings().getInteger("NeutralDeltaHighThreshold") / 100;
-        }
+    /**
+     * The settings read by the calculator, copied out of the study settings once so colouring a bar on every tick does
+     * not look them up and unbox them each time
+     */
+    public static class SettingsSnapshot {
+        private final float positiveDeltaThreshold;
+        private final float negativeDeltaThreshold;
+        private final float neutralDeltaLowThreshold;
+        private final float neutralDeltaHighThreshold;
+        private final Color positiveDeltaColor;
+        private final Color negativeDeltaColor;
+        private final Color neutralDeltaColor;
+        private final int redrawInterval;
 
+        public SettingsSnapshot(SettingValues settings) {
+            positiveDeltaThreshold = (float) settings.getInteger("PositiveDeltaThreshold") / 100;
+            negativeDeltaThreshold = (float) settings.getInteger("NegativeDeltaThreshold") / 100;
+            neutralDeltaLowThreshold = (float) settings.getInteger("NeutralDeltaLowThreshold") / 100;
+            neutralDeltaHighThreshold = (float) settings.getInteger("NeutralDeltaHighThreshold") / 100;
+            positiveDeltaColor = settings.getColor("PositiveDeltaColor");
+            negativeDeltaColor = settings.getColor("NegativeDeltaColor");
+            neutralDeltaColor = settings.getColor("NeutralDeltaColor");
+            redrawInterval = settings.getInteger("RedrawInterval", 33);
+        }
     }
 }
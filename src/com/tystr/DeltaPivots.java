@@ -26,12 +26,14 @@ import com.motivewave.platform.sdk.study.StudyHeader;
         allowTickAggregate = true
 )
 public class DeltaPivots extends com.motivewave.platform.sdk.study.Study {
+    private final StudyLog log = new StudyLog(this);
     final static String SESSION_RTH = "RTH";
     final static String SESSION_JPY = "JPY";
     final static String SESSION_LONDON = "EURO/London";
     final static DayOfWeek[] tradingDays = new DayOfWeek[]{
             DayOfWeek.MONDAY, DayOfWeek.TUESDAY, DayOfWeek.WEDNESDAY, DayOfWeek.THURSDAY, DayOfWeek.FRIDAY
     };
+    final static ZoneId exchangeZone = ZoneId.of("America/New_York"); // session open times are New York local time
 
     private Map<Integer, DeltaBar> deltaBars; // Cache the delta calculations
 
@@ -64,8 +66,8 @@ public class DeltaPivots extends com.motivewave.platform.sdk.study.Study {
         sd.addQuickSettings("SessionInput");
 
         LocalTime rthOpenTime = LocalTime.of(9, 30);
-        LocalDateTime rthOpenDateTime = LocalDateTime.of(LocalDate.now(), rthOpenTime);
-        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime rthOpenDateTime = LocalDateTime.of(LocalDate.now(exchangeZone), rthOpenTime);
+        LocalDateTime now = LocalDateTime.now(exchangeZone);
         if (now.isBefore(rthOpenDateTime)) rthOpenDateTime = rthOpenDateTime.minusDays(1);
 
         deltaBars = new HashMap<>();
@@ -74,8 +76,8 @@ public class DeltaPivots extends com.motivewave.platform.sdk.study.Study {
 
     private LocalDateTime getLondonOpen() {
         LocalTime londonOpenTime = LocalTime.of(3, 00);
-        LocalDateTime londonOpenDateTime = LocalDateTime.of(LocalDate.now(), londonOpenTime);
-        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime londonOpenDateTime = LocalDateTime.of(LocalDate.now(exchangeZone), londonOpenTime);
+        LocalDateTime now = LocalDateTime.now(exchangeZone);
         if (now.isBefore(londonOpenDateTime)) londonOpenDateTime = londonOpenDateTime.minusDays(1);
 
         if (londonOpenDateTime.getDayOfWeek() == DayOfWeek.SATURDAY) londonOpenDateTime = londonOpenDateTime.minusDays(1);
@@ -88,8 +90,8 @@ public class DeltaPivots extends com.motivewave.platform.sdk.study.Study {
         // RTH OFFSET - only look at afternoon hours
         long offset = 0;
         LocalTime rthOpenTime = LocalTime.of(9, 30).plusHours(offset);
-        LocalDateTime rthOpenDateTime = LocalDateTime.of(LocalDate.now(), rthOpenTime);
-        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime rthOpenDateTime = LocalDateTime.of(LocalDate.now(exchangeZone), rthOpenTime);
+        LocalDateTime now = LocalDateTime.now(exchangeZone);
         if (now.isBefore(rthOpenDateTime)) rthOpenDateTime = rthOpenDateTime.minusDays(1);
 
         if (rthOpenDateTime.getDayOfWeek() == DayOfWeek.SATURDAY) rthOpenDateTime = rthOpenDateTime.minusDays(1);
@@ -106,27 +108,29 @@ public class DeltaPivots extends com.motivewave.platform.sdk.study.Study {
         Instrument instrument = series.getInstrument();
 
         if (series.size() != 0) {
-            debug("DataSeries size is " + series.size());
+            log.debug(() -> "DataSeries size is " + series.size());
             SessionDeltaPivot sdp = calculateDeltasForSession(ctx, series, session);
-            debug("SessionDeltaPivot: Session " + sdp.getSession());
-            debug("SessionDeltaPivot: Pivot" + sdp.getPivot());
-            debug("SessionDeltaPivot: High " + sdp.getHigh());
-            debug("SessionDeltaPivot: Low " + sdp.getLow());
-            debug("SessionDeltaPivot: Breadth " + sdp.getBreadth());
-            debug("SessionDeltaPivot: Delta " + sdp.getDelta());
-            debug("SessionDeltaPivot: Delta POC " + sdp.getDeltaPoc());
-            debug("SessionDeltaPivot: DataSeries Bar Index " + sdp.getBarIndex());
+            if (StudyLog.DEBUG && log.isDebugEnabled()) {
+                log.debug("SessionDeltaPivot: Session " + sdp.getSession());
+                log.debug("SessionDeltaPivot: Pivot" + sdp.getPivot());
+                log.debug("SessionDeltaPivot: High " + sdp.getHigh());
+                log.debug("SessionDeltaPivot: Low " + sdp.getLow());
+                log.debug("SessionDeltaPivot: Breadth " + sdp.getBreadth());
+                log.debug("SessionDeltaPivot: Delta " + sdp.getDelta());
+                log.debug("SessionDeltaPivot: Delta POC " + sdp.getDeltaPoc());
+                log.debug("SessionDeltaPivot: DataSeries Bar Index " + sdp.getBarIndex());
+            }
             clearFigures();
 
             boolean showLines = getSettings().getBoolean("HighlightBarsLines");
             // if current session only show lines if enab led
-            if (instrument.isInsideTradingHours(LocalDateTime.now().toEpochSecond(ZoneOffset.ofHours(-4)), true) && showLines) {
+            if (instrument.isInsideTradingHours(System.currentTimeMillis(), true) && showLines) {
                 addFiguresForSessionDeltaPivot(sdp, ctx.getDefaults());
-            } else if (!instrument.isInsideTradingHours(LocalDateTime.now().toEpochSecond(ZoneOffset.ofHours(-4)), true)) {
+            } else if (!instrument.isInsideTradingHours(System.currentTimeMillis(), true)) {
                 addFiguresForSessionDeltaPivot(sdp, ctx.getDefaults());
             }
         } else {
-            debug("DataSeries size is 0, skipping SDP calculation");
+            log.debug(() -> "DataSeries size is 0, skipping SDP calculation");
         }
 
         super.calculateValues(ctx);
@@ -152,20 +156,20 @@ public class DeltaPivots extends com.motivewave.platform.sdk.study.Study {
         switch (session) {
             case SESSION_RTH: // Calculate pivots during RTH session
                 sessionStartDateTime = getRthOpenLocalDateTime();
-                sessionStart = sessionStartDateTime.toEpochSecond(ZoneOffset.ofHours(-4)) * 1000; // -4 for EDT
-                sessionEnd = sessionStartDateTime.plusHours(6).plusMinutes(30).toEpochSecond(ZoneOffset.ofHours(-4)) * 1000; // -4 for EDT
+                sessionStart = sessionStartDateTime.atZone(exchangeZone).toInstant().toEpochMilli();
+                sessionEnd = sessionStartDateTime.plusHours(6).plusMinutes(30).atZone(exchangeZone).toInstant().toEpochMilli();
                 break;
             case SESSION_LONDON: // Calculate pivots during London session
                 sessionStartDateTime = getLondonOpen();
-                sessionStart = sessionStartDateTime.toEpochSecond(ZoneOffset.ofHours(-4)) * 1000; // -4 for EDT
-                sessionEnd = sessionStartDateTime.plusHours(6).plusMinutes(30).toEpochSecond(ZoneOffset.ofHours(-4)) * 1000; // -4 for EDT
+                sessionStart = sessionStartDateTime.atZone(exchangeZone).toInstant().toEpochMilli();
+                sessionEnd = sessionStartDateTime.plusHours(6).plusMinutes(30).atZone(exchangeZone).toInstant().toEpochMilli();
                 break;
             case SESSION_JPY: //
             default:
-                debug("USING DEFAULT SESSION RTH for session: " + session);
+                log.debug(() -> "USING DEFAULT SESSION RTH for session: " + session);
                 sessionStartDateTime = getRthOpenLocalDateTime();
-                sessionStart = sessionStartDateTime.toEpochSecond(ZoneOffset.ofHours(-4)) * 1000; // -4 for EDT
-                sessionEnd = sessionStartDateTime.plusHours(6).plusMinutes(30).toEpochSecond(ZoneOffset.ofHours(-4)) * 1000; // -4 for EDT
+                sessionStart = sessionStartDateTime.atZone(exchangeZone).toInstant().toEpochMilli();
+                sessionEnd = sessionStartDateTime.plusHours(6).plusMinutes(30).atZone(exchangeZone).toInstant().toEpochMilli();
         }
 
         // Iterate over DataSeries and compute deltas. THe Max and Min are tracked also
@@ -179,6 +183,8 @@ public class DeltaPivots extends com.motivewave.platform.sdk.study.Study {
         int maxRollingWindowDeltaSum = 0;
         int maxRollingDeltaWindowDeltaStartIndex = 0;
         int numBars = getSettings().getInteger("SmoothingBars", 1);
+        RollingSum rollingDeltaSum = new RollingSum(numBars + 1); // absolute delta of the last numBars + 1 bars
+        HighLowIndex highLows = null; // highs and lows of the session bars
 
         if (series.size() < 10) throw new RuntimeException();
         int startIndex = -1;
@@ -198,19 +204,24 @@ public class DeltaPivots extends com.motivewave.platform.sdk.study.Study {
                 deltaBar = getDeltaForTicksAsDeltaBar(ctx.getInstrument().getTicks(series.getStartTime(i), series.getEndTime(i)));
                 deltaBars.put(i, deltaBar);
                 int delta = deltaBar.getDelta();
-                debug("DELTA POC: " + deltaBar.getDeltaPOC());
                 float deltaPercent = delta / series.getVolumeAsFloat(i);
                 series.setInt(i, "Delta", delta);
                 series.setFloat(i, "DeltaPercent", deltaPercent);
                 //rthDeltas.put(i, delta);
-                debug("Calculated delta for index " + i + ": " + delta + " " + deltaPercent);
-                debug("STREAM SUM DELTA: " + deltaBar.calcDelta());
-            } else {
-                debug("Found delta "  + deltaBars.get(i).getDelta() + " for index " + i);
+                if (StudyLog.DEBUG && log.isDebugEnabled()) {
+                    log.debug("DELTA POC: " + deltaBar.getDeltaPOC());
+                    log.debug("Calculated delta for index " + i + ": " + delta + " " + deltaPercent);
+                    log.debug("STREAM SUM DELTA: " + deltaBar.calcDelta());
+                }
+            } else if (StudyLog.DEBUG && log.isDebugEnabled()) {
+                log.debug("Found delta "  + deltaBars.get(i).getDelta() + " for index " + i);
             }
 
             // update min/max delta
             int delta = deltaBars.get(i).getDelta();
+            rollingDeltaSum.add(Math.abs(delta));
+            if (highLows == null) highLows = new HighLowIndex(i);
+            highLows.add(series.getHigh(i), series.getLow(i));
             if (delta < 0 && delta < minDelta) {
                 minDelta = delta;
                 minDeltaIndex = i;
@@ -219,34 +230,34 @@ public class DeltaPivots extends com.motivewave.platform.sdk.study.Study {
                 maxDeltaIndex = i;
             }
 
-            debug("startIndex: " + startIndex);
+            if (StudyLog.DEBUG && log.isDebugEnabled()) log.debug("startIndex: " + startIndex);
 
             series.setPriceBarColor(i, series.getOpen(i) < series.getClose(i) ? defaults.getBarUpColor() : defaults.getBarDownColor());
             if (getSettings().getBoolean("SmoothingEnabled", false) && i > startIndex + numBars) {
-                debug("Calculating rolling window delta sum");
-                int rollingWindowDeltaSum = 0;
+                log.debug(() -> "Calculating rolling window delta sum");
                 int rollingWindowStart = i - numBars;
-                // calculate sum for rolling numBars window
-                for (int j = i; j >= rollingWindowStart; j--) {
-                    debug("Getting Delta for index " + j);
-                    rollingWindowDeltaSum += Math.abs(deltaBars.get(j).getDelta());
-                }
+                int rollingWindowDeltaSum = (int) rollingDeltaSum.getSum();
                 if (rollingWindowDeltaSum > maxRollingWindowDeltaSum) {
                     maxRollingWindowDeltaSum = rollingWindowDeltaSum;
                     maxRollingDeltaWindowDeltaStartIndex = rollingWindowStart;
                 }
-                debug("Calculated rollingWindowDeltaSum: " + rollingWindowDeltaSum);
+                if (StudyLog.DEBUG && log.isDebugEnabled()) log.debug("Calculated rollingWindowDeltaSum: " + rollingWindowDeltaSum);
             }
         }
-        debug("Calculated MAX rollingWindowDeltaSum: " + maxRollingWindowDeltaSum  + " starting at index " + maxRollingDeltaWindowDeltaStartIndex);
+        if (StudyLog.DEBUG && log.isDebugEnabled()) {
+            log.debug("Calculated MAX rollingWindowDeltaSum: " + maxRollingWindowDeltaSum  + " starting at index " + maxRollingDeltaWindowDeltaStartIndex);
+        }
 
         // Calculate High and Low of the rolling window
         float rollingWindowHigh = Float.NEGATIVE_INFINITY;
         float rollingWindowLow = Float.POSITIVE_INFINITY;
-        for (int i = maxRollingDeltaWindowDeltaStartIndex; i < maxRollingDeltaWindowDeltaStartIndex + numBars; i++) {
-            if (series.getHigh(i) > rollingWindowHigh) rollingWindowHigh = series.getHigh(i);
-            if (series.getLow(i) < rollingWindowLow) rollingWindowLow = series.getLow(i);
-            if (getSettings().getBoolean("HighlightBars", false)) {
+        int rollingWindowEnd = maxRollingDeltaWindowDeltaStartIndex + numBars - 1;
+        if (highLows != null && maxRollingDeltaWindowDeltaStartIndex >= highLows.getStartIndex() && rollingWindowEnd <= highLows.getEndIndex()) {
+            rollingWindowHigh = highLows.getHighest(maxRollingDeltaWindowDeltaStartIndex, rollingWindowEnd);
+            rollingWindowLow = highLows.getLowest(maxRollingDeltaWindowDeltaStartIndex, rollingWindowEnd);
+        }
+        if (getSettings().getBoolean("HighlightBars", false)) {
+            for (int i = maxRollingDeltaWindowDeltaStartIndex; i <= rollingWindowEnd; i++) {
                 series.setPriceBarColor(i, defaults.getGreen());
             }
         }
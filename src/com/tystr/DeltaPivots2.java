@@ -8,6 +8,8 @@ import com.motivewave.platform.sdk.draw.Text;
 import com.motivewave.platform.sdk.study.Plot;
 import com.motivewave.platform.sdk.study.StudyHeader;
 import com.tystr.delta.DeltaBar;
+import com.tystr.delta.Footprint;
+import com.tystr.delta.FootprintStore;
 import com.tystr.delta.SessionDeltaPivot;
 
 import java.awt.*;
@@ -40,6 +42,9 @@ public class DeltaPivots2 extends com.motivewave.platform.sdk.study.Study {
 
     private int maxRollingWindowDeltaSum = 0;
     private int maxRollingDeltaWindowDeltaStartIndex = 0;
+    private RollingSum rollingDeltaSum; // absolute delta of the bars in the current rolling window
+    private int lastRollingIndex = -1;
+    private HighLowIndex highLows; // highs and lows of bars before the current one
 
     private float sdp;
 
@@ -167,8 +172,7 @@ public class DeltaPivots2 extends com.motivewave.platform.sdk.study.Study {
 
             int numBars = getSettings().getInteger("SmoothingBars", 10);
 
-            // iterate over rolling window and calculate deltas
-            int rollingWindowDeltaSum = 0;
+            // slide the rolling window up to this bar and calculate deltas
             int rollingWindowStart = index - numBars;
 
 //            debug("numBars" + numBars);
@@ -179,29 +183,27 @@ public class DeltaPivots2 extends com.motivewave.platform.sdk.study.Study {
                 return;
             }
 
-            for (int i = index; i >= rollingWindowStart; i--) {
-                ZonedDateTime currentBarStart = ZonedDateTime.ofInstant(Instant.ofEpochMilli(series.getStartTime(index)), ZoneId.of("UTC"));
-                if (currentBarStart.isBefore(windowStart)) {
-                    // we are outside of the window
-                    return;
-                }
-
+            if (rollingDeltaSum == null || rollingDeltaSum.getWindowSize(0) != numBars + 1
+                    || lastRollingIndex < rollingWindowStart - 1 || lastRollingIndex >= index) {
+                // not continuing from the previous bar, start the window over
+                rollingDeltaSum = new RollingSum(numBars + 1);
+                lastRollingIndex = rollingWindowStart - 1;
+            }
+            for (int i = lastRollingIndex + 1; i <= index; i++) {
                 var deltaBar = (DeltaBar) series.getValue(i, "Delta");
                 if (null == deltaBar) {
-                    Map<Float, Integer> deltasByPrice = getDeltasByPrice(series.getStartTime(i), series.getEndTime(i), instrument);
-                    deltaBar = new DeltaBar(deltasByPrice);
+                    deltaBar = getFootprint(series, i, ctx.isRTH()).toDeltaBar();
                     series.setValue(i, "Delta", deltaBar);
 //                    debug("calculated delta: " + deltaBar.getDelta());
-                } else {
-//                    debug("found deltaBar at index: " + i);
                 }
-//                debug("DELTABAR at index (" + i + "): " + deltaBar);
-                rollingWindowDeltaSum += Math.abs(deltaBar.getDelta());
+                rollingDeltaSum.add(Math.abs(deltaBar.getDelta()));
+            }
+            lastRollingIndex = index;
 
-                if (rollingWindowDeltaSum > maxRollingWindowDeltaSum) {
-                    maxRollingWindowDeltaSum = rollingWindowDeltaSum;
-                    maxRollingDeltaWindowDeltaStartIndex = rollingWindowStart;
-                }
+            int rollingWindowDeltaSum = (int) rollingDeltaSum.getSum();
+            if (rollingWindowDeltaSum > maxRollingWindowDeltaSum) {
+                maxRollingWindowDeltaSum = rollingWindowDeltaSum;
+                maxRollingDeltaWindowDeltaStartIndex = rollingWindowStart;
             }
 
 //            debug("Calculated MAX rollingWindowDeltaSum: " + maxRollingWindowDeltaSum  + " starting at index " + maxRollingDeltaWindowDeltaStartIndex);
@@ -220,11 +222,14 @@ public class DeltaPivots2 extends com.motivewave.platform.sdk.study.Study {
                 int numBars = getSettings().getInteger("SmoothingBars", 10);
 
                 // Calculate High and Low of the rolling window
-                float rollingWindowHigh = Float.NEGATIVE_INFINITY;
-                float rollingWindowLow = Float.POSITIVE_INFINITY;
-                for (int i = maxRollingDeltaWindowDeltaStartIndex; i <= maxRollingDeltaWindowDeltaStartIndex + numBars; i++) {
-                    if (series.getHigh(i) > rollingWindowHigh) rollingWindowHigh = series.getHigh(i);
-                    if (series.getLow(i) < rollingWindowLow) rollingWindowLow = series.getLow(i);
+                int rollingWindowEnd = maxRollingDeltaWindowDeltaStartIndex + numBars;
+                if (highLows == null || highLows.getStartIndex() > maxRollingDeltaWindowDeltaStartIndex) {
+                    highLows = new HighLowIndex(series.getStartIndex());
+                }
+                highLows.addThrough(series, rollingWindowEnd);
+                float rollingWindowHigh = highLows.getHighest(maxRollingDeltaWindowDeltaStartIndex, rollingWindowEnd);
+                float rollingWindowLow = highLows.getLowest(maxRollingDeltaWindowDeltaStartIndex, rollingWindowEnd);
+                for (int i = maxRollingDeltaWindowDeltaStartIndex; i <= rollingWindowEnd; i++) {
                     // check if color bars enabled
                     series.setPriceBarColor(i, Color.GREEN);
 
@@ -417,33 +422,33 @@ public class DeltaPivots2 extends com.motivewave.platform.sdk.study.Study {
 //    }
 
     /**
+     * Returns the footprint of the bar at the given index, from the footprint store if the bar has been saved before.
+     * Otherwise it is built from the ticks of the bar and saved once the bar is complete and its ticks add up to the
+     * volume of the bar.
      *
-     * @param startTime
-     * @param endTime
-     * @param instrument
+     * @param series
+     * @param index
+     * @param rth rth is {@code true} if the series only holds regular trading hours
      * @return
      */
-    private Map<Float, Integer> getDeltasByPrice(long startTime, long endTime, Instrument instrument) {
-        Map<Float, Integer> deltasByPrice = new HashMap<Float, Integer>();
-
-        TickOperation t = tick -> {
-            if (tick.isAskTick()) {
-                int deltaAtPrice = deltasByPrice.getOrDefault(tick.getAskPrice(), 0);
-                deltaAtPrice += tick.getVolume();
-                deltasByPrice.put(tick.getAskPrice(), deltaAtPrice);
-            } else {
-                int deltaAtPrice = deltasByPrice.getOrDefault(tick.getBidPrice(), 0);
-                deltaAtPrice -= tick.getVolume();
-                deltasByPrice.put(tick.getBidPrice(), deltaAtPrice);
-            }
-        };
-        instrument.forEachTick(startTime, endTime, t);
+    private Footprint getFootprint(DataSeries series, int index, boolean rth) {
+        Instrument instrument = series.getInstrument();
+        FootprintStore footprintStore = FootprintStore.get(instrument, series.getBarSize(), rth);
+        long startTime = series.getStartTime(index);
+        Footprint footprint = footprintStore.load(startTime);
+        if (footprint != null) return footprint;
+
+        Footprint ticks = new Footprint((float) instrument.getTickSize());
+        instrument.forEachTick(startTime, series.getEndTime(index), ticks::addTick);
+        // a short tick request, e.g. while history is still loading, must not be saved in place of the whole bar
+        if (series.isBarComplete(index) && ticks.getVolume() == series.getVolume(index)) footprintStore.save(startTime, ticks);
 
-        return deltasByPrice;
+        return ticks;
     }
 
     @Override
     protected void calculateValues(DataContext ctx) {
+        highLows = null;
         super.calculateValues(ctx);
 
         long last = ctx.getDataSeries().getVisibleEndTime();
@@ -11,6 +11,10 @@ import com.motivewave.platform.sdk.study.Plot;
 import com.motivewave.platform.sdk.study.RuntimeDescriptor;
 import com.motivewave.platform.sdk.study.Study;
 import com.motivewave.platform.sdk.study.StudyHeader;
+import com.tystr.delta.BarResampler;
+import com.tystr.delta.DeltaBar;
+import com.tystr.tick.LiveTickBuffer;
+import com.tystr.tick.TickDispatcher;
 import study_examples.MyMovingAverage;
 
 import java.awt.*;
@@ -23,6 +27,7 @@ import java.nio.file.Paths;
 import java.time.*;
 import java.util.*;
 import java.util.List;
+import java.util.function.Consumer;
 
 @StudyHeader(
         namespace="com.tystr",
@@ -43,8 +48,14 @@ public class DeltaPivots3 extends Study
     private ArrayList<Line> lines;
 
     private Instrument instrument;
-    private SDPCalculator calculator;
-    private boolean isCalculating;
+    private volatile SDPCalculator calculator;
+    private volatile boolean isCalculating;
+    private boolean isRecalculationPending = false; // guarded by calculationLock, as is starting a backfill
+    private final Object calculationLock = new Object();
+    private final StudyLog log = new StudyLog(this);
+    private final LiveTickBuffer liveTicks = new LiveTickBuffer(log); // live ticks received during the backfill
+    private final RedrawCoalescer redraws = new RedrawCoalescer(this::notifyRedraw);
+    private volatile StudyMetrics metrics;
     private int lastIndex = 0;
 
     @Override
@@ -66,14 +77,33 @@ public class DeltaPivots3 extends Study
         windowGrp.addRow(new IntegerDescriptor("RthWindowSize", "RTH Window Size", 10, 1, Integer.MAX_VALUE, 1));
         windowGrp.addRow(new IntegerDescriptor("GbxWindowSize", "GBX Window Size", 10, 1, Integer.MAX_VALUE, 1));
         windowGrp.addRow(new IntegerDescriptor("EuroWindowSize", "Euro Window Size", 10, 1, Integer.MAX_VALUE, 1));
+        // rolling windows can run over volume, range or delta bars built from the ticks instead of the chart's bars
+        List<NVP> windowBars = List.of(
+                new NVP("Chart Bars", "Chart"),
+                new NVP("Volume Bars", "Volume"),
+                new NVP("Range Bars", "Range"),
+                new NVP("Delta Bars", "Delta")
+        );
+        windowGrp.addRow(new DiscreteDescriptor("WindowBars", "Window Bars", "Chart", windowBars));
+        windowGrp.addRow(new IntegerDescriptor("RthBarSize", "RTH Bar Size (volume, ticks or delta)", 5000, 1, Integer.MAX_VALUE, 1));
+        windowGrp.addRow(new IntegerDescriptor("GbxBarSize", "GBX Bar Size (volume, ticks or delta)", 1000, 1, Integer.MAX_VALUE, 1));
+        windowGrp.addRow(new IntegerDescriptor("EuroBarSize", "Euro Bar Size (volume, ticks or delta)", 2000, 1, Integer.MAX_VALUE, 1));
         windowGrp.addRow(new BooleanDescriptor("HighlightBars", "Color Bars", true));
 
+        // session windows are in the local time of the session time zone, so they follow its daylight saving changes
+        var sessionGrp = tab.addGroup("Session Windows");
+        sessionGrp.addRow(new StringDescriptor("SessionTimeZone", "Time Zone", "America/New_York"));
+        sessionGrp.addRow(new TimeFrameDescriptor("GbxSession", "GBX", 18 * 3600, 3 * 3600 + 25 * 60, true, false));
+        sessionGrp.addRow(new TimeFrameDescriptor("EuroSession", "Euro", 3 * 3600 + 31 * 60, 8 * 3600 + 31 * 60, true, false));
+        sessionGrp.addRow(new TimeFrameDescriptor("RthSession", "RTH", 13 * 3600 + 30 * 60, 15 * 3600 + 50 * 60, true, false));
+
         sd.addQuickSettings("PivotLine", "HighExtensionLine", "LowExtensionLine");
 
         // These are advanced or debug only settings - @todo remove from published version
         var advancedTab= sd.addTab("Advanced");
         SettingGroup advancedGroup = advancedTab.addGroup("Debug");
         advancedGroup.addRow(new BooleanDescriptor("HighlightWindows", "Show Session Window Start and End", false));
+        advancedGroup.addRow(new IntegerDescriptor("RedrawInterval", "Redraw Interval (ms)", 33, 16, 1000, 1));
 
 
         lines = new ArrayList<>();
@@ -119,6 +149,13 @@ public class DeltaPivots3 extends Study
         if (instrument != null) instrument.removeListener(calculator);
     }
 
+    @Override
+    public void onSettingsUpdated(DataContext ctx) {
+        SDPCalculator c = calculator;
+        if (c != null) c.setSettings(new SettingsSnapshot(SettingValues.of(getSettings()), log));
+        super.onSettingsUpdated(ctx);
+    }
+
     @Override
     protected void calculateValues(DataContext ctx) {
         DataSeries series = ctx.getDataSeries();
@@ -126,32 +163,80 @@ public class DeltaPivots3 extends Study
 //        System.err.println("lastIndex: " + lastIndex);
         if (series.size() - lastIndex == 1) return; //Skip calculating on new bars
         lastIndex = series.size();
-        if  (series.size() == 0 || isCalculating) return;
+        if  (series.size() == 0) return;
+        synchronized (calculationLock) {
+            if (isCalculating) {
+                // e.g. a settings change while the backfill runs; calculated again once the running backfill finishes
+                isRecalculationPending = true;
+                return;
+            }
+            isCalculating = true;
+        }
+        startBackfill(ctx);
+    }
+
+    /**
+     * Replays the ticks of the last days into a new calculator on a background thread, and publishes the calculator
+     * to live ticks once the replay has completed. Called with {@code isCalculating} set.
+     */
+    private void startBackfill(DataContext ctx) {
+        DataSeries series = ctx.getDataSeries();
         instrument = series.getInstrument();
 
         int maxDays = 10; // @todo configure this
         int startIndex = 1;
-        long threshold = instrument.getStartOfDay(series.getStartTime(), ctx.isRTH()) - ((maxDays+1) * Util.MILLIS_IN_DAY);
+        long threshold = SessionCalendar.get(instrument, ctx.isRTH()).getStartOfDay(series.getStartTime()) - ((maxDays+1) * Util.MILLIS_IN_DAY);
         for (int i = series.size()-1; i > 0; i--) {
             startIndex = i;
             if (series.getStartTime(i) < threshold) break;
         }
 
         int finalStartIndex = startIndex;
+        SettingsSnapshot settings = new SettingsSnapshot(SettingValues.of(getSettings()), log);
+        redraws.setFrameMillis(settings.redrawInterval);
+        redraws.hold();
+        StudyMetrics metrics = StudyMetrics.get("DeltaPivots3 " + instrument.getSymbol() + " " + series.getBarSize());
+        this.metrics = metrics;
+        metrics.startBackfill();
         Util.schedule(() -> {
+            // the calculator is only used on this thread until the live tick buffer publishes it to the data thread
+            SDPCalculator backfillCalculator = new SDPCalculator(finalStartIndex, series, ctx.getDefaults(), settings, metrics, redraws, log,
+                    figure -> addFigure(Plot.PRICE, figure));
+            TickOperation backfill = liveTicks.startBackfill(backfillCalculator);
+            boolean isReplayed = false;
             try {
-                isCalculating = true;
-                calculator = new SDPCalculator(finalStartIndex, series, ctx.getDefaults());
-                instrument.forEachTick(series.getStartTime(finalStartIndex), ctx.getCurrentTime() + Util.MILLIS_IN_MINUTE, ctx.isRTH(), calculator);
+                TickDispatcher.forEachTick(instrument, series.getStartTime(finalStartIndex), ctx.getCurrentTime() + Util.MILLIS_IN_MINUTE, ctx.isRTH(), metrics.countTicks(backfill));
+                isReplayed = true;
             } finally {
-                if (getSettings().getBoolean("WriteCsv")) {
-                    writeFile(calculator.getLastSDP(), getSettings().getString("CsvFilePath"));
+                boolean isRecalculating = finishCalculating();
+                if (!isReplayed) {
+                    liveTicks.cancelBackfill(backfill);
+                } else if (liveTicks.finishBackfill(backfill)) {
+                    calculator = backfillCalculator;
+                    if (settings.writeCsv) writeFile(backfillCalculator.getLastSDP(), settings.csvFilePath);
                 }
-                isCalculating = false;
+                redraws.release();
+                metrics.finishBackfill();
+                debug(metrics.getSummary());
+                if (isRecalculating) startBackfill(ctx);
             }
         });
     }
 
+    /**
+     * Ends the running calculation, unless a recalculation was asked for while it ran
+     *
+     * @return {@code true} if the calculation should be started again
+     */
+    private boolean finishCalculating() {
+        synchronized (calculationLock) {
+            boolean isRecalculating = isRecalculationPending;
+            isRecalculationPending = false;
+            isCalculating = isRecalculating;
+            return isRecalculating;
+        }
+    }
+
     private void appendRow(StringBuilder builder, String symbol, float price, String note, String fColor, String bColor, String diameter) {
         builder.append(symbol).append(",")
                 .append(price).append(",")
@@ -163,16 +248,13 @@ public class DeltaPivots3 extends Study
     }
 
     /**
-     * Writes SDP levels to a csv file for use with the Cloud Levels study
+     * Exports SDP levels to a csv file for use with the Cloud Levels study. The file is written in the background by
+     * {@link LevelExport}, and only if the levels have changed.
      * @param sdp
      * @param filePath
      */
     protected void writeFile(SDPCalculator.SDP sdp, String filePath) {
-        Path path = Paths.get(filePath);
-        if (!Files.exists(path) || !Files.isWritable(path)) {
-            System.err.println("Unable to write to " + path.toString());
-            return;
-        }
+        if (sdp == null || filePath == null || filePath.isEmpty()) return;
 
         StringBuilder content = new StringBuilder()
                 .append("Symbol,Price Level,Note,Foreground Color,Background Color,Diameter\n");
@@ -243,24 +325,15 @@ public class DeltaPivots3 extends Study
         );
 
 
-        System.err.println("\nFILE CONTENTS\n");
-        System.err.println(content.toString() + "\n");
-        System.err.println("Using file path " + path.toString());
-        String fileName = path.toString() + "/SDP_" + sdp.getInstrumentSymbol() + ".csv";
-
-        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(fileName), StandardCharsets.UTF_8))) {
-            writer.write(content.toString());
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
-        }
-        System.err.println("levels written to " + fileName);
+        LevelExport.submit(Paths.get(filePath, "SDP_" + sdp.getInstrumentSymbol() + ".csv"), content.toString());
     }
 
     @Override
     public void onTick(DataContext ctx, Tick tick) {
-        if (isCalculating || calculator == null) return;
-        calculator.onTick(tick);
+        long start = System.nanoTime();
+        liveTicks.onTick(tick);
+        StudyMetrics m = metrics;
+        if (m != null) m.recordTick(start);
     }
 
     @Override
@@ -289,207 +362,377 @@ public class DeltaPivots3 extends Study
         }
     }
 
-    class SDPCalculator implements TickOperation {
-        private final DataSeries series;
-        private int startIndex;
-        private int nextIndex;
-        private final boolean rth = true;
-        private SortedMap<Float, Integer> deltaByPrice;
-        private boolean calculating = false;
+    /**
+     * The settings read by the calculator, copied out of the study settings once. The calculator keeps the snapshot
+     * it was created with for the rolling window sizes, as its rolling sums are sized from them; a change to those
+     * settings recalculates the study with a new calculator.
+     */
+    public static class SettingsSnapshot {
+        private final BarResampler.Type windowBars; // null for the chart's bars
+        private final boolean highlightWindows;
+        private final boolean writeCsv;
+        private final String csvFilePath;
+        private final int redrawInterval;
+        private final List<SessionSettings> sessions; // GBX, Euro and RTH
+
+        public SettingsSnapshot(SettingValues settings, StudyLog log) {
+            switch (settings.getString("WindowBars", "Chart")) {
+                case "Volume":
+                    windowBars = BarResampler.Type.VOLUME;
+                    break;
+                case "Range":
+                    windowBars = BarResampler.Type.RANGE;
+                    break;
+                case "Delta":
+                    windowBars = BarResampler.Type.DELTA;
+                    break;
+                default:
+                    windowBars = null;
+            }
+            highlightWindows = settings.getBoolean("HighlightWindows");
+            writeCsv = settings.getBoolean("WriteCsv");
+            csvFilePath = settings.getString("CsvFilePath");
+            redrawInterval = settings.getInteger("RedrawInterval", 33);
 
-        private long nextEnd;
-        private long nextStart;
+            ZoneId zone;
+            try {
+                zone = ZoneId.of(settings.getString("SessionTimeZone", "America/New_York").trim());
+            } catch (DateTimeException e) {
+                log.warning(() -> "Unknown session time zone, using America/New_York: " + e.getMessage());
+                zone = ZoneId.of("America/New_York");
+            }
+            sessions = List.of(
+                    new SessionSettings(
+                            toSession("GBX", zone, settings.getTimeFrame("GbxSession"), 18 * 3600, 3 * 3600 + 25 * 60),
+                            settings.getInteger("GbxWindowSize"), settings.getInteger("GbxBarSize", 1000), "GbxSDP"),
+                    new SessionSettings(
+                            toSession("EURO", zone, settings.getTimeFrame("EuroSession"), 3 * 3600 + 31 * 60, 8 * 3600 + 31 * 60),
+                            settings.getInteger("EuroWindowSize"), settings.getInteger("EuroBarSize", 2000), "EuroSDP"),
+                    new SessionSettings(
+                            toSession("RTH", zone, settings.getTimeFrame("RthSession"), 13 * 3600 + 30 * 60, 15 * 3600 + 50 * 60),
+                            settings.getInteger("RthWindowSize"), settings.getInteger("RthBarSize", 5000), "RthSDP")
+            );
+        }
 
-        private long start;
-        private long end;
-        private long runningVolume = 0;
+        /**
+         * @param timeFrame timeFrame is the window's setting, or {@code null} to use the default start and end
+         */
+        private static SessionSchedule.Session toSession(String name, ZoneId zone, TimeFrame timeFrame, int defaultStart, int defaultEnd) {
+            int start = timeFrame == null ? defaultStart : timeFrame.getStartTime();
+            int end = timeFrame == null ? defaultEnd : timeFrame.getEndTime();
+            return new SessionSchedule.Session(name, zone, LocalTime.ofSecondOfDay(start % 86400), LocalTime.ofSecondOfDay(end % 86400));
+        }
+    }
 
-        private int maxDeltaWindowStartIndex = 0;
-        private int maxDeltaWindowSum = 0;
+    /**
+     * The settings of one session. A session added here gets its own rolling window and SDPs, computed in the same
+     * pass over the ticks as the others.
+     */
+    private static class SessionSettings {
+        private final SessionSchedule.Session window;
+        private final int windowSize;
+        private final int barSize; // volume, range in ticks or delta of the resampled bars
+        private final String sdpKey; // the value the session's SDPs are stored under
+
+        SessionSettings(SessionSchedule.Session window, int windowSize, int barSize, String sdpKey) {
+            this.window = window;
+            this.windowSize = windowSize;
+            this.barSize = barSize;
+            this.sdpKey = sdpKey;
+        }
+    }
 
-        private Window maxDeltaWindow;
-        private String currentSession = "";
+    /**
+     * Finds the window of bars with the largest delta in each session and records its SDP. Takes everything it uses
+     * from the study, so it can also be created outside MotiveWave.
+     */
+    public static class SDPCalculator implements TickOperation, BarResampler.Listener {
+        private static final int sdpHistory = 10; // completed SDPs kept per session
 
+        private final DataSeries series;
+        private final SessionSchedule schedule;
+        private final SessionSchedule.Cursor sessionCursor;
+        private final SessionState[] states; // one per session, indexed like the sessions of the schedule
+        private int activeStates = 0; // the sessions whose window is open, one bit per session
+        private int startIndex;
+        private int nextIndex;
 
-        private long tradingDayStart;
-        private long nextTradingDayStart;
-        private long rthStart;
-        private long rthEnd;
-        private long gbxStart;
-        private long gbxEnd;
-        private long euroStart;
-        private long euroEnd;
+        // highs and lows of closed bars, for the extents of SDP windows
+        private final HighLowIndex highLows;
+
+        // volume, range or delta bars the rolling windows run over instead of the chart's bars; null for chart bars
+        private final BarResampler resampler;
 
         private SDP lastSDP; // used to plot the most recent completed SDP
 
         private Defaults defaults;
+        private final SettingsSnapshot windowSettings; // the window sizes the sessions were built with
+        private volatile SettingsSnapshot settings; // the latest settings, for those read as windows open and close
+        private final StudyMetrics metrics;
+        private final RedrawCoalescer redraws;
+        private final StudyLog log;
+        private final Consumer<Figure> figures;
+
+        /**
+         * @param redraws redraws is asked to redraw when a bar closes
+         * @param figures figures is passed the markers of opening and closing windows, when they are highlighted
+         */
+        public SDPCalculator(int startIndex, DataSeries series, Defaults defaults, SettingsSnapshot windowSettings,
+                             StudyMetrics metrics, RedrawCoalescer redraws, StudyLog log, Consumer<Figure> figures) {
+            this.windowSettings = windowSettings;
+            this.settings = windowSettings;
+            this.metrics = metrics;
+            this.redraws = redraws;
+            this.log = log;
+            this.figures = figures;
+            this.startIndex = startIndex;
+            this.series = series;
+            this.nextIndex = startIndex;
+            this.defaults = defaults;
 
-        class SessionWindow {
-            int startHour;
-            int startMinute;
-            int endHour;
-            int endMinute;
-            int rollingWindowSize;
-            public SessionWindow(int startHour, int startMinute, int endHour, int endMinute, int rollingWindowSize) {
-                this.startHour = startHour;
-                this.startMinute = startMinute;
-                this.endHour = endHour;
-                this.endMinute = endMinute;
-                this.rollingWindowSize = rollingWindowSize;
-            }
+            List<SessionSchedule.Session> windows = new ArrayList<>();
+            for (SessionSettings session : windowSettings.sessions) windows.add(session.window);
+            this.schedule = new SessionSchedule(SessionCalendar.get(series.getInstrument(), false), windows);
+            this.sessionCursor = schedule.cursor();
 
-            public int getEndHour() {
-                return endHour;
+            if (windowSettings.windowBars != null) {
+                // all sessions' resolutions are built in the same pass over the ticks
+                resampler = new BarResampler((float) series.getInstrument().getTickSize());
+                resampler.setListener(this);
+            } else {
+                resampler = null;
             }
 
-            public int getEndMinute() {
-                return endMinute;
+            int maxWindowSize = 0;
+            states = new SessionState[windowSettings.sessions.size()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = new SessionState(i, windowSettings.sessions.get(i));
+                maxWindowSize = Math.max(maxWindowSize, states[i].rollingDelta.getWindowSize(0));
             }
+            this.highLows = new HighLowIndex(Math.max(0, startIndex - maxWindowSize));
         }
 
-        class Bar {
-            private final long start;
-            private final long end;
-            private final float open;
-            private final float high;
-            private final float low;
-            private final float close;
-
-            private int volume;
-            private int delta;
-
-            public Bar(long start, long end, float open, float high, float low, float close) {
-                this.start = start;
-                this.end = end;
-                this.open = open;
-                this.high = high;
-                this.low = low;
-                this.close = close;
-            }
-
-            public long getStart() {
-                return start;
-            }
-
-            public long getEnd() {
-                return end;
-            }
-
-            public boolean hasVolume() {
-                return null != (Integer) volume;
+        /**
+         * @return The SDP of the session window that ended most recently, of any session
+         */
+        public SDP getLastSDP() {
+            return this.lastSDP;
+        }
 
-            }
-            public void setVolume(int volume) {
-                this.volume = volume;
-            }
+        /**
+         * @param settings settings is read for whether windows are highlighted. The window sizes stay those the
+         *                 calculator was created with.
+         */
+        public void setSettings(SettingsSnapshot settings) {
+            this.settings = settings;
+        }
 
-            public int getVolume() {
-                return volume;
-            }
+        /**
+         * @param session session is the position of the session in the settings
+         * @return The completed SDPs of the session, oldest first
+         */
+        public List<SDP> getSDPs(int session) {
+            return new ArrayList<>(states[session].sdps);
+        }
 
-            public void setDelta(int delta) {
-                this.delta = delta;
+        /**
+         * Adds a resampled bar to the rolling window of the session it was built for
+         */
+        @Override
+        public void onBar(BarResampler.Track track) {
+            for (SessionState state : states) {
+                if (state.track == track) {
+                    if (state.isActive) state.onBar(track);
+                    return;
+                }
             }
+        }
 
-            public int getDelta() {
-                return delta;
+        /**
+         * The rolling window, the window with the largest absolute delta and the completed SDPs of one session. Every
+         * session is updated from the same ticks, so windows of different sessions may overlap.
+         */
+        class SessionState {
+            private final int bit;
+            private final String name;
+            private final String sdpKey;
+            private final int windowSize;
+            private DeltaBar deltaBar;
+            private boolean isActive = false;
+
+            // delta of each closed bar, over the window size + 1: a window of size n spans the closing bar and the
+            // n bars before it
+            private final RollingSum rollingDelta;
+            private int lastRollingIndex;
+            private int maxDeltaWindowStartIndex = 0;
+            private int maxDeltaWindowSum = 0;
+
+            private final BarResampler.Track track; // null for the chart's bars
+            private final RollingSum resampledDelta; // delta of the session's resampled bars over its window size
+            private boolean hasMaxResampledWindow = false;
+            private long maxWindowStartTime;
+            private long maxWindowEndTime;
+            private float maxWindowHigh;
+            private float maxWindowLow;
+
+            private final ArrayDeque<SDP> sdps = new ArrayDeque<>(); // most recent last
+
+            SessionState(int session, SessionSettings settings) {
+                this.bit = 1 << session;
+                this.name = settings.window.getName();
+                this.sdpKey = settings.sdpKey;
+                this.windowSize = settings.windowSize;
+                this.deltaBar = new DeltaBar((float) series.getInstrument().getTickSize());
+                this.rollingDelta = new RollingSum(windowSize + 1);
+                this.lastRollingIndex = startIndex - 1;
+                if (resampler != null) {
+                    track = resampler.addTrack(windowSettings.windowBars, settings.barSize, windowSize);
+                    resampledDelta = new RollingSum(windowSize);
+                } else {
+                    track = null;
+                    resampledDelta = null;
+                }
             }
 
-            public float getOpen() {
-                return open;
+            /**
+             * Opens the session's window at the given tick
+             */
+            void start(Tick tick) {
+                // starting a new session window, mark the start for debugging
+                if (settings.highlightWindows) {
+                    int index = series.findIndex(tick.getTime());
+                    Marker startArrow = new Marker(new Coordinate(series.getStartTime(index), series.getLow(index) - 2), Enums.MarkerType.TRIANGLE);
+                    startArrow.setSize(Enums.Size.LARGE);
+                    startArrow.setFillColor(defaults.getGreen());
+                    startArrow.setTextValue(name);
+                    figures.accept(startArrow);
+                    metrics.addFigures(1);
+                }
+                isActive = true;
+                deltaBar = new DeltaBar((float) series.getInstrument().getTickSize());
+                if (track != null) {
+                    // forget the resampled bars of the session that is starting
+                    track.reset();
+                    resampledDelta.clear();
+                    hasMaxResampledWindow = false;
+                }
             }
 
-            public float getHigh() {
-                return high;
+            void addTick(Tick tick) {
+                if (tick.isAskTick()) {
+                    deltaBar.addVolumeAtAsk(tick.getAskPrice(), tick.getVolume());
+                } else {
+                    deltaBar.addVolumeAtBid(tick.getBidPrice(), tick.getVolume());
+                }
             }
 
-            public float getLow() {
-                return low;
+            /**
+             * Adds the delta of the closing bar to the rolling window and keeps the window with the largest absolute
+             * delta
+             */
+            void closeBar() {
+                int deltaSum = deltaBar.getDelta();
+                series.setInt(nextIndex, Values.DELTA, deltaSum);
+
+                // bars closed without a rolling window calculation have no delta
+                rollingDelta.addZeros(nextIndex - lastRollingIndex - 1);
+                rollingDelta.add(deltaSum);
+                lastRollingIndex = nextIndex;
+
+                series.setComplete(nextIndex);
+                metrics.addValues(1);
+                deltaBar = new DeltaBar((float) series.getInstrument().getTickSize());
+                redraws.requestRedraw();
+                if (track != null) return; // the rolling windows run over the resampled bars, see onBar
+
+                int windowStartIndex = nextIndex - windowSize;
+                if (windowStartIndex < 1) {
+                    return; // not enough bars
+                }
+                int windowSum = (int) rollingDelta.getSum(0);
+                if (Math.abs(windowSum) >= Math.abs(maxDeltaWindowSum)) {
+                    maxDeltaWindowSum = windowSum;
+                    maxDeltaWindowStartIndex = windowStartIndex;
+                }
             }
 
-            public float getClose() {
-                return close;
+            /**
+             * Adds a resampled bar of the session to its rolling window and keeps the extents of the window with the
+             * largest absolute delta. Until a session has as many bars as its window size, the window is the bars so
+             * far.
+             */
+            void onBar(BarResampler.Track track) {
+                long bar = track.getCount() - 1;
+                resampledDelta.add(track.getDelta(bar));
+                int windowSum = (int) resampledDelta.getSum();
+                if (hasMaxResampledWindow && Math.abs(windowSum) < Math.abs(maxDeltaWindowSum)) return;
+
+                long firstBar = Math.max(track.getFirstAvailable(), bar - resampledDelta.getWindowSize(0) + 1);
+                hasMaxResampledWindow = true;
+                maxDeltaWindowSum = windowSum;
+                maxWindowStartTime = track.getStartTime(firstBar);
+                maxWindowEndTime = track.getEndTime(bar);
+                maxWindowHigh = track.getHighest(firstBar, bar);
+                maxWindowLow = track.getLowest(firstBar, bar);
             }
-        }
-        public SDPCalculator(int startIndex, DataSeries series, Defaults defaults) {
-            this.startIndex = startIndex;
-            this.series = series;
-            this.nextIndex = startIndex;
-            this.deltaByPrice = new TreeMap<>();
-            this.defaults = defaults;
-
-
-
 
-            Instrument instrument = series.getInstrument();
-            this.tradingDayStart = instrument.getStartOfDay(series.getStartTime(nextIndex), false);
-            this.nextTradingDayStart = Util.getStartOfNextDay(series.getStartTime(nextIndex), series.getInstrument(), false); // globex open of next day
+            /**
+             * Closes the session's window: colors the bars of the window with the largest delta and records its SDP
+             */
+            void finish() {
+                isActive = false;
 
-            // compute session windows for the day
-            // gbx session:
-            gbxStart = this.tradingDayStart;
-            gbxEnd = gbxStart + (9 * Util.MILLIS_IN_HOUR) + (25 * Util.MILLIS_IN_MINUTE);
-            // euro session:
-            euroStart = this.tradingDayStart +  (9 * Util.MILLIS_IN_HOUR) + (31 * Util.MILLIS_IN_MINUTE);
-            euroEnd = euroStart + (5 * Util.MILLIS_IN_HOUR) ; // this should be 9:30am est
-            // rth session:
-            rthStart = this.tradingDayStart + (19 * Util.MILLIS_IN_HOUR) + (30 * Util.MILLIS_IN_MINUTE);
-            rthEnd = rthStart + (2 * Util.MILLIS_IN_HOUR) + (20 * Util.MILLIS_IN_MINUTE);//instrument.getEndOfDay(tickTime, true) - Util.MILLIS_IN_HOUR - (10 * Util.MILLIS_IN_MINUTE);
-        }
+                // DEBUG: plot arrow marking end of session/period
+                if (settings.highlightWindows) {
+                    Marker arrow = new Marker(new Coordinate(series.getStartTime(nextIndex), series.getClose(nextIndex) - 16), Enums.MarkerType.TRIANGLE);
+                    arrow.setSize(Enums.Size.LARGE);
+                    arrow.setFillColor(defaults.getRed());
+                    arrow.setTextValue(name + "XXX");
+                    figures.accept(arrow);
+                    metrics.addFigures(1);
+                }
 
-        public SDP getLastSDP() {
-            return this.lastSDP;
-        }
-        private void calculateRollingWindow() {
-            int windowSize = getRollingWindowSizeForSession(currentSession);
+                long windowStartTime = track != null ? maxWindowStartTime : series.getStartTime(maxDeltaWindowStartIndex);
+                log.debug(() -> "Session: " + name + " - maxDeltaWindowStartTime: " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(windowStartTime), ZoneId.of("UTC")));
 
-            int deltaSum = deltaByPrice.values().stream().mapToInt(i -> i).sum();
-            series.setInt(nextIndex, Values.DELTA, deltaSum);
+                colorBars();
 
-            series.setComplete(nextIndex);
-            int windowStartIndex = nextIndex - windowSize;
-            if (windowStartIndex < 1) {
-                return; // not enough bars
-            }
-            int windowSum = 0;
-            for (int i = nextIndex; i >= windowStartIndex; i--) {
-                windowSum += series.getInt(i, Values.DELTA);
-            }
-            if (Math.abs(windowSum) >= Math.abs(maxDeltaWindowSum)) {
-                maxDeltaWindowSum = windowSum;
-                maxDeltaWindowStartIndex = windowStartIndex;
-            }
-            deltaByPrice.clear();
-            notifyRedraw();
-        }
+                SDP sdp = null;
+                if (track == null) {
+                    sdp = calculateSDPFromWindow(maxDeltaWindowStartIndex, windowSize);
+                    if (sdp != null) series.setFloat(maxDeltaWindowStartIndex, sdpKey, sdp.getMid());
+                } else if (hasMaxResampledWindow) {
+                    // no SDP for a session too quiet to close a single resampled bar
+                    sdp = new SDP(maxWindowHigh, maxWindowLow, series.getInstrument().getSymbol());
+                    series.setFloat(series.findIndex(maxWindowStartTime), sdpKey, sdp.getMid());
+                }
+                if (sdp != null) {
+                    sdps.addLast(sdp);
+                    if (sdps.size() > sdpHistory) sdps.removeFirst();
+                    lastSDP = sdp;
+                    metrics.addValues(1);
+                }
 
-        private int getRollingWindowSizeForSession(String session) {
-            switch (session) {
-                case "RTH":
-                    return getSettings().getInteger("RthWindowSize");
-                case "GBX":
-                    return getSettings().getInteger("GbxWindowSize");
-                case "EURO":
-                    return getSettings().getInteger("EuroWindowSize");
-                default:
-                    error("No rolling window size configured, using default \"10\".");
-                    return 10;
+                // reset
+                maxDeltaWindowStartIndex = 0;
+                maxDeltaWindowSum = 0;
+                hasMaxResampledWindow = false;
             }
-        }
-
 
-        private void colorBars() {
-            Color barColor = maxDeltaWindowSum > 0 ? defaults.getGreen() : defaults.getRed();
-
-//            Marker arrow = new Marker(new Coordinate(series.getStartTime(maxDeltaWindowStartIndex), series.getLow(maxDeltaWindowStartIndex) - 8), Enums.MarkerType.TRIANGLE);
-//            arrow.setSize(Enums.Size.MEDIUM);
-//            arrow.setFillColor(defaults.getRed());
-//            arrow.setTextValue(currentSession + " SDP Window");
-//            addFigure(Plot.PRICE, arrow);
-
-            for (int i = maxDeltaWindowStartIndex; i < (maxDeltaWindowStartIndex + getRollingWindowSizeForSession(currentSession)); i++) {
-//                series.setPriceBarColor(i, getSettings().getColor("WindowBarColor"));
-                series.setPriceBarColor(i, barColor); // @todo set this on delta %
+            private void colorBars() {
+                Color barColor = maxDeltaWindowSum > 0 ? defaults.getGreen() : defaults.getRed();
+                if (track != null) {
+                    if (!hasMaxResampledWindow) return;
+                    int endIndex = series.findIndex(maxWindowEndTime);
+                    for (int i = series.findIndex(maxWindowStartTime); i <= endIndex; i++) {
+                        series.setPriceBarColor(i, barColor);
+                    }
+                    return;
+                }
+                int endIndex = Math.min(maxDeltaWindowStartIndex + windowSize, series.size());
+                for (int i = maxDeltaWindowStartIndex; i < endIndex; i++) {
+                    series.setPriceBarColor(i, barColor); // @todo set this on delta %
+                }
             }
         }
 
@@ -542,180 +785,52 @@ public class DeltaPivots3 extends Study
             }
         }
 
+        /**
+         * @return The SDP of the window's bars that are complete, or {@code null} if none of them are
+         */
         private SDP calculateSDPFromWindow(int windowStart, int windowSize) {
-            float high = Float.MIN_VALUE;
-            float low = Float.MAX_VALUE;
-            for (int i = windowStart; i < windowStart + windowSize; i++) {
-                if (series.getHigh(i) > high) high = series.getHigh(i);
-                if (series.getLow(i) < low) low = series.getLow(i);
-            }
+            // a session without any rolling window calculation leaves the window start at 0
+            windowStart = Math.max(windowStart, highLows.getStartIndex());
+            // the bars before nextIndex have been closed by a tick; later bars may not exist yet or still change, and
+            // a bar's high and low cannot be updated once it is in the index
+            int lastCompleteIndex = Math.min(nextIndex, series.size()) - 1;
+            int windowEnd = Math.min(windowStart + windowSize - 1, lastCompleteIndex);
+            if (windowEnd < windowStart) return null;
+            highLows.addThrough(series, windowEnd);
+            float high = highLows.getHighest(windowStart, windowEnd);
+            float low = highLows.getLowest(windowStart, windowEnd);
 
             return new SDP(high, low, series.getInstrument().getSymbol());
         }
-
+        /**
+         * Updates every session active at the tick, or whose window the tick closes
+         */
         public void onTick(Tick tick) {
-
-            if (series.isComplete(series.findIndex(tick.getTime()))) {
-                //return; // nothing to do if this index is complete
-            }
             long tickTime = tick.getTime();
-            Instrument instrument = series.getInstrument();
-
-
-            // if new day, recalculate sessions
-            if (tickTime > nextTradingDayStart) {
-                tradingDayStart = nextTradingDayStart;
-                nextTradingDayStart = Util.getStartOfNextDay(tickTime, instrument, false);
-
-                // gbx session:
-                gbxStart = this.tradingDayStart;
-                gbxEnd = gbxStart + (9 * Util.MILLIS_IN_HOUR) + (25 * Util.MILLIS_IN_MINUTE);
-                // euro session:
-                euroStart = this.tradingDayStart +  (9 * Util.MILLIS_IN_HOUR) + (31 * Util.MILLIS_IN_MINUTE);
-                euroEnd = euroStart + (5 * Util.MILLIS_IN_HOUR); // this should be 9:30am est
-                // rth session:
-                rthStart = this.tradingDayStart + (19 * Util.MILLIS_IN_HOUR) + (30 * Util.MILLIS_IN_MINUTE);
-                rthEnd = rthStart + (2 * Util.MILLIS_IN_HOUR) + (20 * Util.MILLIS_IN_MINUTE);//instrument.getEndOfDay(tickTime, true) - Util.MILLIS_IN_HOUR - (10 * Util.MILLIS_IN_MINUTE);
-                // euro session:
-//                debug("GBX: " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(gbxStart), ZoneId.of("UTC")) + " -> " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(gbxEnd), ZoneId.of("UTC")));
-//                debug("EURO: " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(euroStart), ZoneId.of("UTC")) + " -> " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(euroEnd), ZoneId.of("UTC")));
-//                debug("RTH: " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(rthStart), ZoneId.of("UTC")) + " -> " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(rthEnd), ZoneId.of("UTC")));
-            }
-
-            boolean insideWindow = false;
-            long currentStart = 0;
-            long currentEnd = 0;
-
-            if (tickTime >= gbxStart && tickTime < gbxEnd) {
-                insideWindow = true;
-                currentSession = "GBX";
-                currentStart = gbxStart;
-                currentEnd = gbxEnd;
-                nextEnd = currentEnd;
-                nextStart = currentStart;
-            } else if (tickTime >= euroStart && tickTime < euroEnd) {
-                insideWindow = true;
-                currentSession = "EURO";
-                currentStart = euroStart;
-                currentEnd = euroEnd;
-                nextEnd = currentEnd;
-                nextStart = currentStart;
-            } else if (tickTime >= rthStart && tickTime < rthEnd) {
-                insideWindow = true;
-                currentSession = "RTH";
-                currentStart = rthStart;
-                currentEnd = rthEnd;
-                nextEnd = currentEnd;
-                nextStart = currentStart;
-            }
-
-            runningVolume += tick.getVolume();
-//            if (runningVolume >= getIntervalForSession(currentSession))
-                // Bar currentBar = new Bar(start, end, open, high, low, close);
-                // barsForSession.add(currentBar)
-                // if we have enough bars, calculate rolling window
-
-            if (tickTime >= series.getEndTime(nextIndex)){
-//                debug("nextIndex: " + nextIndex + " tickTimeIndex: " + series.findIndex(tickTime));
-//                debug("barclose " + nextIndex + " GBX: " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(gbxStart), ZoneId.of("UTC")) + " -> " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(gbxEnd), ZoneId.of("UTC")));
-//                debug("barclose EURO: " + nextIndex + ZonedDateTime.ofInstant(Instant.ofEpochMilli(euroStart), ZoneId.of("UTC")) + " -> " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(euroEnd), ZoneId.of("UTC")));
-//                debug("barclose RTH: " + nextIndex + ZonedDateTime.ofInstant(Instant.ofEpochMilli(rthStart), ZoneId.of("UTC")) + " -> " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(rthEnd), ZoneId.of("UTC")));
-//                debug("tickTime: " + tickTime + " insideWindow: " + insideWindow + " currentSession: " + currentSession);
+            int activeSessions = sessionCursor.seek(tickTime);
 
+            // the last bar is still forming, so the index never moves past it
+            if (nextIndex < series.size() - 1 && tickTime >= series.getEndTime(nextIndex)) {
                 // Bar close inside session window, do rolling window calc if we have delta
-                if (insideWindow && !deltaByPrice.isEmpty()) {
-                    calculateRollingWindow();
+                for (int bits = activeSessions & activeStates; bits != 0; bits &= bits - 1) {
+                    SessionState state = states[Integer.numberOfTrailingZeros(bits)];
+                    if (!state.deltaBar.isEmpty()) state.closeBar();
                 }
                 nextIndex++;
             }
 
-            if (calculating && !insideWindow) {
-                calculating = false;
-
-                // DEBUG: plot arrow marking end of session/period
-                if (getSettings().getBoolean("HighlightWindows")) {
-                    Marker arrow = new Marker(new Coordinate(series.getStartTime(nextIndex), series.getClose(nextIndex) - 16), Enums.MarkerType.TRIANGLE);
-                    arrow.setSize(Enums.Size.LARGE);
-                    arrow.setFillColor(defaults.getRed());
-                    arrow.setTextValue(currentSession + "XXX");
-                    addFigure(Plot.PRICE, arrow);
-                }
-
-                // color bars
-//                debug("max delta for session " + currentSession + " starts at index " + maxDeltaWindowStartIndex);
-                debug("Session: " + currentSession + " - maxDeltaWindowStartTime: " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(series.getStartTime(maxDeltaWindowStartIndex)), ZoneId.of("UTC")));
-
-                colorBars();
-
-                // draw pivots
-
-//                debug("Completed Window ending at " + nextEnd);
-                SDP sdp;
-                switch (currentSession) {
-                    case "RTH":
-                        sdp = calculateSDPFromWindow(maxDeltaWindowStartIndex, getRollingWindowSizeForSession("RTH"));
-                        series.setFloat(maxDeltaWindowStartIndex, "RthSDP", sdp.getMid());
-                        nextStart = gbxStart;
-                        nextEnd = gbxEnd;
-                        break;
-                    case "GBX":
-                        sdp = calculateSDPFromWindow(maxDeltaWindowStartIndex, getRollingWindowSizeForSession("GBX"));
-                        series.setFloat(maxDeltaWindowStartIndex, "GbxSDP", sdp.getMid());
-                        nextStart = euroStart;
-                        nextEnd = euroEnd;
-                        break;
-                    case "EURO":
-                        sdp = calculateSDPFromWindow(maxDeltaWindowStartIndex, getRollingWindowSizeForSession("EURO"));
-                        series.setFloat(maxDeltaWindowStartIndex, "EuroSDP", sdp.getMid());
-                        nextStart = rthStart;
-                        nextEnd = rthEnd;
-                        break;
-                    default:
-                        return;
-                }
-                lastSDP = sdp;
-;
-
-
-//                debug("currentSession: " + currentSession);
-//                debug("currentTickTime: " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(tickTime), ZoneId.of("UTC")));
-//                debug ("New window starting at " +
-//                        ZonedDateTime.ofInstant(Instant.ofEpochMilli(nextStart), ZoneId.of("UTC")) +
-//                        " and ending at " + ZonedDateTime.ofInstant(Instant.ofEpochMilli(nextEnd), ZoneId.of("UTC"))
-//                );
-
-                // reset
-                maxDeltaWindowStartIndex = 0;
-                maxDeltaWindowSum = 0;
-                return;
-            }
-
-            // if we are after or equal to next start and haven't begun calculating yet, set next start
-            if (insideWindow) {
-                if (!calculating) {
-                    // starting a new session window, mark the start for debugging
-                    if (getSettings().getBoolean("HighlightWindows")) {
-                        Marker startArrow = new Marker(new Coordinate(series.getStartTime(series.findIndex(tick.getTime())), series.getLow(series.findIndex(tick.getTime())) - 2), Enums.MarkerType.TRIANGLE);
-                        startArrow.setSize(Enums.Size.LARGE);
-                        startArrow.setFillColor(defaults.getGreen());
-                        startArrow.setTextValue(currentSession);
-                        addFigure(Plot.PRICE, startArrow);
-                    }
-                    calculating = true;
-                }
-
-                if (tick.isAskTick()) {
-                    float price = tick.getAskPrice();
-                    int delta = deltaByPrice.getOrDefault(price, 0);
-                    delta += tick.getVolume();
-                    deltaByPrice.put(tick.getAskPrice(), delta);
-                } else {
-                    float price = tick.getBidPrice();
-                    int delta = deltaByPrice.getOrDefault(price, 0);
-                    delta -= tick.getVolume();
-                    deltaByPrice.put(tick.getBidPrice(), delta);
+            for (int bits = activeSessions | activeStates; bits != 0; bits &= bits - 1) {
+                SessionState state = states[Integer.numberOfTrailingZeros(bits)];
+                if ((activeSessions & state.bit) == 0) {
+                    state.finish();
+                    continue;
                 }
+                if (!state.isActive) state.start(tick);
+                state.addTick(tick);
             }
+            activeStates = activeSessions;
+            if (resampler != null && activeSessions != 0) resampler.onTick(tick);
         }
     }
+
 }
@@ -0,0 +1,140 @@
+package com.tystr;
+
+import com.motivewave.platform.sdk.common.DataSeries;
+
+import java.util.Arrays;
+
+/**
+ * A sparse table of bar highs and lows for finding the highest high and lowest low of any range of bars in constant
+ * time. Bars are appended in index order as they complete; appending a bar takes O(log n), where n is the number of
+ * bars indexed.
+ * <p>
+ * Entry {@code i} of level {@code k} holds the extreme of the {@code 2^k} bars starting at bar {@code i}, so any range
+ * is covered by two, possibly overlapping, entries of the same level.
+ *
+ * @author Tyler Stroud
+ */
+public class HighLowIndex {
+    private static final int defaultCapacity = 1024;
+
+    private final int startIndex;
+    private float[][] highs = new float[0][];
+    private float[][] lows = new float[0][];
+    private int capacity;
+    private int size = 0;
+
+    public HighLowIndex() {
+        this(0);
+    }
+
+    /**
+     * @param startIndex startIndex is the series index of the first bar that will be added
+     */
+    public HighLowIndex(int startIndex) {
+        this.startIndex = startIndex;
+        this.capacity = defaultCapacity;
+    }
+
+    /**
+     * Adds the high and low of the next bar
+     */
+    public void add(float high, float low) {
+        int i = size;
+        if (i == capacity) grow();
+        size++;
+        if (Integer.numberOfTrailingZeros(Integer.highestOneBit(size)) >= highs.length) addLevel();
+
+        highs[0][i] = high;
+        lows[0][i] = low;
+        for (int k = 1; k < highs.length; k++) {
+            int j = i - (1 << k) + 1;
+            if (j < 0) break;
+            int half = j + (1 << (k - 1));
+            highs[k][j] = Math.max(highs[k - 1][j], highs[k - 1][half]);
+            lows[k][j] = Math.min(lows[k - 1][j], lows[k - 1][half]);
+        }
+    }
+
+    /**
+     * Adds the bars of the series after the last indexed bar, up to and including the given index. Only bars that are
+     * complete should be added, as their high and low are not updated afterwards.
+     *
+     * @param series series the bars belong to
+     * @param index series index of the last bar to add
+     */
+    public void addThrough(DataSeries series, int index) {
+        for (int i = startIndex + size; i <= index; i++) {
+            add(series.getHigh(i), series.getLow(i));
+        }
+    }
+
+    /**
+     * @param from series index of the first bar of the range
+     * @param to series index of the last bar of the range, inclusive
+     * @return The highest high of the bars in the range
+     */
+    public float getHighest(int from, int to) {
+        int k = level(from, to);
+        int i = from - startIndex;
+        return Math.max(highs[k][i], highs[k][to - startIndex - (1 << k) + 1]);
+    }
+
+    /**
+     * @param from series index of the first bar of the range
+     * @param to series index of the last bar of the range, inclusive
+     * @return The lowest low of the bars in the range
+     */
+    public float getLowest(int from, int to) {
+        int k = level(from, to);
+        int i = from - startIndex;
+        return Math.min(lows[k][i], lows[k][to - startIndex - (1 << k) + 1]);
+    }
+
+    /**
+     * @return The series index of the first bar in the index
+     */
+    public int getStartIndex() {
+        return startIndex;
+    }
+
+    /**
+     * @return The series index of the last bar in the index, or {@code getStartIndex() - 1} if it is empty
+     */
+    public int getEndIndex() {
+        return startIndex + size - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all bars
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    private int level(int from, int to) {
+        if (from > to || from < startIndex || to > getEndIndex()) {
+            throw new IndexOutOfBoundsException("Range " + from + " to " + to + " is outside of the indexed bars "
+                    + startIndex + " to " + getEndIndex());
+        }
+        return 31 - Integer.numberOfLeadingZeros(to - from + 1);
+    }
+
+    private void addLevel() {
+        highs = Arrays.copyOf(highs, highs.length + 1);
+        lows = Arrays.copyOf(lows, lows.length + 1);
+        highs[highs.length - 1] = new float[capacity];
+        lows[lows.length - 1] = new float[capacity];
+    }
+
+    private void grow() {
+        capacity *= 2;
+        for (int k = 0; k < highs.length; k++) {
+            highs[k] = Arrays.copyOf(highs[k], capacity);
+            lows[k] = Arrays.copyOf(lows[k], capacity);
+        }
+    }
+}
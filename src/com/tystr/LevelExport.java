@@ -0,0 +1,95 @@
+package com.tystr;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes level files, such as the csv files read by the Cloud Levels study, on a background thread. Studies submit the
+ * contents of a file and return at once; the writer waits a short time so the exports of every symbol submitted
+ * together, e.g. after the backfills of a workspace, are written in one pass. Only the latest contents submitted for
+ * a file are written.
+ * <p>
+ * A file is only written when its contents differ from what was last written to it, or when it has been removed.
+ * Contents are written to a temporary file in the same directory, which is then moved over the file, so a reader
+ * polling the file sees either the previous levels or the new ones and never a partial file.
+ *
+ * @author Tyler Stroud
+ */
+public class LevelExport {
+    private static final StudyLog log = new StudyLog(LevelExport.class.getSimpleName());
+    private static final long batchDelayMillis = 250;
+    private static final Map<Path, String> pending = new LinkedHashMap<>();
+    private static final Map<Path, String> written = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService writer;
+    private static boolean isScheduled = false;
+
+    private LevelExport() {}
+
+    /**
+     * Queues the contents of a file to be written, replacing contents queued earlier for the same file
+     *
+     * @param file file is the file to write. Its directory must already exist.
+     * @param content content is the complete contents of the file
+     */
+    public static synchronized void submit(Path file, String content) {
+        pending.put(file.toAbsolutePath(), content);
+        if (isScheduled) return;
+        if (writer == null) {
+            writer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "tystr-level-export");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        writer.schedule(LevelExport::writePending, batchDelayMillis, TimeUnit.MILLISECONDS);
+        isScheduled = true;
+    }
+
+    /**
+     * Writes the queued files
+     */
+    private static void writePending() {
+        Map<Path, String> batch;
+        synchronized (LevelExport.class) {
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+            isScheduled = false;
+        }
+        for (Map.Entry<Path, String> entry : batch.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void write(Path file, String content) {
+        if (content.equals(written.get(file)) && Files.exists(file)) return;
+        Path directory = file.getParent();
+        if (!Files.isDirectory(directory) || !Files.isWritable(directory)) {
+            log.error(() -> "Unable to write to " + directory);
+            return;
+        }
+        try {
+            Path temp = Files.createTempFile(directory, "levels-", ".tmp");
+            try {
+                try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    out.write(content);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            written.put(file, content);
+        } catch (IOException e) {
+            log.error(() -> "Unable to write levels to " + file + ": " + e.getMessage());
+        }
+    }
+}
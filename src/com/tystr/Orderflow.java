@@ -15,6 +15,8 @@ import com.motivewave.platform.sdk.common.desc.IntegerDescriptor;
 import com.motivewave.platform.sdk.common.desc.MAMethodDescriptor;
 import com.motivewave.platform.sdk.common.desc.MarkerDescriptor;
 import com.motivewave.platform.sdk.common.desc.PathDescriptor;
+import com.tystr.delta.Footprint;
+import com.tystr.delta.FootprintStore;
 
 
 import java.awt.*;
@@ -98,11 +100,7 @@ public class Orderflow extends Study {
 
 
 
-        Bar bar = getDeltaForTicksAsDeltaBar(
-                series.getInstrument().getTicks(
-                        series.getStartTime(index), series.getEndTime(index)
-                )
-        );
+        Bar bar = getBar(series, index, ctx.isRTH());
         series.setValue(index, "Bar", bar);
 
         Object bids = series.getValue(index, "BidsByPrice");
@@ -181,32 +179,39 @@ public class Orderflow extends Study {
 
 
     /**
-     * Calculate bid/ask volume and delta for the given List of ticks
+     * Calculate bid/ask volume and delta for the bar at the given index. Footprints of complete bars whose ticks add up
+     * to the volume of the bar are saved to the footprint store and read back from it instead of requesting the ticks
+     * again.
      *
-     * @param ticks List of ticks
+     * @param series DataSeries
+     * @param index index of the bar
+     * @param rth rth is {@code true} if the series only holds regular trading hours
      * @return Bar
      */
-    protected Bar getDeltaForTicksAsDeltaBar(List<Tick> ticks) {
+    protected Bar getBar(DataSeries series, int index, boolean rth) {
+        Instrument instrument = series.getInstrument();
+        FootprintStore footprintStore = FootprintStore.get(instrument, series.getBarSize(), rth);
+        long startTime = series.getStartTime(index);
+        Footprint footprint = footprintStore.load(startTime);
+        if (footprint == null) {
+            footprint = new Footprint((float) instrument.getTickSize());
+            for (Tick tick : instrument.getTicks(startTime, series.getEndTime(index))) {
+                footprint.addTick(tick);
+            }
+            // a short tick request, e.g. while history is still loading, must not be saved in place of the whole bar
+            if (series.isBarComplete(index) && footprint.getVolume() == series.getVolume(index)) {
+                footprintStore.save(startTime, footprint);
+            }
+        }
+
         Map<Float, Integer> deltasByPrice = new HashMap<Float, Integer>();
         Map<Float, Long> bidsByPrice = new HashMap<Float, Long>();
         Map<Float, Long> asksByPrice = new HashMap<Float, Long>();
-        for (Tick tick : ticks) {
-            if (tick.isAskTick()) {
-                int deltaAtPrice = deltasByPrice.getOrDefault(tick.getAskPrice(), 0);
-                long askAtPrice = asksByPrice.getOrDefault(tick.getAskPrice(), 0L);
-                deltaAtPrice += tick.getVolume();
-                askAtPrice += tick.getVolume();
-                deltasByPrice.put(tick.getAskPrice(), deltaAtPrice);
-                asksByPrice.put(tick.getAskPrice(), askAtPrice);
-            } else {
-                int deltaAtPrice = deltasByPrice.getOrDefault(tick.getBidPrice(), 0);
-                long bidAtPrice = bidsByPrice.getOrDefault(tick.getBidPrice(), 0L);
-                deltaAtPrice -= tick.getVolume();
-                bidAtPrice += tick.getVolume();
-                deltasByPrice.put(tick.getBidPrice(), deltaAtPrice);
-                bidsByPrice.put(tick.getBidPrice(), bidAtPrice);
-            }
-        }
+        footprint.forEachLevel((price, bid, ask) -> {
+            deltasByPrice.put(price, ask - bid);
+            if (bid != 0) bidsByPrice.put(price, (long) bid);
+            if (ask != 0) asksByPrice.put(price, (long) ask);
+        });
 
         return new Bar(deltasByPrice, bidsByPrice, asksByPrice);
     }
@@ -0,0 +1,312 @@
+package com.tystr;
+
+import java.util.Arrays;
+
+/**
+ * This class provides a primitive, tick-indexed store of integer values by price, such as volume or delta. Prices are
+ * mapped to a slot with {@code round(price / tickSize)} and the backing arrays grow in either direction as new prices
+ * are added, so adding a value at a price does not allocate once the ladder has grown to cover the traded range.
+ *
+ * @author Tyler Stroud
+ */
+public class PriceLadder {
+    private static final int defaultCapacity = 64;
+
+    private float tickSize;
+    private int[] values;
+    private boolean[] touched;
+    private long baseTick;  // tick number stored at index 0
+    private int lowIndex;   // lowest touched index, inclusive
+    private int highIndex;  // highest touched index, inclusive
+    private int levels;     // number of touched prices
+    private long total;
+
+    /**
+     * @param tickSize tickSize is the price increment between two adjacent slots of the ladder
+     */
+    public PriceLadder(float tickSize) {
+        this(tickSize, defaultCapacity);
+    }
+
+    /**
+     * @param tickSize tickSize is the price increment between two adjacent slots of the ladder
+     * @param capacity capacity is the number of prices to reserve up front
+     */
+    public PriceLadder(float tickSize, int capacity) {
+        if (tickSize <= 0) throw new IllegalArgumentException("tickSize must be greater than 0");
+        this.tickSize = tickSize;
+        this.values = new int[Math.max(capacity, 1)];
+        this.touched = new boolean[values.length];
+        reset();
+    }
+
+    /**
+     * Creates a copy of the given ladder, trimmed to the touched range
+     *
+     * @param other ladder to copy
+     */
+    public PriceLadder(PriceLadder other) {
+        this.tickSize = other.tickSize;
+        int size = other.levels == 0 ? 1 : other.highIndex - other.lowIndex + 1;
+        this.values = new int[size];
+        this.touched = new boolean[size];
+        if (other.levels == 0) {
+            reset();
+            return;
+        }
+        System.arraycopy(other.values, other.lowIndex, values, 0, size);
+        System.arraycopy(other.touched, other.lowIndex, touched, 0, size);
+        this.baseTick = other.baseTick + other.lowIndex;
+        this.lowIndex = 0;
+        this.highIndex = size - 1;
+        this.levels = other.levels;
+        this.total = other.total;
+    }
+
+    /**
+     * Changes the tick size of this ladder. Values already stored are re-bucketed using the new tick size.
+     *
+     * @param tickSize tickSize is the price increment between two adjacent slots of the ladder
+     */
+    public void setTickSize(float tickSize) {
+        if (tickSize <= 0) throw new IllegalArgumentException("tickSize must be greater than 0");
+        if (this.tickSize == tickSize) return;
+        if (levels == 0) {
+            this.tickSize = tickSize;
+            return;
+        }
+
+        PriceLadder copy = new PriceLadder(this);
+        this.tickSize = tickSize;
+        clear();
+        for (int i = copy.lowIndex; i <= copy.highIndex; i++) {
+            if (copy.touched[i]) add(copy.getPriceAtIndex(i), copy.values[i]);
+        }
+    }
+
+    public float getTickSize() {
+        return tickSize;
+    }
+
+    /**
+     * Adds the given amount to the value stored at the specified price
+     *
+     * @param price price at which to add the amount
+     * @param amount amount to add
+     * @return the value stored at the price after adding the amount
+     */
+    public int add(float price, int amount) {
+        return addAtTick(toTick(price), amount);
+    }
+
+    /**
+     * Adds the given amount to the value stored at the specified tick number
+     *
+     * @param tick tick number, as returned by {@link #toTick(float)}
+     * @param amount amount to add
+     * @return the value stored at the tick after adding the amount
+     */
+    public int addAtTick(long tick, int amount) {
+        int index = ensureIndex(tick);
+        if (!touched[index]) {
+            touched[index] = true;
+            levels++;
+            if (levels == 1) {
+                lowIndex = index;
+                highIndex = index;
+            } else if (index < lowIndex) {
+                lowIndex = index;
+            } else if (index > highIndex) {
+                highIndex = index;
+            }
+        }
+        values[index] += amount;
+        total += amount;
+        return values[index];
+    }
+
+    /**
+     * @param price price to look up
+     * @return the value stored at the given price, or 0 if nothing has been added at that price
+     */
+    public int get(float price) {
+        return getAtTick(toTick(price));
+    }
+
+    /**
+     * @param tick tick number to look up
+     * @return the value stored at the given tick number, or 0 if nothing has been added at that tick
+     */
+    public int getAtTick(long tick) {
+        long index = tick - baseTick;
+        if (index < 0 || index >= values.length) return 0;
+        return values[(int) index];
+    }
+
+    /**
+     * @param tick tick number to look up
+     * @return {@code true} if a value has been added at the given tick number
+     */
+    public boolean containsTick(long tick) {
+        long index = tick - baseTick;
+        if (index < 0 || index >= values.length) return false;
+        return touched[(int) index];
+    }
+
+    /**
+     * @return the sum of all values in the ladder
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the number of distinct prices at which a value has been added
+     */
+    public int size() {
+        return levels;
+    }
+
+    public boolean isEmpty() {
+        return levels == 0;
+    }
+
+    /**
+     * @return the tick number of the lowest price in the ladder
+     */
+    public long getLowTick() {
+        if (levels == 0) throw new IllegalStateException("Ladder is empty");
+        return baseTick + lowIndex;
+    }
+
+    /**
+     * @return the tick number of the highest price in the ladder
+     */
+    public long getHighTick() {
+        if (levels == 0) throw new IllegalStateException("Ladder is empty");
+        return baseTick + highIndex;
+    }
+
+    /**
+     * @return the tick number of the price holding the largest value. Ties resolve to the lowest price.
+     */
+    public long getMaxTick() {
+        if (levels == 0) throw new IllegalStateException("Ladder is empty");
+        int maxIndex = -1;
+        for (int i = lowIndex; i <= highIndex; i++) {
+            if (!touched[i]) continue;
+            if (maxIndex < 0 || values[i] > values[maxIndex]) maxIndex = i;
+        }
+        return baseTick + maxIndex;
+    }
+
+    /**
+     * @return the tick number of the price holding the smallest value. Ties resolve to the lowest price.
+     */
+    public long getMinTick() {
+        if (levels == 0) throw new IllegalStateException("Ladder is empty");
+        int minIndex = -1;
+        for (int i = lowIndex; i <= highIndex; i++) {
+            if (!touched[i]) continue;
+            if (minIndex < 0 || values[i] < values[minIndex]) minIndex = i;
+        }
+        return baseTick + minIndex;
+    }
+
+    /**
+     * @param price price to convert
+     * @return the tick number for the given price
+     */
+    public long toTick(float price) {
+        return Math.round((double) price / tickSize);
+    }
+
+    /**
+     * @param tick tick number to convert
+     * @return the price for the given tick number
+     */
+    public float toPrice(long tick) {
+        return (float) (tick * (double) tickSize);
+    }
+
+    /**
+     * Calls the given consumer for every price in the ladder, from the lowest price to the highest
+     *
+     * @param consumer consumer to call
+     */
+    public void forEach(LevelConsumer consumer) {
+        if (levels == 0) return;
+        for (int i = lowIndex; i <= highIndex; i++) {
+            if (touched[i]) consumer.accept(getPriceAtIndex(i), values[i]);
+        }
+    }
+
+    /**
+     * Removes all values while keeping the allocated capacity
+     */
+    public void clear() {
+        if (levels > 0) {
+            Arrays.fill(values, lowIndex, highIndex + 1, 0);
+            Arrays.fill(touched, lowIndex, highIndex + 1, false);
+        }
+        reset();
+    }
+
+    private void reset() {
+        levels = 0;
+        total = 0;
+        lowIndex = 0;
+        highIndex = -1;
+        baseTick = Long.MIN_VALUE;
+    }
+
+    private float getPriceAtIndex(int index) {
+        return toPrice(baseTick + index);
+    }
+
+    /**
+     * Returns the array index for the given tick, growing the backing arrays when the tick is outside of them
+     */
+    private int ensureIndex(long tick) {
+        if (levels == 0 && baseTick == Long.MIN_VALUE) {
+            // centre the first price so the ladder can grow either way before reallocating
+            baseTick = tick - (values.length / 2);
+        }
+        long index = tick - baseTick;
+        if (index >= 0 && index < values.length) return (int) index;
+
+        int length = values.length;
+        int newLength = length;
+        long newBaseTick = baseTick;
+        if (index < 0) {
+            while (tick < newBaseTick) {
+                newBaseTick -= newLength;
+                newLength *= 2;
+            }
+        } else {
+            while (tick >= newBaseTick + newLength) {
+                newLength *= 2;
+            }
+        }
+
+        int[] newValues = new int[newLength];
+        boolean[] newTouched = new boolean[newLength];
+        int shift = (int) (baseTick - newBaseTick);
+        System.arraycopy(values, 0, newValues, shift, length);
+        System.arraycopy(touched, 0, newTouched, shift, length);
+        values = newValues;
+        touched = newTouched;
+        baseTick = newBaseTick;
+        lowIndex += shift;
+        highIndex += shift;
+
+        return (int) (tick - baseTick);
+    }
+
+    /**
+     * Callback used to iterate over the prices of a ladder
+     */
+    public interface LevelConsumer {
+        void accept(float price, int value);
+    }
+}
@@ -0,0 +1,80 @@
+package com.tystr;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces redraw requests so a study redraws at most once per frame, however many ticks or bars ask for it. A
+ * request marks the study dirty and, unless a redraw is already pending, schedules one for the end of the current
+ * frame; requests made before then are folded into that redraw.
+ * <p>
+ * While held (see {@link #hold()}), e.g. during a backfill, requests only mark the study dirty. {@link #release()}
+ * then issues a single redraw if anything was requested.
+ *
+ * @author Tyler Stroud
+ */
+public class RedrawCoalescer {
+    private static final long defaultFrameMillis = 33;
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "tystr-redraw");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Runnable redraw;
+    private final AtomicBoolean isDirty = new AtomicBoolean(false);
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+    private volatile long frameMillis = defaultFrameMillis;
+    private volatile boolean isHeld = false;
+
+    /**
+     * @param redraw redraw is called to redraw the study, usually {@code this::notifyRedraw}
+     */
+    public RedrawCoalescer(Runnable redraw) {
+        this.redraw = redraw;
+    }
+
+    /**
+     * Sets the shortest time between two redraws
+     */
+    public void setFrameMillis(long frameMillis) {
+        this.frameMillis = Math.max(1, frameMillis);
+    }
+
+    public long getFrameMillis() {
+        return frameMillis;
+    }
+
+    /**
+     * Requests a redraw at the end of the current frame. Safe to call from any thread.
+     */
+    public void requestRedraw() {
+        isDirty.set(true);
+        if (!isHeld && isScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, frameMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Holds back redraws until {@link #release()} is called
+     */
+    public void hold() {
+        isHeld = true;
+    }
+
+    /**
+     * Stops holding back redraws and redraws right away if a redraw was requested while held
+     */
+    public void release() {
+        isHeld = false;
+        if (isDirty.getAndSet(false)) redraw.run();
+    }
+
+    private void flush() {
+        // clear the flag first, so a request made while redrawing schedules the next frame
+        isScheduled.set(false);
+        if (!isHeld && isDirty.getAndSet(false)) redraw.run();
+    }
+}
@@ -33,6 +33,11 @@ public class RelativeVolumeLabel extends com.motivewave.platform.sdk.study.Study
 
     enum Values { REL_VOL, CUM_VOL_PER, CUM_VOL, AVG_REL_VOL, AVG_CUM_VOL }
 
+    // averages of period 1 and period 2 by time of day, built as the bars are calculated
+    private TimeOfDayIndex timeOfDayIndex;
+    private String timeOfDayKey;
+    private SessionCalendar calendar;
+
     @Override
     public void initialize(Defaults defaults)
     {
@@ -88,39 +93,44 @@ public class RelativeVolumeLabel extends com.motivewave.platform.sdk.study.Study
         var bs = series.getBarSize();
         if (!bs.isFixedSize() || !bs.isIntraday()) return super.getMinStartTime(ctx);
 
-        var instr = series.getInstrument();
-        long sod = instr.getStartOfDay(ctx.getCurrentTime(), ctx.isRTH());
+        var calendar = SessionCalendar.get(series.getInstrument(), ctx.isRTH());
+        long sod = calendar.getStartOfDay(ctx.getCurrentTime());
         int period = Math.max(getSettings().getInteger(Inputs.PERIOD, 10), getSettings().getInteger(Inputs.PERIOD2, 10));
         for(int i = 0; i <= period; i++) { // Get an extra day here...
-            sod = Util.getStartOfPrevDay(sod, instr, ctx.isRTH());
+            sod = calendar.getStartOfPrevDay(sod);
         }
         return sod;
     }
 
+    @Override
+    public void clearState()
+    {
+        super.clearState();
+        timeOfDayIndex = null;
+    }
+
     @Override
     protected void calculateValues(DataContext ctx)
     {
         var series = ctx.getDataSeries();
+        var bs = series.getBarSize();
+        if (!bs.isFixedSize() || !bs.isIntraday()) return;
+
         int startInd = 0;
         for(startInd = 0; startInd < series.size(); startInd++) {
             if (!series.isComplete(startInd)) break;
         }
 
-        var instr = series.getInstrument();
-        var cumPath = getSettings().getPath(CUM_PATH);
-        // Calculate the cumulative daily volume for each bar
-        if (cumPath != null && cumPath.isEnabled()) {
-            int ind = startInd;
-            while(ind < series.size()) {
-                long sod1 = instr.getStartOfDay(series.getStartTime(ind), ctx.isRTH());
-                long sod2 = instr.getStartOfDay(series.getStartTime(ind-1), ctx.isRTH());
-                if (sod1 != sod2) series.setFloat(ind, Values.CUM_VOL, series.getVolumeAsFloat(ind)); // First bar of the day?
-                else {
-                    series.setFloat(ind, Values.CUM_VOL, series.getFloat(ind-1, Values.CUM_VOL, 0f) + series.getVolumeAsFloat(ind));
-                }
-                ind++;
-            }
+        // The index has to see every bar in order, so it is rebuilt from the first bar when it is new
+        int period1 = getSettings().getInteger(Inputs.PERIOD, 10);
+        int period2 = getSettings().getInteger(Inputs.PERIOD2, 10);
+        String key = bs.getSizeMillis() + ":" + period1 + ":" + period2 + ":" + ctx.isRTH();
+        if (timeOfDayIndex == null || startInd == 0 || !key.equals(timeOfDayKey)) {
+            timeOfDayIndex = new TimeOfDayIndex(bs.getSizeMillis(), period1, period2);
+            timeOfDayKey = key;
+            startInd = 0;
         }
+        calendar = SessionCalendar.get(series.getInstrument(), ctx.isRTH());
 
         for(int ind = startInd; ind < series.size(); ind++) {
             calculate(ind, ctx);
@@ -161,29 +171,21 @@ public class RelativeVolumeLabel extends com.motivewave.platform.sdk.study.Study
         var highThreshold = getSettings().getInteger(HIGH_THRESHOLD, 150);
         var lowColor = getSettings().getColorInfo(LOW_BAR_COLOR);
         var lowThreshold = getSettings().getInteger(LOW_THRESHOLD, 50);
-        int period1 = getSettings().getInteger(Inputs.PERIOD, 10);
-        int period2 = getSettings().getInteger(Inputs.PERIOD2, 10);
-        var instr = series.getInstrument();
         var cumPath = getSettings().getPath(CUM_PATH);
 
         long start = series.getStartTime(ind);
-        long sod = instr.getStartOfDay(start, ctx.isRTH());
-        long timeOfDay = start - sod;
+        long sod = calendar.getStartOfDay(start);
+        timeOfDayIndex.startDay(sod);
+        int slot = timeOfDayIndex.getSlot(start);
 
         float vol = series.getVolumeAsFloat(ind);
+        long prevStart = ind == 0 ? 0 : series.getStartTime(ind-1);
+        float cv = prevStart < sod ? vol : series.getFloat(ind-1, Values.CUM_VOL, 0f) + vol;
+        timeOfDayIndex.add(ind, start, vol, cv);
+
         Float avg = series.getFloat(ind, Values.AVG_REL_VOL);
         if (avg == null) {
-            float totalVol = 0;
-            int p = 0;
-            long sod1 = sod;
-            for(int j=0; j < period1; j++) {
-                sod1 = Util.getStartOfPrevDay(sod1, instr, ctx.isRTH());
-                int _ind = series.findIndex(sod1 + timeOfDay);
-                if (_ind < 0) break;
-                totalVol += series.getVolumeAsFloat(_ind);
-                p++;
-            }
-            avg = p == 0 ? 0 : totalVol / p;
+            avg = timeOfDayIndex.getAverageVolume(0, slot);
             series.setFloat(ind, Values.AVG_REL_VOL, avg);
         }
         double relVol = avg == 0f ? 0 : Util.roundDouble((vol/avg) * 100, 2);
@@ -192,27 +194,15 @@ public class RelativeVolumeLabel extends com.motivewave.platform.sdk.study.Study
         else if (lowColor.isEnabled() && relVol <= lowThreshold) series.setBarColor(ind, Values.REL_VOL, lowColor.getColor());
         else series.setBarColor(ind, Values.REL_VOL, null);
 
+        series.setFloat(ind, Values.CUM_VOL, cv);
         if (cumPath == null || !cumPath.isEnabled()) return;
 
         avg = series.getFloat(ind, Values.AVG_CUM_VOL);
         if (avg == null) {
-            float totalVol = 0;
-            int p = 0;
-            long sod1 = sod;
-            for(int j=0; j < period2; j++) {
-                sod1 = Util.getStartOfPrevDay(sod1, instr, ctx.isRTH());
-                int _ind = series.findIndex(sod1 + timeOfDay);
-                if (_ind < 0) break;
-                totalVol += series.getFloat(_ind, Values.CUM_VOL, 0f);
-                p++;
-            }
-            avg = totalVol / p;
+            avg = timeOfDayIndex.getAverageCumulativeVolume(1, slot);
             series.setFloat(ind, Values.AVG_CUM_VOL, avg);
         }
-        long prevStart = series.getStartTime(ind-1);
-        float cv = prevStart < sod ? vol : series.getFloat(ind-1, Values.CUM_VOL, 0f) + vol;
         double cvp = avg == 0f ? 0 : Util.roundDouble((cv/avg) * 100, 2);
-        series.setFloat(ind, Values.CUM_VOL, cv);
         series.setDouble(ind, Values.CUM_VOL_PER, cvp);
 
     }
@@ -0,0 +1,103 @@
+package com.tystr;
+
+import java.util.Arrays;
+
+/**
+ * Running sums of the most recent values over one or more window sizes. Values are kept in a ring buffer as large as
+ * the largest window; adding a value adds it to every sum and subtracts the value that falls out of each window, so
+ * adding and reading a sum take the same time whatever the size of the windows.
+ * <p>
+ * Windows are referred to by the position of their size in the constructor arguments. Until a window has seen as many
+ * values as its size, its sum is the sum of all values added so far, i.e. missing values count as zero.
+ *
+ * @author Tyler Stroud
+ */
+public class RollingSum {
+    private final int[] windowSizes;
+    private final long[] sums;
+    private final long[] values;
+    private long count = 0;
+
+    /**
+     * @param windowSizes windowSizes are the number of values summed by each window
+     */
+    public RollingSum(int... windowSizes) {
+        if (windowSizes.length == 0) throw new IllegalArgumentException("At least one window size is required");
+        int capacity = 0;
+        for (int windowSize : windowSizes) {
+            if (windowSize <= 0) throw new IllegalArgumentException("Window sizes must be greater than 0");
+            capacity = Math.max(capacity, windowSize);
+        }
+        this.windowSizes = windowSizes.clone();
+        this.sums = new long[windowSizes.length];
+        this.values = new long[capacity];
+    }
+
+    /**
+     * Adds a value to every window, dropping the oldest value from windows that are full
+     */
+    public void add(long value) {
+        for (int window = 0; window < windowSizes.length; window++) {
+            sums[window] += value;
+            if (count >= windowSizes[window]) sums[window] -= values[(int) ((count - windowSizes[window]) % values.length)];
+        }
+        values[(int) (count % values.length)] = value;
+        count++;
+    }
+
+    /**
+     * Adds the given number of zeros, e.g. for periods without a value
+     */
+    public void addZeros(long n) {
+        if (n >= values.length) {
+            Arrays.fill(values, 0);
+            Arrays.fill(sums, 0);
+            count += n;
+            return;
+        }
+        for (long i = 0; i < n; i++) add(0);
+    }
+
+    /**
+     * @param window window is the position of the window size in the constructor arguments
+     * @return The sum of the most recent values in the window
+     */
+    public long getSum(int window) {
+        return sums[window];
+    }
+
+    /**
+     * @return The sum of the most recent values in the first window
+     */
+    public long getSum() {
+        return sums[0];
+    }
+
+    public int getWindowSize(int window) {
+        return windowSizes[window];
+    }
+
+    /**
+     * @param window window is the position of the window size in the constructor arguments
+     * @return {@code true} if at least as many values as the window size have been added
+     */
+    public boolean isFull(int window) {
+        return count >= windowSizes[window];
+    }
+
+    /**
+     * @return The number of values added, including zeros
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Removes all values
+     */
+    public void clear() {
+        Arrays.fill(values, 0);
+        Arrays.fill(sums, 0);
+        count = 0;
+    }
+}
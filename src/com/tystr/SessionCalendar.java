@@ -0,0 +1,199 @@
+package com.tystr;
+
+import com.motivewave.platform.sdk.common.Instrument;
+import com.motivewave.platform.sdk.common.Util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The trading days of an instrument, asked of the SDK once and then looked up by binary search. Each day keeps its
+ * start, end and end of week, so {@code getStartOfDay}, {@code getEndOfDay}, {@code getStartOfNextDay},
+ * {@code getStartOfPrevDay} and {@code getEndOfWeek} no longer call into the SDK for every bar or tick.
+ * <p>
+ * There is one calendar per symbol for electronic trading hours and one for regular trading hours; the boundaries of
+ * the RTH window of a day are those of the RTH calendar. Calendars are shared by every study and chart of the symbol,
+ * and grow in either direction as earlier or later times are looked up. Reads do not lock. Times between the end of
+ * a day and the start of the next, such as the maintenance break or the hours outside RTH, are passed to the SDK.
+ *
+ * @author Tyler Stroud
+ */
+public class SessionCalendar {
+    private static final int maxDaysPerExtension = 10_000;
+    private static final Map<String, SessionCalendar> calendars = new ConcurrentHashMap<>();
+
+    private final Instrument instrument;
+    private final boolean rth;
+    private volatile Days days = new Days(new long[0], new long[0], new long[0]);
+
+    private SessionCalendar(Instrument instrument, boolean rth) {
+        this.instrument = instrument;
+        this.rth = rth;
+    }
+
+    /**
+     * @param instrument instrument the calendar is for
+     * @param rth rth is {@code true} for the calendar of regular trading hours
+     * @return The calendar of the given instrument, created on first use
+     */
+    public static SessionCalendar get(Instrument instrument, boolean rth) {
+        return calendars.computeIfAbsent(instrument.getSymbol() + "|" + rth, key -> new SessionCalendar(instrument, rth));
+    }
+
+    public boolean isRTH() {
+        return rth;
+    }
+
+    /**
+     * @return The start of the trading day the given time is in, as {@link Instrument#getStartOfDay(long, boolean)}
+     */
+    public long getStartOfDay(long time) {
+        Days d = getDays(time);
+        int day = d.find(time);
+        return day < 0 ? instrument.getStartOfDay(time, rth) : d.starts[day];
+    }
+
+    /**
+     * @return The end of the trading day the given time is in, as {@link Instrument#getEndOfDay(long, boolean)}
+     */
+    public long getEndOfDay(long time) {
+        Days d = getDays(time);
+        int day = d.find(time);
+        return day < 0 ? instrument.getEndOfDay(time, rth) : d.ends[day];
+    }
+
+    /**
+     * @return The start of the trading day after the one the given time is in, as {@link Util#getStartOfNextDay}
+     */
+    public long getStartOfNextDay(long time) {
+        Days d = getDays(time);
+        int day = d.find(time);
+        if (day >= 0 && day + 1 >= d.starts.length) {
+            d = getDays(d.ends[day] + 1);
+            day = d.find(time);
+        }
+        return day < 0 || day + 1 >= d.starts.length ? Util.getStartOfNextDay(time, instrument, rth) : d.starts[day + 1];
+    }
+
+    /**
+     * @return The start of the trading day before the one the given time is in, as {@link Util#getStartOfPrevDay}
+     */
+    public long getStartOfPrevDay(long time) {
+        Days d = getDays(time);
+        int day = d.find(time);
+        if (day == 0) {
+            d = getDays(d.starts[0] - 1);
+            day = d.find(time);
+        }
+        return day <= 0 ? Util.getStartOfPrevDay(time, instrument, rth) : d.starts[day - 1];
+    }
+
+    /**
+     * @return The end of the trading week the given time is in, as {@link Instrument#getEndOfWeek(long, boolean)}
+     */
+    public long getEndOfWeek(long time) {
+        Days d = getDays(time);
+        int day = d.find(time);
+        return day < 0 ? instrument.getEndOfWeek(time, rth) : d.weekEnds[day];
+    }
+
+    /**
+     * @return The days known so far, extended if needed to reach the given time
+     */
+    private Days getDays(long time) {
+        Days d = days;
+        if (d.covers(time)) return d;
+        return extend(time);
+    }
+
+    private synchronized Days extend(long time) {
+        Days d = days;
+        if (d.covers(time)) return d;
+
+        int count = d.starts.length;
+        long[] starts = Arrays.copyOf(d.starts, count);
+        if (count == 0) {
+            starts = new long[] { instrument.getStartOfDay(time, rth) };
+            count = 1;
+        }
+
+        // earlier days, prepended in reverse
+        long[] before = new long[0];
+        int beforeCount = 0;
+        long first = starts[0];
+        while (first > time && beforeCount < maxDaysPerExtension) {
+            long prev = Util.getStartOfPrevDay(first, instrument, rth);
+            if (prev >= first) break;
+            if (beforeCount == before.length) before = Arrays.copyOf(before, Math.max(16, beforeCount * 2));
+            before[beforeCount++] = prev;
+            first = prev;
+        }
+
+        // later days, until the last one ends at or after the time
+        long[] after = new long[0];
+        int afterCount = 0;
+        long last = starts[count - 1];
+        long lastEnd = count == d.starts.length ? d.ends[count - 1] : instrument.getEndOfDay(last, rth);
+        while (lastEnd < time && afterCount < maxDaysPerExtension) {
+            long next = Util.getStartOfNextDay(last, instrument, rth);
+            if (next <= last) break;
+            if (afterCount == after.length) after = Arrays.copyOf(after, Math.max(16, afterCount * 2));
+            after[afterCount++] = next;
+            last = next;
+            lastEnd = instrument.getEndOfDay(last, rth);
+        }
+
+        int total = beforeCount + count + afterCount;
+        long[] newStarts = new long[total];
+        long[] newEnds = new long[total];
+        long[] newWeekEnds = new long[total];
+        for (int i = 0; i < beforeCount; i++) newStarts[i] = before[beforeCount - 1 - i];
+        System.arraycopy(starts, 0, newStarts, beforeCount, count);
+        System.arraycopy(after, 0, newStarts, beforeCount + count, afterCount);
+        int known = d.starts.length;
+        for (int i = 0; i < total; i++) {
+            int oldIndex = i - beforeCount;
+            if (oldIndex >= 0 && oldIndex < known) {
+                newEnds[i] = d.ends[oldIndex];
+                newWeekEnds[i] = d.weekEnds[oldIndex];
+            } else {
+                newEnds[i] = instrument.getEndOfDay(newStarts[i], rth);
+                newWeekEnds[i] = instrument.getEndOfWeek(newStarts[i], rth);
+            }
+        }
+
+        Days extended = new Days(newStarts, newEnds, newWeekEnds);
+        days = extended;
+        return extended;
+    }
+
+    /**
+     * Trading days in order. Never modified once published, so readers need no lock.
+     */
+    private static class Days {
+        private final long[] starts;
+        private final long[] ends;
+        private final long[] weekEnds;
+
+        Days(long[] starts, long[] ends, long[] weekEnds) {
+            this.starts = starts;
+            this.ends = ends;
+            this.weekEnds = weekEnds;
+        }
+
+        boolean covers(long time) {
+            return starts.length > 0 && time >= starts[0] && time <= ends[ends.length - 1];
+        }
+
+        /**
+         * @return The day the given time is in, or -1 if it is outside every known day
+         */
+        int find(long time) {
+            int i = Arrays.binarySearch(starts, time);
+            if (i < 0) i = -i - 2;
+            if (i < 0 || time > ends[i]) return -1;
+            return i;
+        }
+    }
+}
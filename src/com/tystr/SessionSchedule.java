@@ -0,0 +1,265 @@
+package com.tystr;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Session windows, such as GBX, Euro and RTH, defined by their start and end in the local time of a time zone and
+ * expanded into one window per session for each trading day of a {@link SessionCalendar}. Expanding goes through
+ * {@link ZonedDateTime}, so a window keeps its local times across daylight saving changes, and sessions in different
+ * zones, e.g. London and New York, keep their local times when the zones change on different dates.
+ * <p>
+ * A window starts at the first occurrence of its start time at or after the start of the trading day, and ends at the
+ * next occurrence of its end time, so a window may cross midnight. Windows are cut off at the start of the next
+ * trading day. Windows of different sessions may overlap.
+ * <p>
+ * The windows are kept as a sorted array of boundaries, each starting a segment in which the same sessions are active.
+ * A {@link Cursor} resolves the sessions active at a time, moving forward through the segments as time advances;
+ * trading days are expanded as the cursor reaches them.
+ *
+ * @author Tyler Stroud
+ */
+public class SessionSchedule {
+    private static final int maxSessions = 32;
+
+    private final SessionCalendar calendar;
+    private final Session[] sessions;
+
+    // segment i is [times[i], times[i + 1]) and the last one ends at expandedTo
+    private long[] times = new long[64];
+    private int[] masks = new int[64]; // the sessions active in each segment, one bit per session
+    private int[] startMasks = new int[64]; // the sessions whose window starts at the start of each segment
+    private int size = 0;
+    private long expandedTo;
+    private int generation = 0; // changed when the expanded days are forgotten
+
+    /**
+     * @param calendar calendar is the trading days to expand the windows over
+     * @param sessions sessions are the session windows. A session is identified by its position in this list.
+     */
+    public SessionSchedule(SessionCalendar calendar, List<Session> sessions) {
+        if (sessions.size() > maxSessions) throw new IllegalArgumentException("At most " + maxSessions + " sessions are supported");
+        this.calendar = calendar;
+        this.sessions = sessions.toArray(new Session[0]);
+    }
+
+    public int getSessionCount() {
+        return sessions.length;
+    }
+
+    public Session getSession(int session) {
+        return sessions[session];
+    }
+
+    /**
+     * @return A new cursor, before the first segment
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Forgets the expanded days and starts again from the trading day of the given time
+     */
+    private void restart(long time) {
+        size = 0;
+        generation++;
+        expandedTo = calendar.getStartOfDay(time);
+        expandThrough(time);
+    }
+
+    /**
+     * Expands trading days until the expanded segments reach past the given time
+     */
+    private void expandThrough(long time) {
+        while (expandedTo <= time) {
+            if (!expandNextDay()) return;
+        }
+    }
+
+    /**
+     * @return {@code false} if the calendar has no later trading day
+     */
+    private boolean expandNextDay() {
+        long dayStart = expandedTo;
+        long nextDayStart = calendar.getStartOfNextDay(dayStart);
+        if (nextDayStart <= dayStart) return false;
+
+        long[] starts = new long[sessions.length];
+        long[] ends = new long[sessions.length];
+        long[] boundaries = new long[sessions.length * 2 + 1];
+        int count = 0;
+        boundaries[count++] = dayStart;
+        for (int s = 0; s < sessions.length; s++) {
+            Session session = sessions[s];
+            LocalDate date = Instant.ofEpochMilli(dayStart).atZone(session.zone).toLocalDate();
+            ZonedDateTime start = ZonedDateTime.of(date, session.start, session.zone);
+            if (start.toInstant().toEpochMilli() < dayStart) start = ZonedDateTime.of(date.plusDays(1), session.start, session.zone);
+            ZonedDateTime end = ZonedDateTime.of(start.toLocalDate(), session.end, session.zone);
+            if (!end.isAfter(start)) end = ZonedDateTime.of(start.toLocalDate().plusDays(1), session.end, session.zone);
+            starts[s] = start.toInstant().toEpochMilli();
+            ends[s] = Math.min(end.toInstant().toEpochMilli(), nextDayStart);
+            if (starts[s] >= nextDayStart) continue; // no window this trading day
+            boundaries[count++] = starts[s];
+            boundaries[count++] = ends[s];
+        }
+        Arrays.sort(boundaries, 0, count);
+
+        for (int i = 0; i < count; i++) {
+            long time = boundaries[i];
+            if (time >= nextDayStart || (i > 0 && time == boundaries[i - 1])) continue;
+            int mask = 0;
+            int startMask = 0;
+            for (int s = 0; s < sessions.length; s++) {
+                if (starts[s] >= nextDayStart) continue;
+                if (time >= starts[s] && time < ends[s]) mask |= 1 << s;
+                if (time == starts[s]) startMask |= 1 << s;
+            }
+            if (size > 0 && mask == masks[size - 1] && startMask == 0) continue; // nothing changes here
+            append(time, mask, startMask);
+        }
+        expandedTo = nextDayStart;
+        return true;
+    }
+
+    private void append(long time, int mask, int startMask) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            masks = Arrays.copyOf(masks, size * 2);
+            startMasks = Arrays.copyOf(startMasks, size * 2);
+        }
+        times[size] = time;
+        masks[size] = mask;
+        startMasks[size] = startMask;
+        size++;
+    }
+
+    /**
+     * A session window in local time. The end may be before the start for a window that crosses midnight.
+     */
+    public static class Session {
+        private final String name;
+        private final ZoneId zone;
+        private final LocalTime start;
+        private final LocalTime end;
+
+        /**
+         * @param name name is the name shown for the session, e.g. "RTH"
+         * @param zone zone is the time zone the start and end are in
+         * @param start start is the local time the window opens
+         * @param end end is the local time the window closes
+         */
+        public Session(String name, ZoneId zone, LocalTime start, LocalTime end) {
+            this.name = name;
+            this.zone = zone;
+            this.start = start;
+            this.end = end;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        public LocalTime getStart() {
+            return start;
+        }
+
+        public LocalTime getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + start + "-" + end + " " + zone;
+        }
+    }
+
+    /**
+     * Resolves the sessions active at a time. Moving forward from one call to the next is amortized constant time, and
+     * a call within the current segment is a single comparison; moving back searches the segments. Moving before the
+     * first expanded trading day expands the schedule again from there, which the other cursors of the schedule notice
+     * on their next call.
+     */
+    public class Cursor {
+        private int segment = -1;
+        private long segmentStart = Long.MAX_VALUE;
+        private long segmentEnd = Long.MIN_VALUE;
+        private int generation = -1;
+
+        private Cursor() {}
+
+        /**
+         * Moves the cursor to the given time
+         *
+         * @return The sessions active at the given time, one bit per session
+         */
+        public int seek(long time) {
+            if (time >= segmentStart && time < segmentEnd && generation == SessionSchedule.this.generation) {
+                return masks[segment];
+            }
+
+            if (size == 0 || time < times[0]) restart(time);
+            generation = SessionSchedule.this.generation;
+            if (size == 0 || time < times[0]) {
+                segment = -1;
+                segmentStart = Long.MAX_VALUE;
+                segmentEnd = Long.MIN_VALUE;
+                return 0;
+            }
+
+            expandThrough(time);
+            if (segment < 0 || segment >= size || time < times[segment]) {
+                int i = Arrays.binarySearch(times, 0, size, time);
+                segment = i < 0 ? -i - 2 : i;
+            }
+            while (segment + 1 < size && times[segment + 1] <= time) segment++;
+
+            segmentStart = times[segment];
+            segmentEnd = segment + 1 < size ? times[segment + 1] : expandedTo;
+            if (time >= segmentEnd) segmentEnd = Long.MIN_VALUE; // past the last trading day of the calendar
+            return masks[segment];
+        }
+
+        /**
+         * @return The time the active sessions next change, or {@link Long#MIN_VALUE} if unknown
+         */
+        public long getSegmentEnd() {
+            return segmentEnd;
+        }
+
+        /**
+         * @param session session is one of the sessions active at the cursor
+         * @return The start of the session's window the cursor is in
+         */
+        public long getWindowStart(int session) {
+            int bit = 1 << session;
+            int i = segment;
+            while (i > 0 && (startMasks[i] & bit) == 0 && (masks[i - 1] & bit) != 0) i--;
+            return times[i];
+        }
+
+        /**
+         * @param session session is one of the sessions active at the cursor
+         * @return The end of the session's window the cursor is in
+         */
+        public long getWindowEnd(int session) {
+            int bit = 1 << session;
+            int i = segment + 1;
+            while (true) {
+                if (i >= size && !expandNextDay()) return expandedTo;
+                if (i >= size) continue;
+                if ((masks[i] & bit) == 0 || (startMasks[i] & bit) != 0) return times[i];
+                i++;
+            }
+        }
+    }
+}
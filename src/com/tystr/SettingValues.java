@@ -0,0 +1,130 @@
+package com.tystr;
+
+import com.motivewave.platform.sdk.common.Settings;
+import com.motivewave.platform.sdk.common.TimeFrame;
+
+import java.awt.Color;
+import java.util.Map;
+
+/**
+ * The values of a study's settings, read by key. The settings snapshots of the studies read from this rather than
+ * from {@link Settings}, which can only be created by MotiveWave, so their calculators can also be created from a map
+ * of values, e.g. by the benchmarks:
+ * <pre>
+ *     new SettingsSnapshot(SettingValues.of(getSettings()));
+ *     new SettingsSnapshot(SettingValues.of(Map.of("PositiveDeltaThreshold", 20, ...)));
+ * </pre>
+ *
+ * @author Tyler Stroud
+ */
+public interface SettingValues {
+    Integer getInteger(String key);
+
+    Double getDouble(String key);
+
+    String getString(String key);
+
+    Boolean getBoolean(String key);
+
+    Color getColor(String key);
+
+    TimeFrame getTimeFrame(String key);
+
+    default int getInteger(String key, int defaultValue) {
+        Integer value = getInteger(key);
+        return value == null ? defaultValue : value;
+    }
+
+    default String getString(String key, String defaultValue) {
+        String value = getString(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * @param settings settings is the study's settings
+     * @return The values of the given settings, read as the study reads them
+     */
+    static SettingValues of(Settings settings) {
+        return new SettingValues() {
+            @Override
+            public Integer getInteger(String key) {
+                return settings.getInteger(key);
+            }
+
+            @Override
+            public int getInteger(String key, int defaultValue) {
+                return settings.getInteger(key, defaultValue);
+            }
+
+            @Override
+            public Double getDouble(String key) {
+                return settings.getDouble(key);
+            }
+
+            @Override
+            public String getString(String key) {
+                return settings.getString(key);
+            }
+
+            @Override
+            public String getString(String key, String defaultValue) {
+                return settings.getString(key, defaultValue);
+            }
+
+            @Override
+            public Boolean getBoolean(String key) {
+                return settings.getBoolean(key);
+            }
+
+            @Override
+            public Color getColor(String key) {
+                return settings.getColor(key);
+            }
+
+            @Override
+            public TimeFrame getTimeFrame(String key) {
+                return settings.getTimeFrame(key);
+            }
+        };
+    }
+
+    /**
+     * @param values values are the settings by key, each an {@link Integer}, {@link Double}, {@link String},
+     *               {@link Boolean}, {@link Color} or {@link TimeFrame}. A key that is not in the map reads as
+     *               {@code null}, as an unset setting does.
+     * @return The values of the given map
+     */
+    static SettingValues of(Map<String, ?> values) {
+        return new SettingValues() {
+            @Override
+            public Integer getInteger(String key) {
+                return (Integer) values.get(key);
+            }
+
+            @Override
+            public Double getDouble(String key) {
+                return (Double) values.get(key);
+            }
+
+            @Override
+            public String getString(String key) {
+                return (String) values.get(key);
+            }
+
+            @Override
+            public Boolean getBoolean(String key) {
+                return (Boolean) values.get(key);
+            }
+
+            @Override
+            public Color getColor(String key) {
+                return (Color) values.get(key);
+            }
+
+            @Override
+            public TimeFrame getTimeFrame(String key) {
+                return (TimeFrame) values.get(key);
+            }
+        };
+    }
+}
@@ -31,6 +31,7 @@ import com.motivewave.platform.sdk.study.StudyHeader;
         supportsBarUpdates=false)
 public class SmoothedHeikinAshi extends Study
 {
+    private final StudyLog log = new StudyLog(this);
     enum Values { PRICE_BAR, OPEN, HIGH, LOW, CLOSE, VOLUME, OPEN_INTEREST }
     final static String BOTTOM = "bottom", TOP="top", RANGE_ENABLED="rangeEnabled";
 
@@ -117,7 +118,7 @@ public class SmoothedHeikinAshi extends Study
     @Override
     protected void calculateValues(DataContext ctx)
     {
-        debug("calculating");
+        log.debug(() -> "calculating");
         var series = ctx.getDataSeries();
         var instr = getSettings().getInstrument(Inputs.INSTRUMENT);
         if (!series.hasData(instr)) return; // data not available yet...
@@ -161,14 +162,13 @@ public class SmoothedHeikinAshi extends Study
             if (smoothedClose == null) smoothedClose = 0d;
 
 
-            debug("index: " + i);
-            debug("smoothedOpen: " + smoothedOpen.floatValue());
-            debug("smoothedHigh: " + smoothedHigh.floatValue());
-            debug("smoothedLow: " + smoothedLow.floatValue());
-            debug("smoothedClose: " + smoothedClose.floatValue());
-
-            double valcuOpen = (smoothedOpen + smoothedHigh + smoothedLow + smoothedClose) / 4;
-            valcuOpen = valcuOpen + (valcuO)
+            if (StudyLog.DEBUG && log.isDebugEnabled()) {
+                log.debug("index: " + i);
+                log.debug("smoothedOpen: " + smoothedOpen.floatValue());
+                log.debug("smoothedHigh: " + smoothedHigh.floatValue());
+                log.debug("smoothedLow: " + smoothedLow.floatValue());
+                log.debug("smoothedClose: " + smoothedClose.floatValue());
+            }
 
             PriceData priceData = new PriceData(
                     (prevSmoothedOpen.floatValue() + prevSmoothedClose.floatValue()) / 2,
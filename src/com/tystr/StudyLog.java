@@ -0,0 +1,124 @@
+package com.tystr;
+
+import com.motivewave.platform.sdk.study.Study;
+
+import java.util.function.Supplier;
+
+/**
+ * Level checked logging to a study's log. Messages are passed as suppliers, so the string is only built when the
+ * level is enabled:
+ * <pre>
+ *     log.debug(() -> "Value Area High: " + vah);
+ * </pre>
+ * Calls inside loops, where a supplier would capture the loop variable, are guarded instead. Guarding on
+ * {@link #DEBUG} as well lets javac drop the whole block when debug logging is compiled out:
+ * <pre>
+ *     if (StudyLog.DEBUG &amp;&amp; log.isDebugEnabled()) log.debug("delta for index " + i + ": " + delta);
+ * </pre>
+ * The level is shared by all studies. It defaults to {@link Level#INFO} and can be set with the
+ * {@code tystr.log.level} system property or {@link #setLevel(Level)}.
+ * <p>
+ * Shared code that does not belong to a study, such as the tick archive, logs through a log created with a name
+ * instead. Its messages are written to standard error, prefixed with the level and the name.
+ *
+ * @author Tyler Stroud
+ */
+public class StudyLog {
+    /**
+     * Set to {@code false} and rebuild to compile debug logging out of the calculators. Blocks guarded on this constant
+     * are then removed by javac, so building their messages costs nothing even in backfills.
+     */
+    public static final boolean DEBUG = true;
+
+    public enum Level { DEBUG, INFO, WARNING, ERROR, OFF }
+
+    private static volatile Level level = parseLevel(System.getProperty("tystr.log.level"));
+
+    private final Study study;
+    private final String name;
+
+    /**
+     * @param study study is the study whose log messages are written to
+     */
+    public StudyLog(Study study) {
+        this.study = study;
+        this.name = null;
+    }
+
+    /**
+     * @param name name is the name of the shared code logging, e.g. its class name
+     */
+    public StudyLog(String name) {
+        this.study = null;
+        this.name = name;
+    }
+
+    public static void setLevel(Level level) {
+        StudyLog.level = level;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(StudyLog.level) >= 0 && level != Level.OFF;
+    }
+
+    public boolean isDebugEnabled() {
+        return DEBUG && isEnabled(Level.DEBUG);
+    }
+
+    public void debug(Supplier<String> message) {
+        if (isDebugEnabled()) write(Level.DEBUG, message.get());
+    }
+
+    /**
+     * Logs a message that has already been built. Only use this behind {@link #isDebugEnabled()}.
+     */
+    public void debug(String message) {
+        if (isDebugEnabled()) write(Level.DEBUG, message);
+    }
+
+    public void info(Supplier<String> message) {
+        if (isEnabled(Level.INFO)) write(Level.INFO, message.get());
+    }
+
+    public void warning(Supplier<String> message) {
+        if (isEnabled(Level.WARNING)) write(Level.WARNING, message.get());
+    }
+
+    public void error(Supplier<String> message) {
+        if (isEnabled(Level.ERROR)) write(Level.ERROR, message.get());
+    }
+
+    private void write(Level level, String message) {
+        if (study == null) {
+            System.err.println(level + " " + name + ": " + message);
+            return;
+        }
+        switch (level) {
+            case DEBUG:
+                study.debug(message);
+                break;
+            case INFO:
+                study.info(message);
+                break;
+            case WARNING:
+                study.warning(message);
+                break;
+            default:
+                study.error(message);
+        }
+    }
+
+    private static Level parseLevel(String name) {
+        if (name == null) return Level.INFO;
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log level " + name + ", using INFO");
+            return Level.INFO;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.tystr;
+
+import com.motivewave.platform.sdk.common.TickOperation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long a study spends calculating and handling ticks: the duration and tick rate of the last backfill,
+ * a histogram of live {@code onTick} latencies and the number of values and figures written. Metrics are kept per
+ * study and chart, under the name passed to {@link #get(String)}.
+ * <p>
+ * Recording does not allocate or lock, so it stays on in production. A summary of every study is written to
+ * {@code ~/.tystr/metrics.txt} (see {@link #setDumpFile(Path)}) after each backfill and every 30 seconds while ticks
+ * arrive, and studies print their own summary to the study log once their backfill has finished.
+ *
+ * @author Tyler Stroud
+ */
+public class StudyMetrics {
+    private static final StudyLog log = new StudyLog(StudyMetrics.class.getSimpleName());
+    private static final long dumpIntervalSeconds = 30;
+    private static final Map<String, StudyMetrics> metrics = new ConcurrentHashMap<>();
+    private static volatile Path dumpFile = Paths.get(System.getProperty("user.home"), ".tystr", "metrics.txt");
+    private static ScheduledExecutorService scheduler;
+
+    private final String name;
+    private final LatencyHistogram tickLatencies = new LatencyHistogram();
+    private final LongAdder backfillTicks = new LongAdder();
+    private final LongAdder values = new LongAdder();
+    private final LongAdder figures = new LongAdder();
+    private volatile long backfillStart;
+    private volatile long backfillNanos;
+    private volatile long backfillTickCount;
+    private volatile boolean isChanged = false;
+
+    private StudyMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param name name identifies the study and chart, e.g. the study class, symbol and bar size
+     * @return The metrics recorded under the given name, created on first use
+     */
+    public static StudyMetrics get(String name) {
+        startDumping();
+        return metrics.computeIfAbsent(name, StudyMetrics::new);
+    }
+
+    /**
+     * Sets the file every study's summary is written to. {@code null} stops writing the file.
+     */
+    public static void setDumpFile(Path file) {
+        dumpFile = file;
+    }
+
+    /**
+     * Clears the previous backfill and live tick metrics and starts timing a backfill
+     */
+    public void startBackfill() {
+        tickLatencies.clear();
+        backfillTicks.reset();
+        values.reset();
+        figures.reset();
+        backfillNanos = 0;
+        backfillStart = System.nanoTime();
+    }
+
+    /**
+     * @return An operation that counts the ticks passed to the given operation as backfill ticks
+     */
+    public TickOperation countTicks(TickOperation operation) {
+        return tick -> {
+            backfillTicks.increment();
+            operation.onTick(tick);
+        };
+    }
+
+    /**
+     * Stops timing the backfill started by {@link #startBackfill()} and writes the summary file
+     */
+    public void finishBackfill() {
+        backfillNanos = System.nanoTime() - backfillStart;
+        backfillTickCount = backfillTicks.sum();
+        isChanged = true;
+        dumpAll();
+    }
+
+    /**
+     * Records the latency of a live tick
+     *
+     * @param startNanos startNanos is the {@link System#nanoTime()} at which the study received the tick
+     */
+    public void recordTick(long startNanos) {
+        tickLatencies.record(System.nanoTime() - startNanos);
+        isChanged = true;
+    }
+
+    public void addValues(int count) {
+        values.add(count);
+    }
+
+    public void addFigures(int count) {
+        figures.add(count);
+    }
+
+    public long getBackfillMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(backfillNanos);
+    }
+
+    /**
+     * @return The ticks replayed per second during the last backfill
+     */
+    public double getBackfillTicksPerSecond() {
+        return backfillNanos == 0 ? 0 : backfillTickCount * 1e9 / backfillNanos;
+    }
+
+    /**
+     * @param percentile percentile is between 0 and 100
+     * @return The live tick latency at the given percentile, in nanoseconds
+     */
+    public long getTickLatency(double percentile) {
+        return tickLatencies.getValueAtPercentile(percentile);
+    }
+
+    public long getTickCount() {
+        return tickLatencies.getCount();
+    }
+
+    public long getValueCount() {
+        return values.sum();
+    }
+
+    public long getFigureCount() {
+        return figures.sum();
+    }
+
+    /**
+     * @return A one line summary of the metrics
+     */
+    public String getSummary() {
+        return String.format("%s: backfill %d ms, %d ticks (%.0f ticks/s); live ticks %d, latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us; values %d, figures %d",
+                name, getBackfillMillis(), backfillTickCount, getBackfillTicksPerSecond(), getTickCount(),
+                getTickLatency(50) / 1e3, getTickLatency(99) / 1e3, getTickLatency(99.9) / 1e3, getTickLatency(100) / 1e3,
+                getValueCount(), getFigureCount());
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+
+    /**
+     * Writes the summary of every study to the dump file, replacing it
+     */
+    public static void dumpAll() {
+        Path file = dumpFile;
+        if (file == null) return;
+        Map<String, StudyMetrics> sorted = new TreeMap<>(metrics);
+        for (StudyMetrics studyMetrics : sorted.values()) studyMetrics.isChanged = false;
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "metrics-", ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (StudyMetrics studyMetrics : sorted.values()) {
+                    writer.write(studyMetrics.getSummary());
+                    writer.write(System.lineSeparator());
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error(() -> "Unable to write study metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static synchronized void startDumping() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tystr-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            for (StudyMetrics studyMetrics : metrics.values()) {
+                if (studyMetrics.isChanged) {
+                    dumpAll();
+                    return;
+                }
+            }
+        }, dumpIntervalSeconds, dumpIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A histogram of nanosecond latencies in log-linear buckets: each power of two is split into 8 buckets, so a
+     * percentile is accurate to within 12.5%. Recording is a single atomic increment.
+     */
+    static class LatencyHistogram {
+        private static final int subBucketBits = 3;
+        private static final int subBuckets = 1 << subBucketBits;
+        private final AtomicLongArray counts = new AtomicLongArray((64 - subBucketBits + 1) * subBuckets);
+
+        void record(long nanos) {
+            counts.incrementAndGet(indexOf(Math.max(0, nanos)));
+        }
+
+        void clear() {
+            for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+        }
+
+        long getCount() {
+            long count = 0;
+            for (int i = 0; i < counts.length(); i++) count += counts.get(i);
+            return count;
+        }
+
+        /**
+         * @return The upper bound of the bucket holding the given percentile, or 0 if nothing was recorded
+         */
+        long getValueAtPercentile(double percentile) {
+            long total = getCount();
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return upperBoundOf(i);
+            }
+            return upperBoundOf(counts.length() - 1);
+        }
+
+        static int indexOf(long value) {
+            if (value < subBuckets) return (int) value;
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int shift = magnitude - subBucketBits;
+            return (shift + 1) * subBuckets + (int) ((value >>> shift) & (subBuckets - 1));
+        }
+
+        static long upperBoundOf(int index) {
+            if (index < subBuckets) return index;
+            int shift = index / subBuckets - 1;
+            long lower = (long) (subBuckets + index % subBuckets) << shift;
+            return lower + (1L << shift) - 1;
+        }
+    }
+}
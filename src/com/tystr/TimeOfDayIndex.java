@@ -0,0 +1,173 @@
+package com.tystr;
+
+import com.motivewave.platform.sdk.common.Util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Indexes the bars of each trading day by their time of day, for averages of the same time of day over the previous
+ * days. A day is split into slots of the bar size; each slot maps to the bar that starts in it, with the bar's volume
+ * and the cumulative volume of the day up to and including the bar.
+ * <p>
+ * For each period, running sums per slot over the last {@code period} completed days are updated once per day, when
+ * the next day starts: the completed day is added and the day that falls out of the period is subtracted. Reading the
+ * average of a slot therefore takes the same time whatever the period. Days without a bar in a slot do not count
+ * towards its average.
+ * <p>
+ * Bars must be added in order. Adding a bar of the current day again, e.g. on a bar update, replaces its values.
+ *
+ * @author Tyler Stroud
+ */
+public class TimeOfDayIndex {
+    private final long slotMillis;
+    private final int slotsPerDay;
+    private final int[] periods;
+    private final double[][] volumeSums;
+    private final double[][] cumulativeVolumeSums;
+    private final int[][] dayCounts;
+    private final ArrayDeque<Day> days = new ArrayDeque<>(); // completed days, most recent last
+    private final int maxPeriod;
+    private Day current;
+
+    /**
+     * @param slotMillis slotMillis is the bar size in milliseconds
+     * @param periods periods are the numbers of days to average over. Averages are read by the position of their period
+     *                in these arguments.
+     */
+    public TimeOfDayIndex(long slotMillis, int... periods) {
+        if (slotMillis <= 0) throw new IllegalArgumentException("slotMillis must be greater than 0");
+        if (periods.length == 0) throw new IllegalArgumentException("At least one period is required");
+        this.slotMillis = slotMillis;
+        // a trading day can be 25 hours long when the clocks go back
+        this.slotsPerDay = (int) ((Util.MILLIS_IN_DAY + Util.MILLIS_IN_HOUR) / slotMillis) + 1;
+        this.periods = periods.clone();
+        int max = 0;
+        for (int period : periods) {
+            if (period <= 0) throw new IllegalArgumentException("Periods must be greater than 0");
+            max = Math.max(max, period);
+        }
+        this.maxPeriod = max;
+        this.volumeSums = new double[periods.length][slotsPerDay];
+        this.cumulativeVolumeSums = new double[periods.length][slotsPerDay];
+        this.dayCounts = new int[periods.length][slotsPerDay];
+    }
+
+    /**
+     * Starts the trading day of the next bar, completing the previous day if the day has changed
+     *
+     * @param dayStart dayStart is the start of the trading day
+     */
+    public void startDay(long dayStart) {
+        if (current != null && current.start == dayStart) return;
+        if (current != null) completeDay(current);
+        current = new Day(dayStart, slotsPerDay);
+    }
+
+    /**
+     * Adds a bar to the current day, see {@link #startDay(long)}
+     *
+     * @param index index is the index of the bar in the series
+     * @param barStart barStart is the start time of the bar
+     * @param volume volume is the volume of the bar
+     * @param cumulativeVolume cumulativeVolume is the volume of the day up to and including the bar
+     */
+    public void add(int index, long barStart, float volume, float cumulativeVolume) {
+        int slot = getSlot(barStart);
+        if (current == null || slot < 0 || slot >= slotsPerDay) return;
+        current.indexes[slot] = index;
+        current.volumes[slot] = volume;
+        current.cumulativeVolumes[slot] = cumulativeVolume;
+    }
+
+    /**
+     * @return The slot of the given time in the current day
+     */
+    public int getSlot(long time) {
+        if (current == null) return -1;
+        return (int) ((time - current.start) / slotMillis);
+    }
+
+    /**
+     * @param daysAgo daysAgo is 0 for the current day, 1 for the previous day and so on
+     * @param slot slot is the slot within the day
+     * @return The index of the bar in the given slot, or -1 if the day has no bar there or is no longer kept
+     */
+    public int getIndex(int daysAgo, int slot) {
+        Day day = getDay(daysAgo);
+        if (day == null || slot < 0 || slot >= slotsPerDay) return -1;
+        return day.indexes[slot];
+    }
+
+    /**
+     * @param period period is the position of the period in the constructor arguments
+     * @param slot slot is the slot within the day
+     * @return The average volume of the slot over the completed days of the period, or 0 if none had a bar there
+     */
+    public float getAverageVolume(int period, int slot) {
+        if (slot < 0 || slot >= slotsPerDay) return 0;
+        int count = dayCounts[period][slot];
+        return count == 0 ? 0 : (float) (volumeSums[period][slot] / count);
+    }
+
+    /**
+     * @param period period is the position of the period in the constructor arguments
+     * @param slot slot is the slot within the day
+     * @return The average cumulative volume of the slot over the completed days of the period, or 0 if none had a bar
+     *         there
+     */
+    public float getAverageCumulativeVolume(int period, int slot) {
+        if (slot < 0 || slot >= slotsPerDay) return 0;
+        int count = dayCounts[period][slot];
+        return count == 0 ? 0 : (float) (cumulativeVolumeSums[period][slot] / count);
+    }
+
+    private void completeDay(Day day) {
+        days.addLast(day);
+        for (int p = 0; p < periods.length; p++) {
+            addDay(p, day, 1);
+            if (days.size() > periods[p]) addDay(p, getDay(periods[p] + 1), -1);
+        }
+        if (days.size() > maxPeriod) days.removeFirst();
+    }
+
+    private void addDay(int period, Day day, int sign) {
+        double[] volumeSum = volumeSums[period];
+        double[] cumulativeVolumeSum = cumulativeVolumeSums[period];
+        int[] count = dayCounts[period];
+        for (int slot = 0; slot < slotsPerDay; slot++) {
+            if (day.indexes[slot] < 0) continue;
+            volumeSum[slot] += sign * day.volumes[slot];
+            cumulativeVolumeSum[slot] += sign * day.cumulativeVolumes[slot];
+            count[slot] += sign;
+        }
+    }
+
+    /**
+     * @param daysAgo daysAgo is 0 for the current day. Completed days are counted from the most recent.
+     */
+    private Day getDay(int daysAgo) {
+        if (daysAgo == 0) return current;
+        if (daysAgo > days.size()) return null;
+        Iterator<Day> iterator = days.descendingIterator();
+        Day day = null;
+        for (int i = 0; i < daysAgo; i++) day = iterator.next();
+        return day;
+    }
+
+    private static class Day {
+        private final long start;
+        private final int[] indexes;
+        private final float[] volumes;
+        private final float[] cumulativeVolumes;
+
+        Day(long start, int slots) {
+            this.start = start;
+            this.indexes = new int[slots];
+            this.volumes = new float[slots];
+            this.cumulativeVolumes = new float[slots];
+            Arrays.fill(indexes, -1);
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.util.*;
         allowTickAggregate = true
 )
 public class VolumePivots extends com.motivewave.platform.sdk.study.Study {
+    private final StudyLog log = new StudyLog(this);
     // don't do this - used to reset bar colors for developing delta
     private Defaults defaults;
     private ArrayList<Line> lines;
@@ -87,8 +88,9 @@ public class VolumePivots extends com.motivewave.platform.sdk.study.Study {
         ZonedDateTime barStart1 = ZonedDateTime.ofInstant(Instant.ofEpochMilli(series.getStartTime(index)), ZoneId.of("UTC"));
         Instrument instrument = series.getInstrument();
         Sessions currentSession = null; //Sessions.RTH;
+        SessionCalendar calendar = SessionCalendar.get(instrument, true);
 
-        long startOfDay = instrument.getStartOfDay(series.getStartTime(index), true);
+        long startOfDay = calendar.getStartOfDay(series.getStartTime(index));
 
         // Set window based on bar time. Bars within the window will be used to calculate volume profile for the window
         // Window to use to calculate volume and value area
@@ -209,12 +211,14 @@ public class VolumePivots extends com.motivewave.platform.sdk.study.Study {
                 float val = valueArea.firstKey();
                 float breadth = vah - val;
                 float pivot = vah - ((vah - val) / 2);
-                debug("----------");
-                debug("currentSession: " + currentSession);
-                debug("Using value area percent: " + getSettings().getDouble("ValueAreaPercent"));
-                debug("Value Area Low: " + valueArea.firstKey());
-                debug("Value Area High: " + valueArea.lastKey());
-                debug("Value Area Mid (Pivot): " + pivot);
+                if (StudyLog.DEBUG && log.isDebugEnabled()) {
+                    log.debug("----------");
+                    log.debug("currentSession: " + currentSession);
+                    log.debug("Using value area percent: " + getSettings().getDouble("ValueAreaPercent"));
+                    log.debug("Value Area Low: " + valueArea.firstKey());
+                    log.debug("Value Area High: " + valueArea.lastKey());
+                    log.debug("Value Area Mid (Pivot): " + pivot);
+                }
 
                 // Draw lines
                 Settings settings = getSettings();
@@ -226,9 +230,9 @@ public class VolumePivots extends com.motivewave.platform.sdk.study.Study {
                 long lineEnd;
 
                 if (instrument.isInsideTradingHours(series.getStartTime(index), true)) {
-                    lineEnd = instrument.getEndOfDay(series.getStartTime(index), true);
+                    lineEnd = calendar.getEndOfDay(series.getStartTime(index));
                 } else {
-                    lineEnd = instrument.getStartOfDay(series.getStartTime(index), true) + Util.MILLIS_IN_DAY;
+                    lineEnd = calendar.getStartOfDay(series.getStartTime(index)) + Util.MILLIS_IN_DAY;
                 }
 
                 Line svpLine = LineBuilder.create(lineStart, pivot, lineEnd)
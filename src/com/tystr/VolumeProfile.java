@@ -1,13 +1,13 @@
 package com.tystr;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
-
 /**
  * This class provides a data structure and convenience methods for interacting with Volume Profile data. A volume
- * profile is essentially a structure of volume by price within which a value area can be calculated.
+ * profile is essentially a structure of volume by price within which a value area can be calculated. Volume is
+ * stored in a {@link PriceLadder} indexed by tick, so adding volume does not box or allocate.
+ * <p>
+ * The point of control and total volume are kept up to date as volume is added. In incremental mode (see
+ * {@link #setIncremental(boolean)}) the value area is also kept between calls and is only expanded again when the
+ * point of control moves or the current bounds no longer hold the value area percent of the total volume.
  *
  * @author Tyler Stroud
  */
@@ -15,17 +15,19 @@ public class VolumeProfile {
     private static final float defaultTickSize = 0.25f;
     private static final float defaultValueAreaPercent = 0.682f;
 
-    private final SortedMap<Float, Integer> volumeByPrice;
-    private final SortedMap<Float, Integer> valueArea;
+    private final PriceLadder volumeByPrice;
     private float valueAreaPercent;
-    private float tickSize;
+    private long valueAreaHighTick;
+    private long valueAreaLowTick;
+    private long valueAreaVolume;
+    private long pointOfControlTick;
+    private int pointOfControlVolume;
     private boolean isValueAreaCalculated = false;
+    private boolean incremental = false;
 
     public VolumeProfile() {
-        volumeByPrice = new TreeMap<>();
-        valueArea = new TreeMap<>();
+        volumeByPrice = new PriceLadder(defaultTickSize);
         valueAreaPercent = defaultValueAreaPercent;
-        this.tickSize = defaultTickSize;
     }
 
     /**
@@ -34,10 +36,25 @@ public class VolumeProfile {
      *                         area
      */
     public VolumeProfile(float valueAreaPercent) {
-        volumeByPrice = new TreeMap<>();
-        valueArea = new TreeMap<>();
+        volumeByPrice = new PriceLadder(defaultTickSize);
         this.valueAreaPercent = valueAreaPercent;
-        this.tickSize = defaultTickSize;
+    }
+
+    /**
+     * Creates a copy of the given volume profile, including its value area
+     *
+     * @param other other is the volume profile to copy
+     */
+    public VolumeProfile(VolumeProfile other) {
+        volumeByPrice = new PriceLadder(other.volumeByPrice);
+        valueAreaPercent = other.valueAreaPercent;
+        valueAreaHighTick = other.valueAreaHighTick;
+        valueAreaLowTick = other.valueAreaLowTick;
+        valueAreaVolume = other.valueAreaVolume;
+        pointOfControlTick = other.pointOfControlTick;
+        pointOfControlVolume = other.pointOfControlVolume;
+        isValueAreaCalculated = other.isValueAreaCalculated;
+        incremental = other.incremental;
     }
 
     /**
@@ -54,10 +71,32 @@ public class VolumeProfile {
 
     /**
      *
-     * @param tickSize tickSize is used as the interval to increment up and down when constructing the value area.
+     * @param tickSize tickSize is used as the interval to increment up and down when constructing the value area. It
+     *                 is also the price increment of the underlying ladder, so it should match the instrument.
      */
     public void setTickSize(float tickSize) {
-        this.tickSize = tickSize;
+        if (volumeByPrice.getTickSize() == tickSize) return;
+        volumeByPrice.setTickSize(tickSize);
+        if (!volumeByPrice.isEmpty()) {
+            pointOfControlTick = volumeByPrice.getMaxTick();
+            pointOfControlVolume = volumeByPrice.getAtTick(pointOfControlTick);
+        }
+        clearValueArea();
+    }
+
+    /**
+     * Enables or disables incremental value area maintenance. When enabled, adding volume keeps the calculated value
+     * area unless the point of control moves or the value area no longer holds the value area percent of the total
+     * volume, so callers that read the value area after every tick do not pay for a full recalculation each time.
+     *
+     * @param incremental {@code true} to maintain the value area incrementally
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
     }
 
     /**
@@ -67,10 +106,68 @@ public class VolumeProfile {
      * @param volume volume to be added at the specified price
      */
     public void addVolumeAtPrice(float price, int volume) {
-        int volumeAtPrice = volumeByPrice.getOrDefault(price, 0);
-        volumeAtPrice += volume;
-        volumeByPrice.put(price, volumeAtPrice);
-        isValueAreaCalculated = false;
+        boolean wasEmpty = volumeByPrice.isEmpty();
+        long tick = volumeByPrice.toTick(price);
+        int volumeAtPrice = volumeByPrice.addAtTick(tick, volume);
+
+        // Ties resolve to the lowest price, the same as scanning the ladder from the bottom
+        boolean pocMoved = false;
+        if (wasEmpty || volumeAtPrice > pointOfControlVolume || (volumeAtPrice == pointOfControlVolume && tick < pointOfControlTick)) {
+            pocMoved = wasEmpty || tick != pointOfControlTick;
+            pointOfControlTick = tick;
+            pointOfControlVolume = volumeAtPrice;
+        }
+
+        if (!isValueAreaCalculated) return;
+        if (!incremental || pocMoved) {
+            isValueAreaCalculated = false;
+            return;
+        }
+
+        if (tick >= valueAreaLowTick && tick <= valueAreaHighTick) valueAreaVolume += volume;
+        if (((float) valueAreaVolume / volumeByPrice.getTotal()) < valueAreaPercent) expandValueArea();
+    }
+
+    /**
+     * Widens the current value area two prices at a time, toward the side with more volume, until it holds the value
+     * area percent of the total volume again. Once one side has reached the end of the profile the other side is
+     * widened, and when neither of the next two prices on a side has volume, e.g. across a price gap, that side is
+     * widened to the next price that has.
+     */
+    private void expandValueArea() {
+        long lowTick = volumeByPrice.getLowTick();
+        long highTick = volumeByPrice.getHighTick();
+        long totalVolume = volumeByPrice.getTotal();
+        while (((float) valueAreaVolume / totalVolume) < valueAreaPercent) {
+            boolean canWidenUp = valueAreaHighTick < highTick;
+            boolean canWidenDown = valueAreaLowTick > lowTick;
+            if (!canWidenUp && !canWidenDown) break;
+
+            int aboveSum = canWidenUp ? volumeByPrice.getAtTick(valueAreaHighTick + 1) + volumeByPrice.getAtTick(valueAreaHighTick + 2) : 0;
+            int belowSum = canWidenDown ? volumeByPrice.getAtTick(valueAreaLowTick - 1) + volumeByPrice.getAtTick(valueAreaLowTick - 2) : 0;
+            boolean widenUp = !canWidenDown || (canWidenUp && aboveSum > belowSum);
+            if (widenUp) {
+                if (aboveSum == 0) {
+                    long tick = valueAreaHighTick + 1;
+                    while (tick < highTick && !volumeByPrice.containsTick(tick)) tick++;
+                    valueAreaHighTick = tick;
+                    valueAreaVolume += volumeByPrice.getAtTick(tick);
+                } else {
+                    valueAreaHighTick += 2;
+                    valueAreaVolume += aboveSum;
+                }
+            } else {
+                if (belowSum == 0) {
+                    long tick = valueAreaLowTick - 1;
+                    while (tick > lowTick && !volumeByPrice.containsTick(tick)) tick--;
+                    valueAreaLowTick = tick;
+                    valueAreaVolume += volumeByPrice.getAtTick(tick);
+                } else {
+                    valueAreaLowTick -= 2;
+                    valueAreaVolume += belowSum;
+                }
+            }
+        }
     }
 
     /**
@@ -78,7 +175,6 @@ public class VolumeProfile {
      */
     public void clear() {
         volumeByPrice.clear();
-        valueArea.clear();
         isValueAreaCalculated = false;
     }
 
@@ -86,7 +182,6 @@ public class VolumeProfile {
      * Removes value area data
      */
     public void clearValueArea() {
-        valueArea.clear();
         isValueAreaCalculated = false;
     }
 
@@ -101,20 +196,20 @@ public class VolumeProfile {
      * This method calculates the value area.
      */
     public void calculateValueArea() {
-        valueArea.clear();
+        isValueAreaCalculated = false;
         if (volumeByPrice.isEmpty()) return;
 
-
         // Add volume POC to value area
-        float volumePOC = getPointOfControl();
-        valueArea.put(volumePOC, volumeByPrice.get(volumePOC));
+        long volumePOC = pointOfControlTick;
+        valueAreaHighTick = volumePOC;
+        valueAreaLowTick = volumePOC;
 
         int runningVolume = 0;
 
-        float abovePrice1 = volumePOC + tickSize;
-        float abovePrice2 = volumePOC + (tickSize * 2);
-        float belowPrice1 = volumePOC; //- interval;
-        float belowPrice2 = volumePOC; // - (interval * 2);
+        long abovePrice1 = volumePOC + 1;
+        long abovePrice2 = volumePOC + 2;
+        long belowPrice1 = volumePOC; //- interval;
+        long belowPrice2 = volumePOC; // - (interval * 2);
         boolean incrementAbove = false;
         int aboveIncrements = -2;
         int belowIncrements = -2;
@@ -123,37 +218,39 @@ public class VolumeProfile {
         for (int i = 1; i <= volumeByPrice.size(); i++) {
             if (incrementAbove) {
                 aboveIncrements = aboveIncrements + 2;
-                abovePrice1 = volumePOC + (tickSize * (aboveIncrements + 1));
-                abovePrice2 = volumePOC + (tickSize * (aboveIncrements + 2));
+                abovePrice1 = volumePOC + (aboveIncrements + 1);
+                abovePrice2 = volumePOC + (aboveIncrements + 2);
             } else {
                 belowIncrements = belowIncrements + 2;
-                belowPrice1 = volumePOC - (tickSize * (belowIncrements + 1));
-                belowPrice2 = volumePOC - (tickSize * (belowIncrements + 2));
+                belowPrice1 = volumePOC - (belowIncrements + 1);
+                belowPrice2 = volumePOC - (belowIncrements + 2);
             }
 
-            int abovePrice1Volume = volumeByPrice.getOrDefault(abovePrice1, 0);
-            int abovePrice2Volume = volumeByPrice.getOrDefault(abovePrice2, 0);
-            int belowPrice1Volume = volumeByPrice.getOrDefault(belowPrice1, 0);
-            int belowPrice2Volume = volumeByPrice.getOrDefault(belowPrice2, 0);
+            int abovePrice1Volume = volumeByPrice.getAtTick(abovePrice1);
+            int abovePrice2Volume = volumeByPrice.getAtTick(abovePrice2);
+            int belowPrice1Volume = volumeByPrice.getAtTick(belowPrice1);
+            int belowPrice2Volume = volumeByPrice.getAtTick(belowPrice2);
 
             int aboveSum = abovePrice1Volume + abovePrice2Volume;
             int belowSum = belowPrice1Volume + belowPrice2Volume;
 
             if (aboveSum > belowSum) {
                 incrementAbove = true;
-                valueArea.put(abovePrice1, abovePrice1Volume);
-                valueArea.put(abovePrice2, abovePrice2Volume);
+                valueAreaHighTick = Math.max(valueAreaHighTick, abovePrice2);
                 runningVolume += abovePrice1Volume + abovePrice2Volume;
             } else {
                 incrementAbove = false;
-                valueArea.put(belowPrice1, belowPrice1Volume);
-                valueArea.put(belowPrice2, belowPrice2Volume);
+                valueAreaLowTick = Math.min(valueAreaLowTick, belowPrice2);
                 runningVolume += belowPrice1Volume + belowPrice2Volume;
             }
 
             if (((float) runningVolume / totalVolume) >= valueAreaPercent) break;
         }
 
+        valueAreaVolume = 0;
+        for (long tick = valueAreaLowTick; tick <= valueAreaHighTick; tick++) {
+            valueAreaVolume += volumeByPrice.getAtTick(tick);
+        }
         isValueAreaCalculated = true;
     }
 
@@ -161,14 +258,15 @@ public class VolumeProfile {
      * @return The sum of all the volume within volume profile
      */
     public int getVolume() {
-        return volumeByPrice.values().stream().mapToInt(i -> i).sum();
+        return (int) volumeByPrice.getTotal();
     }
 
     /**
      * @return The volume point of control, or VPOC; the price with the most volume
      */
     public float getPointOfControl() {
-        return Collections.max(volumeByPrice.entrySet(), Map.Entry.comparingByValue()).getKey();
+        if (volumeByPrice.isEmpty()) throw new IllegalStateException("Volume profile is empty");
+        return volumeByPrice.toPrice(pointOfControlTick);
     }
 
     /**
@@ -176,7 +274,7 @@ public class VolumeProfile {
      */
     public float getValueAreaHigh() {
         if (!isValueAreaCalculated) calculateValueArea();
-        return valueArea.lastKey();
+        return volumeByPrice.toPrice(valueAreaHighTick);
     }
 
     /**
@@ -184,7 +282,7 @@ public class VolumeProfile {
      */
     public float getValueAreaLow() {
         if (!isValueAreaCalculated) calculateValueArea();
-        return valueArea.firstKey();
+        return volumeByPrice.toPrice(valueAreaLowTick);
     }
 
     /**
@@ -204,10 +302,11 @@ public class VolumeProfile {
     }
 
     public ValueArea getValueArea() {
+        if (!isValueAreaCalculated) calculateValueArea();
         return new ValueArea(
-                Collections.max(volumeByPrice.entrySet(), Map.Entry.comparingByValue()).getKey(),
-                valueArea.lastKey(),
-                valueArea.firstKey()
+                getPointOfControl(),
+                volumeByPrice.toPrice(valueAreaHighTick),
+                volumeByPrice.toPrice(valueAreaLowTick)
         );
     }
 
@@ -0,0 +1,267 @@
+package com.tystr.delta;
+
+import com.motivewave.platform.sdk.common.Tick;
+import com.motivewave.platform.sdk.common.TickOperation;
+import com.tystr.PriceLadder;
+
+/**
+ * Builds constant volume, constant range and constant delta bars from ticks as they arrive, independent of the bar size
+ * of the chart. Each resolution is a {@link Track}; every track of a resampler is updated by the same pass over the
+ * ticks, so several resolutions cost one replay.
+ * <p>
+ * A track keeps the most recent closed bars in a ring of primitive arrays, and each bar's delta by price in a
+ * {@link PriceLadder} that is cleared and reused when the slot is, so adding a tick does not allocate once the ring and
+ * ladders have grown to cover the traded range. Trades at the ask are priced at the ask and trades at the bid at the
+ * bid, as in {@link DeltaBar}.
+ * <p>
+ * A tick is never split between two bars: a volume or delta bar closes with the tick that reaches its size, and a range
+ * bar closes before the tick that would take it past its size, which then opens the next bar.
+ *
+ * @author Tyler Stroud
+ */
+public class BarResampler implements TickOperation {
+    public enum Type { VOLUME, RANGE, DELTA }
+
+    /**
+     * Called when a track closes a bar, with the bar as {@code track.getCount() - 1}
+     */
+    public interface Listener {
+        void onBar(Track track);
+    }
+
+    private final float tickSize;
+    private Track[] tracks = new Track[0];
+    private Listener listener;
+
+    /**
+     * @param tickSize tickSize is the price increment of the instrument
+     */
+    public BarResampler(float tickSize) {
+        this.tickSize = tickSize;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a resolution to build from the next tick on
+     *
+     * @param type type is what closes a bar
+     * @param size size is the volume, the range in ticks or the absolute delta at which a bar closes
+     * @param history history is the number of closed bars kept
+     * @return The new track
+     */
+    public Track addTrack(Type type, long size, int history) {
+        if (size <= 0) throw new IllegalArgumentException("size must be greater than 0");
+        if (history <= 0) throw new IllegalArgumentException("history must be greater than 0");
+        Track track = new Track(type, size, history);
+        Track[] newTracks = new Track[tracks.length + 1];
+        System.arraycopy(tracks, 0, newTracks, 0, tracks.length);
+        newTracks[tracks.length] = track;
+        tracks = newTracks;
+        return track;
+    }
+
+    public float getTickSize() {
+        return tickSize;
+    }
+
+    /**
+     * Adds the tick to every track
+     */
+    @Override
+    public void onTick(Tick tick) {
+        boolean isAskTick = tick.isAskTick();
+        long priceTick = Math.round((isAskTick ? tick.getAskPrice() : tick.getBidPrice()) / tickSize);
+        int volume = tick.getVolume();
+        int delta = isAskTick ? volume : -volume;
+        long time = tick.getTime();
+        for (Track track : tracks) {
+            track.add(time, priceTick, volume, delta);
+        }
+    }
+
+    /**
+     * One resolution of a resampler. Bars are numbered from 0 in the order they closed; the last {@link #getHistory()}
+     * closed bars can be read.
+     */
+    public class Track {
+        private final Type type;
+        private final long size;
+        private final int history;
+
+        // one slot more than the history, for the bar being built
+        private final long[] starts;
+        private final long[] ends;
+        private final long[] opens;
+        private final long[] highs;
+        private final long[] lows;
+        private final long[] closes;
+        private final long[] volumes;
+        private final long[] deltas;
+        private final PriceLadder[] deltasByPrice;
+
+        private long count = 0;
+        private boolean isOpen = false;
+        private int slot = 0;
+
+        Track(Type type, long size, int history) {
+            this.type = type;
+            this.size = size;
+            this.history = history;
+            int slots = history + 1;
+            starts = new long[slots];
+            ends = new long[slots];
+            opens = new long[slots];
+            highs = new long[slots];
+            lows = new long[slots];
+            closes = new long[slots];
+            volumes = new long[slots];
+            deltas = new long[slots];
+            deltasByPrice = new PriceLadder[slots];
+            for (int i = 0; i < slots; i++) deltasByPrice[i] = new PriceLadder(tickSize);
+        }
+
+        void add(long time, long priceTick, int volume, int delta) {
+            if (isOpen && type == Type.RANGE
+                    && Math.max(highs[slot], priceTick) - Math.min(lows[slot], priceTick) > size) {
+                close();
+            }
+            if (!isOpen) open(time, priceTick);
+
+            if (priceTick > highs[slot]) highs[slot] = priceTick;
+            if (priceTick < lows[slot]) lows[slot] = priceTick;
+            closes[slot] = priceTick;
+            ends[slot] = time;
+            volumes[slot] += volume;
+            deltas[slot] += delta;
+            deltasByPrice[slot].addAtTick(priceTick, delta);
+
+            if ((type == Type.VOLUME && volumes[slot] >= size) || (type == Type.DELTA && Math.abs(deltas[slot]) >= size)) {
+                close();
+            }
+        }
+
+        private void open(long time, long priceTick) {
+            slot = (int) (count % starts.length);
+            starts[slot] = time;
+            ends[slot] = time;
+            opens[slot] = priceTick;
+            highs[slot] = priceTick;
+            lows[slot] = priceTick;
+            closes[slot] = priceTick;
+            volumes[slot] = 0;
+            deltas[slot] = 0;
+            deltasByPrice[slot].clear();
+            isOpen = true;
+        }
+
+        private void close() {
+            isOpen = false;
+            count++;
+            if (listener != null) listener.onBar(this);
+        }
+
+        /**
+         * Drops the bar being built and forgets all closed bars, e.g. at the start of a session
+         */
+        public void reset() {
+            count = 0;
+            isOpen = false;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getHistory() {
+            return history;
+        }
+
+        /**
+         * @return The number of bars closed since the track was created or reset
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The number of the oldest closed bar that can still be read
+         */
+        public long getFirstAvailable() {
+            return Math.max(0, count - history);
+        }
+
+        public long getStartTime(long bar) {
+            return starts[slotOf(bar)];
+        }
+
+        /**
+         * @return The time of the last tick of the bar
+         */
+        public long getEndTime(long bar) {
+            return ends[slotOf(bar)];
+        }
+
+        public float getOpen(long bar) {
+            return opens[slotOf(bar)] * tickSize;
+        }
+
+        public float getHigh(long bar) {
+            return highs[slotOf(bar)] * tickSize;
+        }
+
+        public float getLow(long bar) {
+            return lows[slotOf(bar)] * tickSize;
+        }
+
+        public float getClose(long bar) {
+            return closes[slotOf(bar)] * tickSize;
+        }
+
+        public long getVolume(long bar) {
+            return volumes[slotOf(bar)];
+        }
+
+        public long getDelta(long bar) {
+            return deltas[slotOf(bar)];
+        }
+
+        /**
+         * @return The delta by price of the bar. The ladder is reused once the bar falls out of the history.
+         */
+        public PriceLadder getDeltasByPrice(long bar) {
+            return deltasByPrice[slotOf(bar)];
+        }
+
+        /**
+         * @return The highest high of the bars {@code from} through {@code to}, inclusive
+         */
+        public float getHighest(long from, long to) {
+            long high = highs[slotOf(from)];
+            for (long bar = from + 1; bar <= to; bar++) high = Math.max(high, highs[slotOf(bar)]);
+            return high * tickSize;
+        }
+
+        /**
+         * @return The lowest low of the bars {@code from} through {@code to}, inclusive
+         */
+        public float getLowest(long from, long to) {
+            long low = lows[slotOf(from)];
+            for (long bar = from + 1; bar <= to; bar++) low = Math.min(low, lows[slotOf(bar)]);
+            return low * tickSize;
+        }
+
+        private int slotOf(long bar) {
+            if (bar < getFirstAvailable() || bar >= count) {
+                throw new IndexOutOfBoundsException("Bar " + bar + " is not available, bars " + getFirstAvailable() + " to " + (count - 1) + " are");
+            }
+            return (int) (bar % starts.length);
+        }
+    }
+}
@@ -1,26 +1,57 @@
 package com.tystr.delta;
 
-import com.motivewave.platform.sdk.common.Tick;
+import com.tystr.PriceLadder;
 
-import java.util.*;
+import java.util.Map;
 
 /**
  * This class provides convenience methods for interacting with delta over a series of prices, such as a candlestick or
- * price bar.
+ * price bar. Delta by price is stored in a {@link PriceLadder} and the total delta and the prices holding the max and
+ * min delta are tracked as volume is added, so the getters do not iterate over the prices of the bar.
  *
  * @author Tyler Stroud
  */
 public class DeltaBar {
-    private final Map<Float, Integer> deltasByPrice;
+    private static final float defaultTickSize = 0.25f;
+
+    private final PriceLadder deltasByPrice;
     private int volume = 0;
+    private int delta = 0;
+
+    private long maxDeltaTick;
+    private int maxDeltaValue;
+    private boolean isMaxDeltaStale = false;
+    private long minDeltaTick;
+    private int minDeltaValue;
+    private boolean isMinDeltaStale = false;
 
+    /**
+     * @param deltasByPrice deltasByPrice is a map of delta by price to copy into this bar
+     */
     public DeltaBar(Map<Float, Integer> deltasByPrice) {
-        this.deltasByPrice = deltasByPrice;
+        this(deltasByPrice, defaultTickSize);
+    }
+
+    /**
+     * @param deltasByPrice deltasByPrice is a map of delta by price to copy into this bar
+     * @param tickSize tickSize is the price increment of the instrument
+     */
+    public DeltaBar(Map<Float, Integer> deltasByPrice, float tickSize) {
+        this(tickSize);
+        for (Map.Entry<Float, Integer> entry : deltasByPrice.entrySet()) {
+            addDelta(entry.getKey(), entry.getValue());
+        }
     }
 
     public DeltaBar() {
-        this.deltasByPrice = new TreeMap<>();
-        volume = 0;
+        this(defaultTickSize);
+    }
+
+    /**
+     * @param tickSize tickSize is the price increment of the instrument
+     */
+    public DeltaBar(float tickSize) {
+        this.deltasByPrice = new PriceLadder(tickSize);
     }
 
     /**
@@ -30,9 +61,7 @@ public class DeltaBar {
      * @param volumeAtBid volumeAtBid is an integer representing the volume to be added
      */
     public void addVolumeAtBid(float price, int volumeAtBid) {
-        int deltaAtPrice = deltasByPrice.getOrDefault(price, 0);
-        deltaAtPrice -= volumeAtBid;
-        deltasByPrice.put(price, deltaAtPrice);
+        addDelta(price, -volumeAtBid);
         volume += volumeAtBid;
     }
 
@@ -43,12 +72,42 @@ public class DeltaBar {
      * @param volumeAtAsk volumeAtAsk is an integer representing the volume to be added
      */
     public void addVolumeAtAsk(float price, int volumeAtAsk) {
-        int deltaAtPrice = deltasByPrice.getOrDefault(price, 0);
-        deltaAtPrice += volumeAtAsk;
-        deltasByPrice.put(price, deltaAtPrice);
+        addDelta(price, volumeAtAsk);
         volume += volumeAtAsk;
     }
 
+    private void addDelta(float price, int amount) {
+        boolean wasEmpty = deltasByPrice.isEmpty();
+        long tick = deltasByPrice.toTick(price);
+        int deltaAtPrice = deltasByPrice.addAtTick(tick, amount);
+        delta += amount;
+
+        if (wasEmpty) {
+            maxDeltaTick = minDeltaTick = tick;
+            maxDeltaValue = minDeltaValue = deltaAtPrice;
+            isMaxDeltaStale = isMinDeltaStale = false;
+            return;
+        }
+
+        // Ties resolve to the lowest price. Only lowering the current max (or raising the current min) requires a rescan.
+        if (!isMaxDeltaStale) {
+            if (deltaAtPrice > maxDeltaValue || (deltaAtPrice == maxDeltaValue && tick < maxDeltaTick)) {
+                maxDeltaTick = tick;
+                maxDeltaValue = deltaAtPrice;
+            } else if (tick == maxDeltaTick) {
+                isMaxDeltaStale = true;
+            }
+        }
+        if (!isMinDeltaStale) {
+            if (deltaAtPrice < minDeltaValue || (deltaAtPrice == minDeltaValue && tick < minDeltaTick)) {
+                minDeltaTick = tick;
+                minDeltaValue = deltaAtPrice;
+            } else if (tick == minDeltaTick) {
+                isMinDeltaStale = true;
+            }
+        }
+    }
+
     /**
      * @return integer representing the total volume
      */
@@ -70,19 +129,29 @@ public class DeltaBar {
         return deltasByPrice.isEmpty();
     }
 
+    /**
+     * @param price price at which to look up delta
+     * @return An integer representing the delta at the given price
+     */
+    public int getDeltaAtPrice(float price) {
+        return deltasByPrice.get(price);
+    }
+
     /**
      *
      * @return A float representing the price where the max delta occurred
      */
     public float getMaxDelta() {
-        return Collections.max(deltasByPrice.entrySet(), Map.Entry.comparingByValue()).getKey();
+        refreshMaxDelta();
+        return deltasByPrice.toPrice(maxDeltaTick);
     }
 
     /**
      * @return A float representing the price where the min (or max negative) delta occurred
      */
     public float getMinDelta() {
-        return Collections.min(deltasByPrice.entrySet(), Map.Entry.comparingByValue()).getKey();
+        refreshMinDelta();
+        return deltasByPrice.toPrice(minDeltaTick);
     }
 
     /**
@@ -90,14 +159,18 @@ public class DeltaBar {
      * @return A float representing the price where the max absolute delta occurred
      */
     public float getMaxAbsoluteDelta() {
-        return Collections.max(deltasByPrice.entrySet(), Map.Entry.comparingByValue((a, b) -> (Math.max(Math.abs(a), Math.abs(b))))).getKey();
+        refreshMaxDelta();
+        refreshMinDelta();
+        return Math.abs(maxDeltaValue) >= Math.abs(minDeltaValue)
+                ? deltasByPrice.toPrice(maxDeltaTick)
+                : deltasByPrice.toPrice(minDeltaTick);
     }
 
     /**
      * @return An integer representing the sum of the total delta for this bar
      */
     public int getDelta() {
-        return deltasByPrice.values().stream().mapToInt(Integer::valueOf).sum();
+        return delta;
     }
 
     /**
@@ -105,6 +178,22 @@ public class DeltaBar {
      * @return A float representing the price that contains the highest delta
      */
     public float getDeltaPOC() {
-        return Collections.max(deltasByPrice.entrySet(), Map.Entry.comparingByValue()).getKey();
+        return getMaxDelta();
+    }
+
+    private void refreshMaxDelta() {
+        if (deltasByPrice.isEmpty()) throw new IllegalStateException("Delta bar is empty");
+        if (!isMaxDeltaStale) return;
+        maxDeltaTick = deltasByPrice.getMaxTick();
+        maxDeltaValue = deltasByPrice.getAtTick(maxDeltaTick);
+        isMaxDeltaStale = false;
+    }
+
+    private void refreshMinDelta() {
+        if (deltasByPrice.isEmpty()) throw new IllegalStateException("Delta bar is empty");
+        if (!isMinDeltaStale) return;
+        minDeltaTick = deltasByPrice.getMinTick();
+        minDeltaValue = deltasByPrice.getAtTick(minDeltaTick);
+        isMinDeltaStale = false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,137 @@
+package com.tystr.delta;
+
+import com.motivewave.platform.sdk.common.Tick;
+import com.tystr.PriceLadder;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bid and ask volume by price for a single bar. Delta at a price is the ask volume less the bid volume at that price.
+ * Ticks traded at the ask are counted at the ask price and ticks traded at the bid at the bid price, the same as
+ * {@link DeltaBar}.
+ *
+ * @author Tyler Stroud
+ */
+public class Footprint {
+    private final PriceLadder bidByPrice;
+    private final PriceLadder askByPrice;
+
+    /**
+     * @param tickSize tickSize is the price increment of the instrument
+     */
+    public Footprint(float tickSize) {
+        bidByPrice = new PriceLadder(tickSize);
+        askByPrice = new PriceLadder(tickSize);
+    }
+
+    /**
+     * Adds the volume of the given tick at the bid or ask
+     */
+    public void addTick(Tick tick) {
+        if (tick.isAskTick()) {
+            addVolumeAtAsk(tick.getAskPrice(), tick.getVolume());
+        } else {
+            addVolumeAtBid(tick.getBidPrice(), tick.getVolume());
+        }
+    }
+
+    public void addVolumeAtBid(float price, int volume) {
+        bidByPrice.add(price, volume);
+    }
+
+    public void addVolumeAtAsk(float price, int volume) {
+        askByPrice.add(price, volume);
+    }
+
+    void addVolumeAtTick(long tick, int bidVolume, int askVolume) {
+        if (bidVolume != 0) bidByPrice.addAtTick(tick, bidVolume);
+        if (askVolume != 0) askByPrice.addAtTick(tick, askVolume);
+    }
+
+    public float getTickSize() {
+        return bidByPrice.getTickSize();
+    }
+
+    public boolean isEmpty() {
+        return bidByPrice.isEmpty() && askByPrice.isEmpty();
+    }
+
+    public int getBidVolume(float price) {
+        return bidByPrice.get(price);
+    }
+
+    public int getAskVolume(float price) {
+        return askByPrice.get(price);
+    }
+
+    public int getDelta(float price) {
+        return askByPrice.get(price) - bidByPrice.get(price);
+    }
+
+    public int getBidVolume() {
+        return (int) bidByPrice.getTotal();
+    }
+
+    public int getAskVolume() {
+        return (int) askByPrice.getTotal();
+    }
+
+    public int getVolume() {
+        return getBidVolume() + getAskVolume();
+    }
+
+    public int getDelta() {
+        return getAskVolume() - getBidVolume();
+    }
+
+    /**
+     * @return A DeltaBar holding the delta by price of this footprint
+     */
+    public DeltaBar toDeltaBar() {
+        DeltaBar deltaBar = new DeltaBar(getTickSize());
+        forEachLevel((price, bid, ask) -> {
+            if (ask != 0) deltaBar.addVolumeAtAsk(price, ask);
+            if (bid != 0) deltaBar.addVolumeAtBid(price, bid);
+        });
+        return deltaBar;
+    }
+
+    /**
+     * @return A map of delta by price, ordered by price
+     */
+    public Map<Float, Integer> getDeltasByPrice() {
+        Map<Float, Integer> deltasByPrice = new TreeMap<>();
+        forEachLevel((price, bid, ask) -> deltasByPrice.put(price, ask - bid));
+        return deltasByPrice;
+    }
+
+    /**
+     * Calls the given consumer for every price holding bid or ask volume, from the lowest price to the highest
+     */
+    public void forEachLevel(LevelConsumer consumer) {
+        if (isEmpty()) return;
+        long low = Math.min(lowTick(bidByPrice, askByPrice), lowTick(askByPrice, bidByPrice));
+        long high = Math.max(highTick(bidByPrice, askByPrice), highTick(askByPrice, bidByPrice));
+        for (long tick = low; tick <= high; tick++) {
+            if (!bidByPrice.containsTick(tick) && !askByPrice.containsTick(tick)) continue;
+            consumer.accept(bidByPrice.toPrice(tick), bidByPrice.getAtTick(tick), askByPrice.getAtTick(tick));
+        }
+    }
+
+    long toTick(float price) {
+        return bidByPrice.toTick(price);
+    }
+
+    private static long lowTick(PriceLadder ladder, PriceLadder other) {
+        return ladder.isEmpty() ? other.getLowTick() : ladder.getLowTick();
+    }
+
+    private static long highTick(PriceLadder ladder, PriceLadder other) {
+        return ladder.isEmpty() ? other.getHighTick() : ladder.getHighTick();
+    }
+
+    public interface LevelConsumer {
+        void accept(float price, int bidVolume, int askVolume);
+    }
+}
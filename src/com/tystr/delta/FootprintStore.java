@@ -0,0 +1,308 @@
+package com.tystr.delta;
+
+import com.motivewave.platform.sdk.common.BarSize;
+import com.motivewave.platform.sdk.common.Instrument;
+import com.motivewave.platform.sdk.common.Util;
+import com.tystr.StudyLog;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local file cache of finished bar footprints, so that reloading a chart does not have to replay the ticks of bars
+ * that have already been seen. Footprints are kept per instrument, bar size and trading hours, in one file per day
+ * (UTC) of bar start times:
+ * <pre>
+ *     ~/.tystr/footprints/&lt;symbol&gt;/&lt;bar size&gt;-&lt;rth|eth&gt;/&lt;day&gt;.fp
+ * </pre>
+ * Each file is a header followed by appended records of bar start time, tick size and the bid and ask volume of each
+ * price. A day file is read the first time one of its bars is looked up and is then served from memory, until it is
+ * one of the least recently used days once more than {@code maxDays} are held. Saved footprints are written on a
+ * background thread, so saving never blocks the thread delivering ticks, and files are never read or written while
+ * holding the lock that looking up a footprint of a day in memory takes.
+ * <p>
+ * Only bars that are known to be finished, and whose ticks are all known to have been seen, should be saved; a saved
+ * footprint is never replaced. A truncated or unreadable record at the end of a file, e.g. from a crash while writing,
+ * is ignored and cut from the file before anything is appended to it, so the records appended after it can be read.
+ *
+ * @author Tyler Stroud
+ */
+public class FootprintStore {
+    private static final int MAGIC = 0x54465031; // TFP1
+    private static final int levelBytes = 16; // tick, bid volume and ask volume
+    private static final long minTickSpan = 1 << 16;
+    private static final int maxDays = 16;
+    private static final StudyLog log = new StudyLog(FootprintStore.class.getSimpleName());
+    private static final Map<Path, FootprintStore> stores = new HashMap<>();
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "tystr-footprints");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static Path root = Paths.get(System.getProperty("user.home"), ".tystr", "footprints");
+
+    private final Path directory;
+    // days read from the files, guarded by this store. Only the most recently used are kept, see putDay().
+    private final Map<Long, Map<Long, Footprint>> footprintsByDay = new LinkedHashMap<>(16, 0.75f, true);
+    // held while reading or writing the files, so a day is never read, or cut back, while a record is appended to it
+    private final Object fileLock = new Object();
+
+    private FootprintStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param instrument instrument the bars belong to
+     * @param barSize bar size of the series
+     * @param rth {@code true} if the bars only hold ticks inside regular trading hours
+     * @return The shared store for the given instrument, bar size and trading hours
+     */
+    public static FootprintStore get(Instrument instrument, BarSize barSize, boolean rth) {
+        return get(root
+                .resolve(sanitize(instrument.getSymbol()))
+                .resolve(sanitize(barSize.toString()) + (rth ? "-rth" : "-eth")));
+    }
+
+    /**
+     * @param directory directory is the directory the day files are kept in
+     * @return The shared store for the given directory, e.g. for bars that are not charted, which have no bar size
+     */
+    public static FootprintStore get(Path directory) {
+        synchronized (stores) {
+            return stores.computeIfAbsent(directory, FootprintStore::new);
+        }
+    }
+
+    /**
+     * Sets the directory stores are created in. Stores that were already created keep their directory.
+     */
+    public static void setRoot(Path root) {
+        FootprintStore.root = root;
+    }
+
+    /**
+     * @param barStart start time of the bar
+     * @return The saved footprint of the bar starting at the given time, or {@code null} if it has not been saved
+     */
+    public Footprint load(long barStart) {
+        Map<Long, Footprint> footprints = getDay(dayOf(barStart));
+        synchronized (this) {
+            return footprints.get(barStart);
+        }
+    }
+
+    /**
+     * @param barStart start time of the bar
+     * @return {@code true} if a footprint has been saved for the bar starting at the given time
+     */
+    public boolean contains(long barStart) {
+        Map<Long, Footprint> footprints = getDay(dayOf(barStart));
+        synchronized (this) {
+            return footprints.containsKey(barStart);
+        }
+    }
+
+    /**
+     * Saves the footprint of a finished bar. The footprint is written on a background thread, so it may not be
+     * returned by {@link #load(long)} straight away. Nothing is written if the bar has already been saved.
+     *
+     * @param barStart start time of the bar
+     * @param footprint footprint of the bar. It must not be modified after it is saved.
+     */
+    public void save(long barStart, Footprint footprint) {
+        writer.execute(() -> write(barStart, footprint));
+    }
+
+    private void write(long barStart, Footprint footprint) {
+        long day = dayOf(barStart);
+        synchronized (fileLock) {
+            // days are only evicted while holding the file lock, so the day stays in memory until the record is written
+            Map<Long, Footprint> footprints = getDay(day);
+            synchronized (this) {
+                if (footprints.containsKey(barStart)) return;
+                footprints.put(barStart, footprint);
+            }
+
+            Path file = getFile(day);
+            try {
+                Files.createDirectories(directory);
+                boolean isNew = !Files.exists(file) || Files.size(file) == 0;
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile(), true)))) {
+                    if (isNew) out.writeInt(MAGIC);
+                    writeRecord(out, barStart, footprint);
+                }
+            } catch (IOException e) {
+                log.error(() -> "Unable to write footprint to " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return The footprints of the day, read from its file if the day is not in memory. The map is guarded by this
+     * store.
+     */
+    private Map<Long, Footprint> getDay(long day) {
+        synchronized (this) {
+            Map<Long, Footprint> footprints = footprintsByDay.get(day);
+            if (footprints != null) return footprints;
+        }
+        synchronized (fileLock) {
+            Map<Long, Footprint> footprints;
+            synchronized (this) {
+                footprints = footprintsByDay.get(day);
+            }
+            if (footprints == null) {
+                footprints = readDay(day);
+                putDay(day, footprints);
+            }
+            return footprints;
+        }
+    }
+
+    /**
+     * Keeps the footprints of the day in memory, evicting the least recently used day once there are more than
+     * {@code maxDays}, so scrolling back through a long history does not hold on to every day it passed
+     */
+    private synchronized void putDay(long day, Map<Long, Footprint> footprints) {
+        footprintsByDay.put(day, footprints);
+        Iterator<Long> eldest = footprintsByDay.keySet().iterator();
+        while (footprintsByDay.size() > maxDays) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Reads the footprints saved for a day. Reading stops at the first record that is truncated or does not hold a
+     * valid footprint, and the file is cut back to the records before it. Must be called holding the file
+     * lock.
+     */
+    private Map<Long, Footprint> readDay(long day) {
+        Map<Long, Footprint> footprints = new HashMap<>();
+        Path file = getFile(day);
+        if (!Files.exists(file)) return footprints;
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (IOException e) {
+            log.error(() -> "Unable to read footprints from " + file + ": " + e.getMessage());
+            return footprints;
+        }
+
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (bytes.length >= 4 && in.readInt() == MAGIC) {
+                validLength = 4;
+                while (in.available() > 0) {
+                    long barStart = in.readLong();
+                    Footprint footprint = readFootprint(in, bytes.length);
+                    if (footprint == null) break;
+                    footprints.put(barStart, footprint);
+                    validLength = bytes.length - in.available();
+                }
+            }
+        } catch (EOFException e) {
+            // a truncated last record
+        } catch (IOException e) {
+            log.error(() -> "Unable to read footprints from " + file + ": " + e.getMessage());
+            return footprints;
+        }
+
+        if (validLength < bytes.length) {
+            long unreadable = bytes.length - validLength;
+            log.warning(() -> "Removing " + unreadable + " unreadable bytes from the end of " + file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            } catch (IOException e) {
+                log.error(() -> "Unable to truncate " + file + ": " + e.getMessage());
+            }
+        }
+        return footprints;
+    }
+
+    private static void writeRecord(DataOutputStream out, long barStart, Footprint footprint) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        int[] levels = {0};
+        footprint.forEachLevel((price, bid, ask) -> levels[0]++);
+
+        recordOut.writeLong(barStart);
+        recordOut.writeFloat(footprint.getTickSize());
+        recordOut.writeInt(levels[0]);
+        try {
+            footprint.forEachLevel((price, bid, ask) -> {
+                try {
+                    recordOut.writeLong(footprint.toTick(price));
+                    recordOut.writeInt(bid);
+                    recordOut.writeInt(ask);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        // write the record in one piece so a failed write leaves at most one truncated record
+        record.writeTo(out);
+    }
+
+    /**
+     * Reads the footprint of a record, after its bar start time. The level count and the range of prices are checked
+     * against the size of the file before the footprint is built, so a corrupt record can not allocate a huge ladder.
+     *
+     * @param fileLength fileLength is the size of the file being read
+     * @return The footprint, or {@code null} if the record does not hold a valid footprint
+     */
+    private static Footprint readFootprint(DataInputStream in, long fileLength) throws IOException {
+        float tickSize = in.readFloat();
+        int levels = in.readInt();
+        if (!(tickSize > 0) || Float.isInfinite(tickSize) || levels < 0) return null;
+        if (levels > in.available() / levelBytes) throw new EOFException();
+
+        long[] ticks = new long[levels];
+        int[] bids = new int[levels];
+        int[] asks = new int[levels];
+        long lowTick = Long.MAX_VALUE;
+        long highTick = Long.MIN_VALUE;
+        for (int i = 0; i < levels; i++) {
+            ticks[i] = in.readLong();
+            bids[i] = in.readInt();
+            asks[i] = in.readInt();
+            lowTick = Math.min(lowTick, ticks[i]);
+            highTick = Math.max(highTick, ticks[i]);
+        }
+        if (levels > 0) {
+            long span = highTick - lowTick;
+            if (span < 0 || span > Math.max(fileLength, minTickSpan)) return null;
+        }
+
+        Footprint footprint = new Footprint(tickSize);
+        for (int i = 0; i < levels; i++) {
+            footprint.addVolumeAtTick(ticks[i], bids[i], asks[i]);
+        }
+        return footprint;
+    }
+
+    private Path getFile(long day) {
+        return directory.resolve(day + ".fp");
+    }
+
+    private static long dayOf(long time) {
+        return Math.floorDiv(time, Util.MILLIS_IN_DAY);
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -4,9 +4,20 @@ import com.motivewave.platform.sdk.common.*;
 import com.motivewave.platform.sdk.common.desc.*;
 import com.motivewave.platform.sdk.study.Study;
 import com.motivewave.platform.sdk.study.StudyHeader;
+import com.tystr.SessionCalendar;
+import com.tystr.StudyLog;
+import com.tystr.StudyMetrics;
 import com.tystr.VolumeProfile;
+import com.tystr.tick.DayPartitionedBackfill;
+import com.tystr.tick.LiveTickBuffer;
+import com.tystr.tick.TickDispatcher;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @StudyHeader(
         namespace="com.tystr.study",
@@ -22,8 +33,17 @@ import java.util.List;
 public class DevelopingValueArea extends Study
 {
     enum Values { MA, VAH, VAL, VAH_1, VAH_2, VAL_1, VAL_2, VA_PIVOT, TIMEFRAME};
-    TickOperation calculator;
-    private boolean isCalculating = false;
+    private volatile TickOperation calculator;
+    private volatile boolean isCalculating = false;
+    private boolean isRecalculationPending = false; // guarded by calculationLock, as is starting a backfill
+    private final Object calculationLock = new Object();
+    private final LiveTickBuffer liveTicks = new LiveTickBuffer(new StudyLog(this)); // live ticks received during the backfill
+    private volatile StudyMetrics metrics;
+
+    // checkpoints survive recalculation and re-creation of the study, keyed by getCheckpointKey(). Only the most
+    // recently used are kept, see putCheckpoint().
+    private static final int maxCheckpoints = 8;
+    private static final Map<String, Checkpoint> checkpoints = new LinkedHashMap<>(16, 0.75f, true);
 
     private final String TIMEFRAME = "timeframe";
     private final String RTH_DATA = "rthData";
@@ -89,68 +109,314 @@ public class DevelopingValueArea extends Study
     @Override
     protected void calculateValues(DataContext ctx) {
         DataSeries series = ctx.getDataSeries();
-        if (series.size() == 0 || isCalculating) return;
+        if (series.size() == 0) return;
+        synchronized (calculationLock) {
+            if (isCalculating) {
+                // asked again while the backfill runs, e.g. after a settings change; runs once the backfill finishes
+                isRecalculationPending = true;
+                return;
+            }
+            isCalculating = true;
+        }
+        startBackfill(ctx);
+    }
+
+    /**
+     * Replays the ticks of the last days into a new calculator on a background thread, and publishes the calculator
+     * to live ticks once the replay has completed. Called with {@code isCalculating} set.
+     */
+    private void startBackfill(DataContext ctx) {
+        DataSeries series = ctx.getDataSeries();
         Instrument instrument = series.getInstrument();
         boolean isRTH = getSettings().getBoolean(RTH_DATA);
+        String timeframe = getSettings().getString(TIMEFRAME);
+        SessionCalendar calendar = SessionCalendar.get(instrument, isRTH);
 
         int maxPrints = 30; // @todo does this need to be configurable in settings (probably)?
         long start = series.getStartTime();
         for (int i = 0; i < maxPrints; i++) {
-            start = Util.getStartOfPrevDay(start, series.getInstrument(), isRTH);
+            start = calendar.getStartOfPrevDay(start);
         }
 
         long finalStart = start;
+        StudyMetrics metrics = StudyMetrics.get("DevelopingValueArea " + instrument.getSymbol() + " " + series.getBarSize());
+        this.metrics = metrics;
+        metrics.startBackfill();
         Util.schedule(() -> {
             int startIndex = series.findIndex(finalStart);
-            calculator = new VPCalculator(startIndex, series, isRTH);
-            isCalculating = true;
-            instrument.forEachTick(series.getStartTime(startIndex), ctx.getCurrentTime() + Util.MILLIS_IN_MINUTE, isRTH, calculator);
-            isCalculating = false;
+            String checkpointKey = getCheckpointKey(series, isRTH);
+            Checkpoint checkpoint;
+            synchronized (checkpoints) {
+                checkpoint = checkpoints.get(checkpointKey);
+            }
+
+            long end = ctx.getCurrentTime() + Util.MILLIS_IN_MINUTE;
+
+            // the calculator is only used on this thread until the live tick buffer publishes it to the data thread
+            VPCalculator backfillCalculator = new VPCalculator(startIndex, series, isRTH, timeframe, metrics);
+            boolean isRestored = checkpoint != null && backfillCalculator.restore(checkpoint);
+            boolean isDaily = "Daily".equals(timeframe);
+            List<VPCalculator> days = new ArrayList<>();
+            long[] dayStarts = null;
+            if (!isRestored && isDaily) {
+                // daily profiles are independent of each other, so the days can be replayed in parallel
+                dayStarts = DayPartitionedBackfill.splitByDay(instrument, series.getStartTime(startIndex), end, isRTH);
+                for (int i = 0; i < dayStarts.length - 1; i++) {
+                    days.add(new VPCalculator(series.findIndex(dayStarts[i]), series, isRTH, timeframe, metrics, false));
+                }
+                if (dayStarts.length > 0) {
+                    backfillCalculator = new VPCalculator(series.findIndex(dayStarts[dayStarts.length - 1]), series, isRTH, timeframe, metrics);
+                }
+            }
+            putCheckpoint(checkpointKey, backfillCalculator.getCheckpoint());
+
+            TickOperation backfill = liveTicks.startBackfill(backfillCalculator);
+            boolean isReplayed = false;
+            try {
+                if (dayStarts != null && dayStarts.length > 0) {
+                    List<TickOperation> operations = new ArrayList<>();
+                    for (VPCalculator day : days) operations.add(metrics.countTicks(day));
+                    operations.add(metrics.countTicks(backfill)); // only the current day is passed on to live ticks
+                    DayPartitionedBackfill.forEachDay(instrument, dayStarts, end, isRTH, operations);
+                    for (VPCalculator day : days) {
+                        day.finish();
+                        day.mergeInto(backfillCalculator);
+                    }
+                } else {
+                    long replayStart = isRestored ? checkpoint.getResumeTime() : series.getStartTime(startIndex);
+                    TickDispatcher.forEachTick(instrument, replayStart, end, isRTH, metrics.countTicks(backfill));
+                }
+                isReplayed = true;
+            } finally {
+                boolean isRecalculating = finishCalculating();
+                if (!isReplayed) {
+                    liveTicks.cancelBackfill(backfill);
+                } else {
+                    backfillCalculator.setCalculating(false);
+                    if (liveTicks.finishBackfill(backfill)) calculator = backfillCalculator;
+                }
+                metrics.finishBackfill();
+                debug(metrics.getSummary());
+                if (isRecalculating) startBackfill(ctx);
+            }
             notifyRedraw();
         });
     }
 
+    /**
+     * @return {@code true} if a recalculation was asked for while the backfill ran, in which case the study stays
+     * calculating and the caller starts it
+     */
+    private boolean finishCalculating() {
+        synchronized (calculationLock) {
+            boolean isRecalculating = isRecalculationPending;
+            isRecalculationPending = false;
+            isCalculating = isRecalculating;
+            return isRecalculating;
+        }
+    }
+
     @Override
     public void onTick(DataContext ctx, Tick tick) {
-        if (isCalculating || calculator == null) return;
-        calculator.onTick(tick);
+        long start = System.nanoTime();
+        liveTicks.onTick(tick);
+        StudyMetrics m = metrics;
+        if (m != null) m.recordTick(start);
+    }
+
+    /**
+     * Stores the checkpoint under the given key, evicting the least recently used checkpoint once there are more than
+     * {@code maxCheckpoints}, so symbols, bar sizes and settings no longer charted do not hold on to their checkpoints
+     */
+    private static void putCheckpoint(String key, Checkpoint checkpoint) {
+        synchronized (checkpoints) {
+            checkpoints.put(key, checkpoint);
+            Iterator<String> eldest = checkpoints.keySet().iterator();
+            while (checkpoints.size() > maxCheckpoints) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    private String getCheckpointKey(DataSeries series, boolean isRth) {
+        return series.getInstrument().getSymbol() + "|" + series.getBarSize() + "|" + isRth + "|" + getSettings().getString(TIMEFRAME);
+    }
+
+    /**
+     * The values calculated for finished bars and the state of the calculator at the close of the last finished bar.
+     * A later calculation restores the values and state and only replays the ticks received after that close.
+     * <p>
+     * A checkpoint is updated by the calculator that owns it and read when the next calculation starts, so access is
+     * synchronized on the checkpoint.
+     */
+    static class Checkpoint {
+        private final Map<Long, double[]> valuesByBarStart = new HashMap<>();
+        private long firstBarStart = Long.MAX_VALUE;
+        private long nextBarStart; // start time of the bar being built at the checkpoint
+        private long resumeTime;   // ticks before this time have been seen
+        private long nextEnd;
+        private VolumeProfile volumeProfile;
+
+        synchronized void putValues(long barStart, double[] values) {
+            valuesByBarStart.put(barStart, values);
+            firstBarStart = Math.min(firstBarStart, barStart);
+        }
+
+        synchronized void save(long nextBarStart, long resumeTime, long nextEnd, VolumeProfile volumeProfile) {
+            this.nextBarStart = nextBarStart;
+            this.resumeTime = resumeTime;
+            this.nextEnd = nextEnd;
+            this.volumeProfile = new VolumeProfile(volumeProfile);
+        }
+
+        synchronized long getResumeTime() {
+            return resumeTime;
+        }
     }
 
-    class VPCalculator implements TickOperation {
+    /**
+     * Builds the volume profile of each timeframe from ticks and writes the value area of each bar. Takes everything
+     * it uses from the study, so it can also be created outside MotiveWave.
+     */
+    public static class VPCalculator implements TickOperation {
         private final DataSeries series;
+        private final StudyMetrics metrics;
+        private volatile boolean isCalculating = true;
         private int nextIndex;
         private final boolean rth;
-        private final VolumeProfile volumeProfile;
+        private final String timeframe; // "Daily" or "Weekly"
+        private final SessionCalendar calendar;
+        private VolumeProfile volumeProfile;
         private long nextEnd;
+        private final Checkpoint checkpoint = new Checkpoint();
+        private final int startIndex;
+        private final boolean writesSeries;
+        private boolean hasTicks = false;
 
-        public VPCalculator(int startIndex, DataSeries series, boolean isRth) {
+        /**
+         * @param timeframe timeframe is the timeframe setting, read once so the calculator does not look up the
+         *                  settings each time a timeframe ends
+         */
+        public VPCalculator(int startIndex, DataSeries series, boolean isRth, String timeframe, StudyMetrics metrics) {
+            this(startIndex, series, isRth, timeframe, metrics, true);
+        }
+
+        /**
+         * @param writesSeries writesSeries is {@code false} to only record the values of finished bars in the
+         *                     checkpoint, for a calculator that runs alongside others and is merged into the series
+         *                     afterwards with {@link #mergeInto(VPCalculator)}
+         */
+        public VPCalculator(int startIndex, DataSeries series, boolean isRth, String timeframe, StudyMetrics metrics, boolean writesSeries) {
             this.rth = isRth;
+            this.metrics = metrics;
+            this.timeframe = timeframe;
+            this.calendar = SessionCalendar.get(series.getInstrument(), isRth);
             this.series = series;
+            this.startIndex = startIndex;
             this.nextIndex = startIndex;
+            this.writesSeries = writesSeries;
             this.volumeProfile = new VolumeProfile();
-            nextEnd = getEndForTimeframe(getSettings().getString(TIMEFRAME), series.getStartTime(startIndex));
+            this.volumeProfile.setTickSize((float) series.getInstrument().getTickSize());
+            this.volumeProfile.setIncremental(true); // live ticks only re-expand the value area when needed
+            nextEnd = getEndForTimeframe(timeframe, series.getStartTime(startIndex));
+        }
+
+        public Checkpoint getCheckpoint() {
+            return checkpoint;
+        }
+
+        /**
+         * @param isCalculating isCalculating is {@code false} once the backfill has finished, from when the value area
+         *                      is calculated on every tick
+         */
+        public void setCalculating(boolean isCalculating) {
+            this.isCalculating = isCalculating;
+        }
+
+        /**
+         * Restores the values and state saved in the given checkpoint. Ticks then only need to be replayed from the
+         * checkpoint's resume time.
+         *
+         * @return {@code false} if the checkpoint does not cover the bars of this calculation, in which case nothing
+         * was restored
+         */
+        public boolean restore(Checkpoint saved) {
+            synchronized (saved) {
+                if (saved.volumeProfile == null || saved.firstBarStart > series.getStartTime(nextIndex)) return false;
+                int checkpointIndex = series.findIndex(saved.nextBarStart);
+                if (checkpointIndex < nextIndex || series.getStartTime(checkpointIndex) != saved.nextBarStart) return false;
+
+                for (int i = nextIndex; i < checkpointIndex; i++) {
+                    long barStart = series.getStartTime(i);
+                    double[] values = saved.valuesByBarStart.get(barStart);
+                    if (values != null) {
+                        setValues(i, values);
+                        checkpoint.putValues(barStart, values);
+                    }
+                    series.setComplete(i);
+                }
+                nextIndex = checkpointIndex;
+                nextEnd = saved.nextEnd;
+                volumeProfile = new VolumeProfile(saved.volumeProfile);
+                checkpoint.save(saved.nextBarStart, saved.resumeTime, saved.nextEnd, saved.volumeProfile);
+            }
+            return true;
+        }
+
+        /**
+         * Finishes the bar being built, for a calculator that only replays a single day and will not see the tick that
+         * would otherwise close its last bar.
+         */
+        public void finish() {
+            if (!hasTicks) return;
+            double[] values = calculate();
+            if (values != null) checkpoint.putValues(series.getStartTime(nextIndex), values);
+            nextIndex++;
+        }
+
+        /**
+         * Writes the values of the bars finished by this calculator to the series, marks the bars complete and adds
+         * the values to the checkpoint of the given calculator. Called on a single thread, in day order.
+         */
+        public void mergeInto(VPCalculator target) {
+            for (int i = startIndex; i < nextIndex; i++) {
+                long barStart = series.getStartTime(i);
+                double[] values;
+                synchronized (checkpoint) {
+                    values = checkpoint.valuesByBarStart.get(barStart);
+                }
+                if (values != null) {
+                    setValues(i, values);
+                    target.checkpoint.putValues(barStart, values);
+                }
+                series.setComplete(i);
+            }
         }
 
         public void onTick(Tick tick) {
-            volumeProfile.addVolumeAtPrice(tick.isAskTick() ? tick.getAskPrice() : tick.getBidPrice(), tick.getVolume());
+            hasTicks = true;
             if (tick.getTime() > series.getEndTime(nextIndex)) {
-                calculate();
-                series.setComplete(nextIndex);
+                // the tick closes the bar; everything up to the end of the bar has been seen
+                if (writesSeries) checkpoint.save(series.getStartTime(nextIndex), series.getEndTime(nextIndex) + 1, nextEnd, volumeProfile);
+                double[] values = calculate();
+                if (values != null) checkpoint.putValues(series.getStartTime(nextIndex), values);
+                if (writesSeries) series.setComplete(nextIndex);
                 nextIndex++;
-            } else if (!isCalculating) {
-                calculate();
             }
 
-            // reset if after end of timeframe (daily, weekly, etc)
+            // reset if after end of timeframe (daily, weekly, etc), before the tick is added to the new timeframe
             if (tick.getTime() > nextEnd) {
-                nextEnd = getEndForTimeframe(getSettings().getString(TIMEFRAME), tick.getTime());
+                nextEnd = getEndForTimeframe(timeframe, tick.getTime());
                 volumeProfile.clear();
             }
+
+            volumeProfile.addVolumeAtPrice(tick.isAskTick() ? tick.getAskPrice() : tick.getBidPrice(), tick.getVolume());
+            if (!isCalculating) calculate();
         }
 
-        private void calculate() {
-            if (volumeProfile.isEmpty()) return;
-            volumeProfile.calculateValueArea();
+        private double[] calculate() {
+            if (volumeProfile.isEmpty()) return null;
 
             double vah = volumeProfile.getValueAreaHigh();
             double val = volumeProfile.getValueAreaLow();
@@ -159,19 +425,26 @@ public class DevelopingValueArea extends Study
             double vah_1 = vah + breadth;
             double val_1 = val - breadth;
 
-            series.setDouble(nextIndex, Values.VAH, vah);
-            series.setDouble(nextIndex, Values.VAL, val);
-            series.setDouble(nextIndex, Values.VAH_1, vah_1);
-            series.setDouble(nextIndex, Values.VAL_1, val_1);
-            series.setDouble(nextIndex, Values.VA_PIVOT, pivot);
+            double[] values = { vah, val, vah_1, val_1, pivot };
+            if (writesSeries) setValues(nextIndex, values);
+            return values;
+        }
+
+        private void setValues(int index, double[] values) {
+            series.setDouble(index, Values.VAH, values[0]);
+            series.setDouble(index, Values.VAL, values[1]);
+            series.setDouble(index, Values.VAH_1, values[2]);
+            series.setDouble(index, Values.VAL_1, values[3]);
+            series.setDouble(index, Values.VA_PIVOT, values[4]);
+            metrics.addValues(values.length);
         }
 
         private long getEndForTimeframe(String timeframe, long time) {
             switch (timeframe) {
                 case "Daily":
-                    return series.getInstrument().getEndOfDay(time, rth);
+                    return calendar.getEndOfDay(time);
                 case "Weekly":
-                    return series.getInstrument().getEndOfWeek(time, rth);
+                    return calendar.getEndOfWeek(time);
                 default:
                     throw new RuntimeException("Timeframe must be one of \"Daily\" or \"Weekly\", received \"" + timeframe + "\".");
             }
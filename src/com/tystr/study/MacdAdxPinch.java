@@ -6,6 +6,7 @@ import com.motivewave.platform.sdk.draw.Marker;
 import com.motivewave.platform.sdk.study.Plot;
 import com.motivewave.platform.sdk.study.StudyHeader;
 import com.sun.jdi.Value;
+import com.tystr.StudyLog;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
@@ -29,6 +30,7 @@ import java.util.List;
         overlay = true,
         signals = true)
 public class MacdAdxPinch extends com.motivewave.platform.sdk.study.Study {
+    private final StudyLog log = new StudyLog(this);
     enum Values {MA, MACD, SIGNAL, HIST, RSI, UP, DOWN, ADX, PDI, NDI, DX, PDM, NDM, TR, HIST_ADX}
 
     ;
@@ -312,8 +314,10 @@ public class MacdAdxPinch extends com.motivewave.platform.sdk.study.Study {
                 java.util.List<Point2D> points = new LinkedList<>();
                 double[] leastSquares = null;
                 for (int i = index; i >= lookbackStart; i--) {
-                    debug("X: " + series.getEndTime(i));
-                    debug("Y: " + series.getDouble(i, Values.ADX));
+                    if (StudyLog.DEBUG && log.isDebugEnabled()) {
+                        log.debug("X: " + series.getEndTime(i));
+                        log.debug("Y: " + series.getDouble(i, Values.ADX));
+                    }
                     points.add(new Point2D.Double(series.getEndTime(i), series.getDouble(i, Values.ADX)));
                     leastSquares = Util.leastSquares(points);
 
@@ -332,8 +336,8 @@ public class MacdAdxPinch extends com.motivewave.platform.sdk.study.Study {
                     addFigure(Plot.PRICE, square);
                 }
 
-                if (series.getBoolean(index, "Pinching")) {
-                    debug("leastSquares: " + Arrays.toString(leastSquares));
+                if (StudyLog.DEBUG && log.isDebugEnabled() && series.getBoolean(index, "Pinching")) {
+                    log.debug("leastSquares: " + Arrays.toString(leastSquares));
                 }
 
                 int prevIndex = index - 1;
@@ -359,7 +363,7 @@ public class MacdAdxPinch extends com.motivewave.platform.sdk.study.Study {
                 }
 
                 if (macdSlopeUp && adxSlopeDown) {
-                    System.err.println("PINCH RELEASING at index " + index);
+                    log.debug(() -> "PINCH RELEASING at index " + index);
                     // plot squares highlighting the pinch release
                     Marker square = new Marker(new Coordinate(series.getStartTime(index), series.getLow(index) - pinchOffset), Enums.MarkerType.SQUARE);
                     square.setFillColor(Color.GREEN.darker());
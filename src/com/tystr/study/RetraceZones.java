@@ -218,8 +218,6 @@ public class RetraceZones extends Study
                     box.setEnd(series.getEndTime(series.size()-1), box.getEndValue());
                 }
             }
-
-            notifyRedraw();
         }
 
         // Build the ZigZag lines
@@ -275,7 +273,7 @@ public class RetraceZones extends Study
         }
 
         endFigureUpdate();
-        notifyRedraw();
+        notifyRedraw(); // once, after every bar has been processed
     }
 
     private static class Zone {
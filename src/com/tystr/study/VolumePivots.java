@@ -7,8 +7,14 @@ import com.motivewave.platform.sdk.study.Plot;
 import com.motivewave.platform.sdk.study.Study;
 import com.motivewave.platform.sdk.study.StudyHeader;
 import com.tystr.DeltaPivots3;
+import com.tystr.LevelExport;
+import com.tystr.PriceLadder;
+import com.tystr.SessionCalendar;
+import com.tystr.StudyMetrics;
 import com.tystr.VolumeProfile;
 import com.tystr.study.overlay.PivotSet;
+import com.tystr.tick.DayPartitionedBackfill;
+import com.tystr.tick.TickDispatcher;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -37,6 +43,7 @@ public class VolumePivots extends Study
 
     VPCalculator calculator;
     private boolean isCalculating = false;
+    private StudyMetrics metrics;
     private boolean calculated = false;
 
     private final String TIMEFRAME = "Timeframe";
@@ -126,6 +133,7 @@ public class VolumePivots extends Study
         if (series.size() == 0 || isCalculating) return;
         Instrument instrument = series.getInstrument();
         boolean isRTH = getSettings().getBoolean(RTH_DATA);
+        SessionCalendar calendar = SessionCalendar.get(instrument, isRTH);
 
         int maxPrints = getSettings().getInteger(NUM_PRINTS);
         String interval = getSettings().getString(TIMEFRAME);
@@ -133,14 +141,23 @@ public class VolumePivots extends Study
 
         long start = series.getStartTime();
         for (int i = 0; i < maxPrints; i++) {
-            start = Util.getStartOfPrevDay(start, series.getInstrument(), isRTH);
+            start = calendar.getStartOfPrevDay(start);
         }
 
         int startIndex = series.findIndex(start);
-        calculator = new VPCalculator(startIndex, series, isRTH);
+        long end = ctx.getCurrentTime() + Util.MILLIS_IN_MINUTE*5;
         isCalculating = true;
-        instrument.forEachTick(series.getStartTime(startIndex), ctx.getCurrentTime() + Util.MILLIS_IN_MINUTE*5, isRTH, calculator);
+        metrics = StudyMetrics.get("VolumePivots " + instrument.getSymbol() + " " + series.getBarSize());
+        metrics.startBackfill();
+        if (Objects.equals(interval, "Daily")) {
+            calculator = calculateByDay(instrument, series, series.getStartTime(startIndex), end, isRTH);
+        } else {
+            calculator = new VPCalculator(startIndex, series, isRTH);
+            TickDispatcher.forEachTick(instrument, series.getStartTime(startIndex), end, isRTH, metrics.countTicks(calculator));
+        }
         isCalculating = false;
+        metrics.finishBackfill();
+        debug(metrics.getSummary());
         calculated = true;
 
         notifyRedraw();
@@ -160,6 +177,33 @@ public class VolumePivots extends Study
 //        Util.schedule(() -> calculate(this, finalStart, isRTH));
     }
 
+    /**
+     * Replays each day to its own calculator, with the days replayed in parallel, and then merges their bars and
+     * pivots in day order. Daily profiles are reset at the start of each day, so the days do not depend on each other.
+     *
+     * @return The calculator of the last day
+     */
+    private VPCalculator calculateByDay(Instrument instrument, DataSeries series, long start, long end, boolean isRTH) {
+        long[] dayStarts = DayPartitionedBackfill.splitByDay(instrument, start, end, isRTH);
+        if (dayStarts.length == 0) return new VPCalculator(series.findIndex(start), series, isRTH);
+
+        List<VPCalculator> days = new ArrayList<>();
+        List<TickOperation> operations = new ArrayList<>();
+        for (int i = 0; i < dayStarts.length; i++) {
+            // only the last day writes to the series directly; its bars are not touched by the other days
+            days.add(new VPCalculator(series.findIndex(dayStarts[i]), series, isRTH, i == dayStarts.length - 1));
+            operations.add(metrics.countTicks(days.get(i)));
+        }
+        DayPartitionedBackfill.forEachDay(instrument, dayStarts, end, isRTH, operations);
+
+        VPCalculator last = days.get(days.size() - 1);
+        for (int i = 0; i < days.size() - 1; i++) {
+            days.get(i).finish();
+            days.get(i).mergeInto(last);
+        }
+        return last;
+    }
+
     private void appendRow(StringBuilder builder, String symbol, float price, String note, String fColor, String bColor, String diameter) {
         builder.append(symbol).append(",")
                 .append(price).append(",")
@@ -172,16 +216,13 @@ public class VolumePivots extends Study
 
 
     /**
-     * Writes pivot levels to a file for use with cloud levels study
+     * Exports pivot levels to a file for use with cloud levels study. The file is written in the background by
+     * {@link LevelExport}, and only if the levels have changed.
      * @param volumeProfile
      * @param filePath
      */
     protected void writeFile(VolumeProfile volumeProfile, String filePath) {
-        Path path = Paths.get(filePath);
-        if (!Files.exists(path) || !Files.isWritable(path)) {
-            System.err.println("Unable to write to " + path.toString());
-            return;
-        }
+        if (volumeProfile == null || filePath == null || filePath.isEmpty()) return;
 
         float above1Price = volumeProfile.getValueAreaHigh() + (volumeProfile.getValueAreaBreadth() * 0.50f);
         float above2Price = volumeProfile.getValueAreaHigh() + (volumeProfile.getValueAreaBreadth() * 0.50f * 2);
@@ -279,18 +320,7 @@ public class VolumePivots extends Study
         );
 
 
-        System.err.println("\nFILE CONTENTS\n");
-        System.err.println(content.toString() + "\n");
-        System.err.println("Using file path " + path.toString());
-        String fileName = path.toString() + "/VP_" + volumeProfile.getInstrumentSymbol() + ".csv";
-
-        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(fileName), StandardCharsets.UTF_8))) {
-            writer.write(content.toString());
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
-        }
-        System.err.println("levels written to " + fileName);
+        LevelExport.submit(Paths.get(filePath, "VP_" + volumeProfile.getInstrumentSymbol() + ".csv"), content.toString());
     }
 
 //    protected void calculate(VolumePivots study, long start, boolean isRTH) {
@@ -332,81 +362,168 @@ public class VolumePivots extends Study
         }
     }
 
-    static class VolumeByPrice extends TreeMap<Float, Integer> {
+    static class VolumeByPrice extends PriceLadder {
+        public VolumeByPrice(float tickSize) {
+            super(tickSize);
+        }
+
         public void addVolumeAtPrice(float price, int volume) {
-            int volumeAtPrice = getOrDefault(price, 0);
-            volumeAtPrice += volume;
-            put(price, volumeAtPrice);
+            add(price, volume);
         }
     }
     class VPCalculator implements TickOperation {
         private final DataSeries series;
         private int nextIndex;
         private final boolean rth;
+        private final SessionCalendar calendar;
         private final VolumeProfile volumeProfile;
         private VolumePivots.VolumeProfile lastVolumeProfile;
-        private VolumeByPrice volumeByPrice = new VolumeByPrice();
+        private VolumeByPrice volumeByPrice;
 
         private long nextEnd;
 
+        // results held back until mergeInto(), for a calculator that does not write to the series
+        private final int startIndex;
+        private final boolean writesSeries;
+        private final Map<Integer, double[]> valuesByIndex = new HashMap<>();
+        private final Map<Integer, VolumeByPrice> volumeByPriceByIndex = new HashMap<>();
+        private final List<PivotSet> pivotSets = new ArrayList<>();
+        private boolean hasTicks = false;
+
         public VPCalculator(int startIndex, DataSeries series, boolean isRth) {
+            this(startIndex, series, isRth, true);
+        }
+
+        /**
+         * @param writesSeries writesSeries is {@code false} to hold back bar values and pivots until
+         *                     {@link #mergeInto(VPCalculator)}, for a calculator that runs alongside others
+         */
+        public VPCalculator(int startIndex, DataSeries series, boolean isRth, boolean writesSeries) {
             this.rth = isRth;
+            this.calendar = SessionCalendar.get(series.getInstrument(), isRth);
             this.series = series;
+            this.startIndex = startIndex;
             this.nextIndex = startIndex;
+            this.writesSeries = writesSeries;
             this.volumeProfile = new VolumeProfile();
+            this.volumeProfile.setTickSize((float) series.getInstrument().getTickSize());
+            this.volumeByPrice = new VolumeByPrice((float) series.getInstrument().getTickSize());
             nextEnd = getEndForTimeframe(getSettings().getString("Timeframe"), series.getStartTime(startIndex));
         }
 
         public VolumeProfile getLastVolumeProfile() {
             return lastVolumeProfile;
         }
+
+        /**
+         * Finishes the bar being built and the timeframe, for a calculator that only replays a single day and will
+         * not see the first tick of the next day.
+         */
+        public void finish() {
+            if (!hasTicks) return;
+            closeBar();
+            endTimeframe(calendar.getStartOfNextDay(nextEnd));
+        }
+
+        /**
+         * Writes the held back bar values and pivots to the series and study, and carries the last volume profile over
+         * to the given calculator. Called on a single thread, in day order.
+         */
+        public void mergeInto(VPCalculator target) {
+            for (int i = startIndex; i < nextIndex; i++) {
+                double[] values = valuesByIndex.get(i);
+                if (values != null) setValues(i, values);
+                VolumeByPrice vbp = volumeByPriceByIndex.get(i);
+                if (vbp != null) series.setValue(i, Values.VOLUME_BY_PRICE, vbp);
+                series.setComplete(i);
+                metrics.addValues(1);
+            }
+            if (!pivotSets.isEmpty()) {
+                beginFigureUpdate();
+                for (PivotSet pivotSet : pivotSets) addFigure(Plot.PRICE, pivotSet);
+                endFigureUpdate();
+                metrics.addFigures(pivotSets.size());
+            }
+            if (lastVolumeProfile != null && target.lastVolumeProfile == null) {
+                // the last volume profile is the calculator's own profile object, as when a single calculator runs
+                target.lastVolumeProfile = target.volumeProfile;
+                target.lastVolumeProfile.setInstrumentSymbol(series.getInstrument().getSymbol());
+            }
+        }
+
         public void onTick(Tick tick) {
             if (series.isComplete(series.findIndex(tick.getTime()))) {
 //                System.err.println("Index " + series.findIndex(tick.getTime()) + "|" + nextIndex + " is complete...");
                 return;
             }
+            hasTicks = true;
 
             volumeProfile.addVolumeAtPrice(tick.isAskTick() ? tick.getAskPrice() : tick.getBidPrice(), tick.getVolume());
             volumeByPrice.addVolumeAtPrice(tick.isAskTick() ? tick.getAskPrice() : tick.getBidPrice(), tick.getVolume());
             if (tick.getTime() > series.getEndTime(nextIndex)) {
-                calculate();
-                series.setValue(nextIndex, Values.VOLUME_BY_PRICE, volumeByPrice);
-                series.setComplete(nextIndex);
-                volumeByPrice = new VolumeByPrice();
-                nextIndex++;
+                closeBar();
             }
 
             // reset if after end of timeframe (daily, weekly, etc)
             if (tick.getTime() > nextEnd) {
-                long s = Util.getStartOfNextDay(nextEnd, series.getInstrument(), rth);
-                Coordinate start = new Coordinate(s, volumeProfile.getValueAreaMid());
-                nextEnd = getEndForTimeframe(getSettings().getString("Timeframe"), tick.getTime());
-                Coordinate end = new Coordinate(nextEnd, volumeProfile.getValueAreaMid());
-
-                float above1Price = volumeProfile.getValueAreaHigh() + (volumeProfile.getValueAreaBreadth() * 0.50f);
-                float above2Price = volumeProfile.getValueAreaHigh() + (volumeProfile.getValueAreaBreadth() * 0.50f * 2);
-                float above3Price = volumeProfile.getValueAreaHigh() + (volumeProfile.getValueAreaBreadth() * 0.50f * 3);
-                float above4Price = volumeProfile.getValueAreaHigh() + (volumeProfile.getValueAreaBreadth() * 0.50f * 4);
-                float below1Price = volumeProfile.getValueAreaLow() - (volumeProfile.getValueAreaBreadth() * 0.50f);
-                float below2Price = volumeProfile.getValueAreaLow() - (volumeProfile.getValueAreaBreadth() * 0.50f * 2);
-                float below3Price = volumeProfile.getValueAreaLow() - (volumeProfile.getValueAreaBreadth() * 0.50f * 3);
-                float below4Price = volumeProfile.getValueAreaLow() - (volumeProfile.getValueAreaBreadth() * 0.50f * 4);
-
-                PivotSet pivotSet = new PivotSet(s, nextEnd, volumeProfile.getValueAreaMid(), above1Price, above2Price, above3Price, above4Price, below1Price, below2Price, below3Price, below4Price);
-                pivotSet.P = "Pivot";
+                endTimeframe(tick.getTime());
+            }
+        }
+
+        private void closeBar() {
+            double[] values = calculate();
+            if (writesSeries) {
+                if (values != null) setValues(nextIndex, values);
+                series.setValue(nextIndex, Values.VOLUME_BY_PRICE, volumeByPrice);
+                series.setComplete(nextIndex);
+                metrics.addValues(1);
+            } else {
+                if (values != null) valuesByIndex.put(nextIndex, values);
+                volumeByPriceByIndex.put(nextIndex, volumeByPrice);
+            }
+            volumeByPrice = new VolumeByPrice(volumeByPrice.getTickSize());
+            nextIndex++;
+        }
+
+        /**
+         * Adds the pivots of the timeframe that just ended and starts a new one
+         *
+         * @param time time is a time within the next timeframe
+         */
+        private void endTimeframe(long time) {
+            long s = calendar.getStartOfNextDay(nextEnd);
+            Coordinate start = new Coordinate(s, volumeProfile.getValueAreaMid());
+            nextEnd = getEndForTimeframe(getSettings().getString("Timeframe"), time);
+            Coordinate end = new Coordinate(nextEnd, volumeProfile.getValueAreaMid());
+
+            float above1Price = volumeProfile.getValueAreaHigh() + (volumeProfile.getValueAreaBreadth() * 0.50f);
+            float above2Price = volumeProfile.getValueAreaHigh() + (volumeProfile.getValueAreaBreadth() * 0.50f * 2);
+            float above3Price = volumeProfile.getValueAreaHigh() + (volumeProfile.getValueAreaBreadth() * 0.50f * 3);
+            float above4Price = volumeProfile.getValueAreaHigh() + (volumeProfile.getValueAreaBreadth() * 0.50f * 4);
+            float below1Price = volumeProfile.getValueAreaLow() - (volumeProfile.getValueAreaBreadth() * 0.50f);
+            float below2Price = volumeProfile.getValueAreaLow() - (volumeProfile.getValueAreaBreadth() * 0.50f * 2);
+            float below3Price = volumeProfile.getValueAreaLow() - (volumeProfile.getValueAreaBreadth() * 0.50f * 3);
+            float below4Price = volumeProfile.getValueAreaLow() - (volumeProfile.getValueAreaBreadth() * 0.50f * 4);
+
+            PivotSet pivotSet = new PivotSet(s, nextEnd, volumeProfile.getValueAreaMid(), above1Price, above2Price, above3Price, above4Price, below1Price, below2Price, below3Price, below4Price);
+            pivotSet.P = "Pivot";
+            if (writesSeries) {
                 beginFigureUpdate();
                 addFigure(Plot.PRICE, pivotSet);
                 endFigureUpdate();
-//                notifyRedraw();
-
-                lastVolumeProfile = volumeProfile;
-                lastVolumeProfile.setInstrumentSymbol(series.getInstrument().getSymbol());
-                volumeProfile.clear();
+                metrics.addFigures(1);
+            } else {
+                pivotSets.add(pivotSet);
             }
+//            notifyRedraw();
+
+            lastVolumeProfile = volumeProfile;
+            lastVolumeProfile.setInstrumentSymbol(series.getInstrument().getSymbol());
+            volumeProfile.clear();
         }
 
-        private void calculate() {
-            if (volumeProfile.isEmpty()) return;
+        private double[] calculate() {
+            if (volumeProfile.isEmpty()) return null;
             volumeProfile.calculateValueArea();
 
             double vah = volumeProfile.getValueAreaHigh();
@@ -416,19 +533,24 @@ public class VolumePivots extends Study
             double vah_1 = vah + breadth;
             double val_1 = val - breadth;
 
-            series.setDouble(nextIndex, Values.VAH, vah);
-            series.setDouble(nextIndex, Values.VAL, val);
-            series.setDouble(nextIndex, Values.VAH_1, vah_1);
-            series.setDouble(nextIndex, Values.VAL_1, val_1);
-            series.setDouble(nextIndex, Values.VA_PIVOT, pivot);
+            return new double[] { vah, val, vah_1, val_1, pivot };
+        }
+
+        private void setValues(int index, double[] values) {
+            series.setDouble(index, Values.VAH, values[0]);
+            series.setDouble(index, Values.VAL, values[1]);
+            series.setDouble(index, Values.VAH_1, values[2]);
+            series.setDouble(index, Values.VAL_1, values[3]);
+            series.setDouble(index, Values.VA_PIVOT, values[4]);
+            metrics.addValues(values.length);
         }
 
         private long getEndForTimeframe(String timeframe, long time) {
             switch (timeframe) {
                 case "Daily":
-                    return series.getInstrument().getEndOfDay(time, rth);
+                    return calendar.getEndOfDay(time);
                 case "Weekly":
-                    return series.getInstrument().getEndOfWeek(time, rth);
+                    return calendar.getEndOfWeek(time);
                 default:
                     throw new RuntimeException("Timeframe must be one of \"Daily\" or \"Weekly\", received \"" + timeframe + "\".");
             }
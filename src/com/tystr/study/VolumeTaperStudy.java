@@ -10,9 +10,18 @@ import com.motivewave.platform.sdk.common.Coordinate;
 import com.motivewave.platform.sdk.common.DataContext;
 import com.motivewave.platform.sdk.common.Defaults;
 import com.motivewave.platform.sdk.common.Enums;
+import com.tystr.SettingValues;
+import com.tystr.StudyLog;
+import com.tystr.StudyMetrics;
+import com.tystr.delta.Footprint;
+import com.tystr.delta.FootprintStore;
+import com.tystr.tick.LiveTickBuffer;
+import com.tystr.tick.TickDispatcher;
 
 import javax.swing.text.html.Option;
+import java.awt.Color;
 import java.util.*;
+import java.util.function.ObjIntConsumer;
 
 @StudyHeader(
         namespace="com.tystr.study",
@@ -26,21 +35,24 @@ import java.util.*;
 )
 
 public class VolumeTaperStudy extends Study {
-    private boolean isCalculating = false;
+    private volatile boolean isCalculating = false;
+    private final LiveTickBuffer liveTicks = new LiveTickBuffer(new StudyLog(this)); // live ticks received during the backfill
     private boolean calculated = false;
     private VolumeTaperCalculator calculator;
+    private volatile SettingsSnapshot settings; // replaced as a whole when the settings change
+    private volatile StudyMetrics metrics;
     enum Values {VOLUME_TAPER}
 
-    private final String BULLISH_BAR_MIN_PRICES = "UpNumPrices";
-    private final String BEARISH_BAR_MIN_PRICES = "DownNumPrices";
-    private final String MIN_BULLISH_BAR_SIZE = "MinBullishBarSize";
-    private final String MIN_BEARISH_BAR_SIZE = "MinBearishBarSize";
-    private final String SHOW_DELTA_TRIGGERS = "showDeltaTriggers";
-    private final String BEARISH_DELTA_PERCENT_THRESHOLD = "bearishDeltaPercentThreshold";
-    private final String BULLISH_DELTA_PERCENT_THRESHOLD = "bullishDeltaPercentThreshold";
-    private final String OFFSET_ABOVE_IN_TICKS = "offsetAboveInTicks";
-    private final String OFFSET_BELOW_IN_TICKS = "offsetBelowInTicks";
-    private final String TICK_INTERVAL = "tickInterval";
+    private static final String BULLISH_BAR_MIN_PRICES = "UpNumPrices";
+    private static final String BEARISH_BAR_MIN_PRICES = "DownNumPrices";
+    private static final String MIN_BULLISH_BAR_SIZE = "MinBullishBarSize";
+    private static final String MIN_BEARISH_BAR_SIZE = "MinBearishBarSize";
+    private static final String SHOW_DELTA_TRIGGERS = "showDeltaTriggers";
+    private static final String BEARISH_DELTA_PERCENT_THRESHOLD = "bearishDeltaPercentThreshold";
+    private static final String BULLISH_DELTA_PERCENT_THRESHOLD = "bullishDeltaPercentThreshold";
+    private static final String OFFSET_ABOVE_IN_TICKS = "offsetAboveInTicks";
+    private static final String OFFSET_BELOW_IN_TICKS = "offsetBelowInTicks";
+    private static final String TICK_INTERVAL = "tickInterval";
 
     @Override
     public void initialize(Defaults defaults) {
@@ -69,74 +81,110 @@ public class VolumeTaperStudy extends Study {
     }
 
 
-    class VolumeTaperCalculator implements TickOperation {
-        private final Map<Float, Integer> deltaByPrice = new TreeMap<>();
-        private final Map<Float, Integer> bidByPrice = new TreeMap<>();
-        private final Map<Float, Integer> askByPrice = new TreeMap<>();
+    /**
+     * A bar marked by the calculator, drawn by the study as a marker on the price plot
+     */
+    public enum Mark {
+        TAPER_UP,   // volume tapers into the high of a bar that closed up
+        TAPER_DOWN, // volume tapers into the low of a bar that closed down
+        BEARISH_FOLLOW_THROUGH, // selling in the bar after a taper up
+        BULLISH_FOLLOW_THROUGH  // buying in the bar after a taper down
+    }
 
+    /**
+     * Builds the footprint of each bar from ticks and marks bars whose volume tapers at their high or low once they
+     * close. Takes everything it uses from the study, so it can also be created outside MotiveWave.
+     */
+    public static class VolumeTaperCalculator implements TickOperation {
         private final DataSeries series;
+        private final FootprintStore footprintStore;
+        private volatile SettingsSnapshot settings;
+        private final LiveTickBuffer liveTicks;
+        private final StudyMetrics metrics;
+        private final ObjIntConsumer<Mark> marks;
+        private Footprint footprint;
         private int index;
 
-        public VolumeTaperCalculator(int startIndex, DataSeries series) {
+        /**
+         * @param footprintStore footprintStore is where the footprints of finished bars are loaded from and saved to
+         * @param liveTicks liveTicks is the buffer the calculator receives ticks through, asked whether a bar's live
+         *                  ticks were all seen before its footprint is saved
+         * @param marks marks is passed each bar the calculator marks, with the index of the bar
+         */
+        public VolumeTaperCalculator(int startIndex, DataSeries series, FootprintStore footprintStore, SettingsSnapshot settings,
+                                     LiveTickBuffer liveTicks, StudyMetrics metrics, ObjIntConsumer<Mark> marks) {
             this.index = startIndex;
             this.series = series;
+            this.footprintStore = footprintStore;
+            this.settings = settings;
+            this.liveTicks = liveTicks;
+            this.metrics = metrics;
+            this.marks = marks;
+            this.footprint = new Footprint((float) series.getInstrument().getTickSize());
         }
 
-        public void onTick(Tick tick) {
-            if (tick.getTime() > series.getEndTime(index)) {
-                calculateTaper();
-                series.setComplete(index);
-                calculateFollowThrough();
-                reset();
-                index++;
+        public int getIndex() {
+            return index;
+        }
+
+        public void setSettings(SettingsSnapshot settings) {
+            this.settings = settings;
+        }
+
+        /**
+         * Evaluates bars from saved footprints, starting at the current index, until a bar has not been saved. Ticks
+         * only need to be replayed from the bar at the current index afterwards.
+         */
+        public void loadSavedBars() {
+            while (index < series.size() - 1) {
+                Footprint saved = footprintStore.load(series.getStartTime(index));
+                if (saved == null) return;
+                footprint = saved;
+                completeBar(false);
             }
-            if (tick.isAskTick()) {
-                float price = tick.getAskPrice();
+        }
 
-                int delta = deltaByPrice.getOrDefault(price, 0);
-                delta += tick.getVolume();
-                deltaByPrice.put(price, delta);
+        public void onTick(Tick tick) {
+            // the last bar is still forming, so the index never moves past it
+            while (index < series.size() - 1 && tick.getTime() > series.getEndTime(index)) {
+                completeBar(true);
+            }
+            footprint.addTick(tick);
+        }
 
-                int ask = askByPrice.getOrDefault(price, 0);
-                ask += tick.getVolume();
-                askByPrice.put(price, ask);
-            } else {
-                float price = tick.getBidPrice();
-                int delta = deltaByPrice.getOrDefault(price, 0);
-                delta -= tick.getVolume();
-                deltaByPrice.put(tick.getBidPrice(), delta);
-
-                int bid = bidByPrice.getOrDefault(price, 0);
-                bid += tick.getVolume();
-                bidByPrice.put(price, bid);
+        private void completeBar(boolean save) {
+            calculateTaper();
+            series.setComplete(index);
+            metrics.addValues(1);
+            calculateFollowThrough();
+            // saved footprints are loaded instead of replayed from then on, so skip empty bars, bars short of ticks and
+            // bars missing live ticks dropped during the backfill
+            if (save && footprint.getVolume() > 0 && series.isBarComplete(index) && footprint.getVolume() == series.getVolume(index)
+                    && liveTicks.isComplete(series.getStartTime(index), series.getEndTime(index))) {
+                footprintStore.save(series.getStartTime(index), footprint);
             }
+            reset();
+            index++;
         }
 
         public void calculateFollowThrough() {
-            if (!getSettings().getBoolean(SHOW_DELTA_TRIGGERS)) return;
+            SettingsSnapshot s = settings;
+            if (!s.showDeltaTriggers) return;
             int numBarsToEvaluate = 1;
             if (index - numBarsToEvaluate < 0) return; // not enough bars
 
             if (null != series.getBoolean(index - 1, Values.VOLUME_TAPER) && series.getBoolean(index - 1, Values.VOLUME_TAPER)) {
-                float delta = deltaByPrice.values().stream().mapToInt(Integer::valueOf).sum();
+                float delta = footprint.getDelta();
                 float deltaPercent = delta / series.getVolume(index);
                 if (isBarCloseUp(index-1, series)) {
 
-                    if (!(deltaPercent < getSettings().getDouble(BEARISH_DELTA_PERCENT_THRESHOLD))) return;
-                    Marker marker = new Marker(new Coordinate(series.getStartTime(index), series.getHigh(index) + 2), Enums.MarkerType.SQUARE);
-                    marker.setSize(Enums.Size.LARGE);
-                    marker.setFillColor(getDataContext().getDefaults().getRed());
-                    marker.setOutlineColor(getDataContext().getDefaults().getRed());
-//                    marker.setTextValue("Delta %: " + deltaPercent);
-                    addFigure(Plot.PRICE, marker);
+                    if (!(deltaPercent < s.bearishDeltaPercentThreshold)) return;
+                    marks.accept(Mark.BEARISH_FOLLOW_THROUGH, index);
+                    metrics.addFigures(1);
                 } else {
-                    if (!(deltaPercent > getSettings().getDouble(BULLISH_DELTA_PERCENT_THRESHOLD))) return;
-                    Marker marker = new Marker(new Coordinate(series.getStartTime(index), series.getLow(index) - 2 ), Enums.MarkerType.SQUARE);
-                    marker.setSize(Enums.Size.LARGE);
-                    marker.setFillColor(getDataContext().getDefaults().getGreen());
-                    marker.setOutlineColor(getDataContext().getDefaults().getGreen());
-//                    marker.setTextValue("Delta %: " + deltaPercent);
-                    addFigure(Plot.PRICE, marker);
+                    if (!(deltaPercent > s.bullishDeltaPercentThreshold)) return;
+                    marks.accept(Mark.BULLISH_FOLLOW_THROUGH, index);
+                    metrics.addFigures(1);
                 }
             }
         }
@@ -149,27 +197,21 @@ public class VolumeTaperStudy extends Study {
                 if (!evaluateHigh()) return;
                 if (!evaluateUpTaper()) return;
 
-                Marker arrow = new Marker(new Coordinate(series.getStartTime(index), series.getHigh(index) + getSettings().getInteger(OFFSET_ABOVE_IN_TICKS)), Enums.MarkerType.CIRCLE);
-                arrow.setSize(Enums.Size.LARGE);
-                arrow.setFillColor(getDataContext().getDefaults().getRed());
-                arrow.setOutlineColor(getDataContext().getDefaults().getRed());
-                addFigure(Plot.PRICE, arrow);
+                marks.accept(Mark.TAPER_UP, index);
+                metrics.addFigures(1);
                 series.setBoolean(index, Values.VOLUME_TAPER, true);
             } else {
                 if (!evaluateLow()) return;
                 if (!evaluateDownTaper()) return;
 
-                Marker arrow = new Marker(new Coordinate(series.getStartTime(index), series.getLow(index) - getSettings().getInteger(OFFSET_BELOW_IN_TICKS)), Enums.MarkerType.CIRCLE);
-                arrow.setSize(Enums.Size.LARGE);
-                arrow.setFillColor(getDataContext().getDefaults().getGreen());
-                arrow.setOutlineColor(getDataContext().getDefaults().getGreen());
-                addFigure(Plot.PRICE, arrow);
+                marks.accept(Mark.TAPER_DOWN, index);
+                metrics.addFigures(1);
                 series.setBoolean(index, Values.VOLUME_TAPER, true);
             }
         }
 
         private boolean evaluateBarSize() {
-            int minBarSize = getSettings().getInteger("MinBarSize");
+            int minBarSize = settings.minBarSize;
             double barBreadthInTicks = (series.getHigh(index) - series.getLow(index)) / series.getInstrument().getTickSize();
             return barBreadthInTicks >= minBarSize;
         }
@@ -178,32 +220,33 @@ public class VolumeTaperStudy extends Study {
             float high = series.getHigh(index);
             int threshold = 0;
 
-            return bidByPrice.getOrDefault(high, 0) <= threshold;
+            return footprint.getBidVolume(high) <= threshold;
         }
 
         private boolean evaluateLow() {
             float low = series.getLow(index);
             int threshold = 0;
 
-            return askByPrice.getOrDefault(low, 0) <= threshold;
+            return footprint.getAskVolume(low) <= threshold;
         }
 
         private boolean evaluateUpTaper() {
             float increment = (float)series.getInstrument().getTickSize();
             float high = series.getHigh(index);
-            int numberOfPrices = getSettings().getInteger("UpNumPrices");
-            int tickInterval = getSettings().getInteger(TICK_INTERVAL);
+            SettingsSnapshot s = settings;
+            int numberOfPrices = s.upNumPrices;
+            int tickInterval = s.tickInterval;
 
-            int lastBid = bidByPrice.getOrDefault(high, 0);
+            int lastBid = footprint.getBidVolume(high);
             if (lastBid > 0) return false;
-            int lastAsk = askByPrice.getOrDefault(high, 0);
+            int lastAsk = footprint.getAskVolume(high);
 
             float lastPrice = high;
             for (int i = 0; i < numberOfPrices; i++) {
                 lastPrice = lastPrice - increment;
-                int ask = askByPrice.getOrDefault(lastPrice, 0);
+                int ask = footprint.getAskVolume(lastPrice);
                 for (int j = 0; j < tickInterval-1; j++) {
-                    ask = ask + askByPrice.getOrDefault(lastPrice - increment, 0);
+                    ask = ask + footprint.getAskVolume(lastPrice - increment);
                 }
                 if (!(ask > lastAsk)) {
                     // @todo make this more intelligent than just greater than check
@@ -218,19 +261,20 @@ public class VolumeTaperStudy extends Study {
         private boolean evaluateDownTaper() {
             float increment = (float)series.getInstrument().getTickSize();
             float low = series.getLow(index);
-            int numberOfPrices = getSettings().getInteger("DownNumPrices");
-            int tickInterval = getSettings().getInteger(TICK_INTERVAL);
+            SettingsSnapshot s = settings;
+            int numberOfPrices = s.downNumPrices;
+            int tickInterval = s.tickInterval;
 
-            int lastAsk = askByPrice.getOrDefault(low, 0);
+            int lastAsk = footprint.getAskVolume(low);
             if (lastAsk > 0) return false;
-            int lastBid = bidByPrice.getOrDefault(low, 0);
+            int lastBid = footprint.getBidVolume(low);
 
             float lastPrice = low;
             for (int i = 0; i < numberOfPrices; i++) {
                 lastPrice = lastPrice + increment;
-                int bid = bidByPrice.getOrDefault(lastPrice, 0);
+                int bid = footprint.getBidVolume(lastPrice);
                 for (int j = 0; j < tickInterval-1; j++) {
-                    bid = bid + bidByPrice.getOrDefault(lastPrice + increment, 0);
+                    bid = bid + footprint.getBidVolume(lastPrice + increment);
                 }
                 if (!(bid > lastBid)) {
                     // @todo make this more intelligent than just greater than check
@@ -243,9 +287,7 @@ public class VolumeTaperStudy extends Study {
         }
 
         public void reset() {
-            deltaByPrice.clear();
-            bidByPrice.clear();
-            askByPrice.clear();
+            footprint = new Footprint((float) series.getInstrument().getTickSize());
         }
 
         private boolean isBarCloseUp(int index, DataSeries series) {
@@ -253,24 +295,106 @@ public class VolumeTaperStudy extends Study {
         }
     }
 
+    /**
+     * The settings read by the calculator for every bar, copied out of the study settings once
+     */
+    public static class SettingsSnapshot {
+        private final int upNumPrices;
+        private final int downNumPrices;
+        private final int minBarSize;
+        private final int tickInterval;
+        private final boolean showDeltaTriggers;
+        private final double bearishDeltaPercentThreshold;
+        private final double bullishDeltaPercentThreshold;
+        private final int offsetAboveInTicks;
+        private final int offsetBelowInTicks;
+
+        public SettingsSnapshot(SettingValues settings) {
+            upNumPrices = settings.getInteger(BULLISH_BAR_MIN_PRICES);
+            downNumPrices = settings.getInteger(BEARISH_BAR_MIN_PRICES);
+            minBarSize = settings.getInteger("MinBarSize");
+            tickInterval = settings.getInteger(TICK_INTERVAL);
+            showDeltaTriggers = settings.getBoolean(SHOW_DELTA_TRIGGERS);
+            bearishDeltaPercentThreshold = settings.getDouble(BEARISH_DELTA_PERCENT_THRESHOLD);
+            bullishDeltaPercentThreshold = settings.getDouble(BULLISH_DELTA_PERCENT_THRESHOLD);
+            offsetAboveInTicks = settings.getInteger(OFFSET_ABOVE_IN_TICKS);
+            offsetBelowInTicks = settings.getInteger(OFFSET_BELOW_IN_TICKS);
+        }
+    }
+
+    @Override
+    public void onSettingsUpdated(DataContext ctx) {
+        settings = new SettingsSnapshot(SettingValues.of(getSettings()));
+        VolumeTaperCalculator c = calculator;
+        if (c != null) c.setSettings(settings);
+        super.onSettingsUpdated(ctx);
+    }
+
     @Override
     protected void calculateValues(DataContext ctx) {
         DataSeries series = ctx.getDataSeries();
         if (series.size() == 0 || isCalculating) return;
+        settings = new SettingsSnapshot(SettingValues.of(getSettings()));
         Instrument instrument = series.getInstrument();
 
+        metrics = StudyMetrics.get("VolumeTaperStudy " + instrument.getSymbol() + " " + series.getBarSize());
+        metrics.startBackfill();
+
         int startIndex = 1;
-        calculator = new VolumeTaperCalculator(startIndex, series);
+        FootprintStore footprintStore = FootprintStore.get(instrument, series.getBarSize(), ctx.isRTH());
+        calculator = new VolumeTaperCalculator(startIndex, series, footprintStore, settings, liveTicks, metrics,
+                (mark, index) -> addMarker(series, ctx.getDefaults(), mark, index));
         isCalculating = true;
-        instrument.forEachTick(series.getStartTime(startIndex), ctx.getCurrentTime() + Util.MILLIS_IN_MINUTE*5, ctx.isRTH(), calculator);
-        isCalculating = false;
+        TickOperation backfill = liveTicks.startBackfill(calculator);
+        try {
+            calculator.loadSavedBars();
+            TickDispatcher.forEachTick(instrument, series.getStartTime(calculator.getIndex()), ctx.getCurrentTime() + Util.MILLIS_IN_MINUTE*5, ctx.isRTH(), metrics.countTicks(backfill));
+        } finally {
+            isCalculating = false;
+            liveTicks.finishBackfill(backfill);
+            metrics.finishBackfill();
+            debug(metrics.getSummary());
+        }
         calculated = true;
         notifyRedraw();
     }
 
+    /**
+     * Draws a bar marked by the calculator: a circle past the end of a tapering bar and a square past the end of the
+     * bar following through after it
+     */
+    private void addMarker(DataSeries series, Defaults defaults, Mark mark, int index) {
+        SettingsSnapshot s = settings;
+        Marker marker;
+        Color color;
+        switch (mark) {
+            case TAPER_UP:
+                marker = new Marker(new Coordinate(series.getStartTime(index), series.getHigh(index) + s.offsetAboveInTicks), Enums.MarkerType.CIRCLE);
+                color = defaults.getRed();
+                break;
+            case TAPER_DOWN:
+                marker = new Marker(new Coordinate(series.getStartTime(index), series.getLow(index) - s.offsetBelowInTicks), Enums.MarkerType.CIRCLE);
+                color = defaults.getGreen();
+                break;
+            case BEARISH_FOLLOW_THROUGH:
+                marker = new Marker(new Coordinate(series.getStartTime(index), series.getHigh(index) + 2), Enums.MarkerType.SQUARE);
+                color = defaults.getRed();
+                break;
+            default:
+                marker = new Marker(new Coordinate(series.getStartTime(index), series.getLow(index) - 2), Enums.MarkerType.SQUARE);
+                color = defaults.getGreen();
+        }
+        marker.setSize(Enums.Size.LARGE);
+        marker.setFillColor(color);
+        marker.setOutlineColor(color);
+        addFigure(Plot.PRICE, marker);
+    }
+
     @Override
     public void onTick(DataContext ctx, Tick tick) {
-        if (isCalculating || calculator == null) return;
-        calculator.onTick(tick);
+        long start = System.nanoTime();
+        liveTicks.onTick(tick);
+        StudyMetrics m = metrics;
+        if (m != null) m.recordTick(start);
     }
 }
@@ -0,0 +1,192 @@
+package com.tystr.tick;
+
+import com.motivewave.platform.sdk.common.Instrument;
+import com.motivewave.platform.sdk.common.Tick;
+import com.motivewave.platform.sdk.common.TickOperation;
+import com.tystr.SessionCalendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Replays a range of historical ticks one trading day at a time, with the days replayed in parallel on a
+ * {@link ForkJoinPool}. This suits calculators whose state is reset at the start of each trading day, such as a daily
+ * volume profile: each day gets its own calculator, and the caller merges their results into the series in day order
+ * once {@link #forEachDay(Instrument, long[], long, boolean, List)} returns.
+ * <p>
+ * The ticks are read once, in order, on the calling thread through the {@link TickArchive}, so the instrument is only
+ * asked for ticks from one thread and each day of the archive is read or written once even when two trading days
+ * share it. Each trading day is copied to a {@link TickTape} as it is read and replayed to its operation on the pool
+ * while the next day is read. At most two days per pool thread are held waiting to be replayed; reading waits for the
+ * pool beyond that. Days are not shared with other studies through the {@link TickDispatcher}.
+ *
+ * @author Tyler Stroud
+ */
+public class DayPartitionedBackfill {
+    private static ReplayPool pool;
+
+    private DayPartitionedBackfill() {}
+
+    /**
+     * Splits the given range at the start of each trading day.
+     *
+     * @param instrument instrument the range belongs to
+     * @param start start of the range
+     * @param end end of the range
+     * @param rth {@code true} to split at the start of regular trading hours
+     * @return The start of each day in the range. The first element is {@code start} itself.
+     */
+    public static long[] splitByDay(Instrument instrument, long start, long end, boolean rth) {
+        long[] dayStarts = new long[16];
+        int count = 0;
+        SessionCalendar calendar = SessionCalendar.get(instrument, rth);
+        for (long dayStart = start; dayStart <= end; ) {
+            if (count == dayStarts.length) dayStarts = Arrays.copyOf(dayStarts, count * 2);
+            dayStarts[count++] = dayStart;
+            long next = calendar.getStartOfNextDay(dayStart);
+            if (next <= dayStart) break;
+            dayStart = next;
+        }
+        return Arrays.copyOf(dayStarts, count);
+    }
+
+    /**
+     * Replays each day to its own operation, with the days replayed in parallel. Only returns once every day has been
+     * replayed. An exception thrown by one of the operations is rethrown here once the other days have finished.
+     *
+     * @param instrument instrument to replay
+     * @param dayStarts dayStarts is the start of each day, as returned by {@link #splitByDay(Instrument, long, long, boolean)}
+     * @param end end of the last day
+     * @param rth {@code true} to only replay ticks inside regular trading hours
+     * @param operations operations is one operation per day. Each operation is only called from a single thread, but
+     *                   operations of different days are called concurrently.
+     */
+    public static void forEachDay(Instrument instrument, long[] dayStarts, long end, boolean rth, List<? extends TickOperation> operations) {
+        if (operations.size() != dayStarts.length) {
+            throw new IllegalArgumentException("Expected " + dayStarts.length + " operations, received " + operations.size());
+        }
+        if (dayStarts.length == 0) return;
+
+        ReplayPool replayPool = acquirePool();
+        try {
+            DaySplitter splitter = new DaySplitter(replayPool.executor, dayStarts, operations);
+            RuntimeException failure = null;
+            try {
+                TickArchive.forEachTick(instrument, dayStarts[0], end, rth, splitter);
+                splitter.finish();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            for (ForkJoinTask<?> replay : splitter.replays) {
+                try {
+                    replay.join();
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) throw failure;
+        } finally {
+            releasePool(replayPool);
+        }
+    }
+
+    /**
+     * Sets the number of days replayed at the same time. Defaults to the number of available processors. Backfills
+     * already running keep their pool, which is shut down once the last of them has finished.
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        ReplayPool previous = pool;
+        pool = new ReplayPool(new ForkJoinPool(parallelism));
+        if (previous != null) {
+            previous.isRetired = true;
+            if (previous.users == 0) previous.executor.shutdown();
+        }
+    }
+
+    /**
+     * @return The current pool, counting the caller as one of its users until {@link #releasePool(ReplayPool)}
+     */
+    private static synchronized ReplayPool acquirePool() {
+        if (pool == null) pool = new ReplayPool(new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+        pool.users++;
+        return pool;
+    }
+
+    private static synchronized void releasePool(ReplayPool replayPool) {
+        replayPool.users--;
+        if (replayPool.isRetired && replayPool.users == 0) replayPool.executor.shutdown();
+    }
+
+    /**
+     * A pool and the backfills submitting days to it. Guarded by the class.
+     */
+    private static class ReplayPool {
+        private final ForkJoinPool executor;
+        private int users = 0;
+        private boolean isRetired = false; // replaced by setParallelism, shut down after its last user
+
+        ReplayPool(ForkJoinPool executor) {
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Copies ticks, which must arrive in time order, to a tape per day and hands each finished day to the pool
+     */
+    private static class DaySplitter implements TickOperation {
+        private final ForkJoinPool pool;
+        private final long[] dayStarts;
+        private final List<? extends TickOperation> operations;
+        private final Semaphore waiting; // days that may be held waiting to be replayed
+        private final List<ForkJoinTask<?>> replays = new ArrayList<>();
+        private int day = 0;
+        private TickTape tape = new TickTape();
+
+        DaySplitter(ForkJoinPool pool, long[] dayStarts, List<? extends TickOperation> operations) {
+            this.pool = pool;
+            this.dayStarts = dayStarts;
+            this.operations = operations;
+            waiting = new Semaphore(pool.getParallelism() * 2);
+        }
+
+        @Override
+        public void onTick(Tick tick) {
+            long time = tick.getTime();
+            while (day + 1 < dayStarts.length && time >= dayStarts[day + 1]) {
+                submit();
+                day++;
+            }
+            tape.add(tick);
+        }
+
+        /**
+         * Hands the last day to the pool
+         */
+        void finish() {
+            submit();
+        }
+
+        private void submit() {
+            if (tape.size() == 0) return;
+            TickTape dayTape = tape;
+            TickOperation operation = operations.get(day);
+            tape = new TickTape();
+            waiting.acquireUninterruptibly();
+            replays.add(pool.submit(() -> {
+                try {
+                    dayTape.replay(0, dayTape.size(), operation);
+                } finally {
+                    waiting.release();
+                }
+            }));
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.tystr.tick;
+
+import com.motivewave.platform.sdk.common.Tick;
+import com.motivewave.platform.sdk.common.TickOperation;
+import com.tystr.StudyLog;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the live ticks a study receives while its historical backfill runs, so they can be passed to the calculator
+ * once the backfill has finished instead of being dropped.
+ * <p>
+ * The backfill wraps its calculator with {@link #startBackfill(TickOperation)} and replays through the returned
+ * operation, which records the time of the last replayed tick. Live ticks passed to {@link #onTick(Tick)} are copied
+ * into a bounded ring while the backfill runs. After {@link #finishBackfill(TickOperation)}, the next live tick first
+ * drains the ring into the calculator. Ticks that are older than the last replayed tick, or that match one of the
+ * ticks replayed at the same time, were already seen by the backfill and are skipped.
+ * <p>
+ * The ring is only written and drained on the thread delivering live ticks, so neither the data thread nor the
+ * backfill ever wait on each other; the state of a finished backfill is handed to the data thread through a volatile
+ * field. This also hands over the calculator: it is only used by the backfill thread until
+ * {@link #finishBackfill(TickOperation)} publishes it, and only by the data thread afterwards. Starting a new backfill
+ * supersedes one that is still running; the superseded backfill stops passing ticks to its calculator and is never
+ * published. A backfill that fails is cancelled with {@link #cancelBackfill(TickOperation)}, and is not published
+ * either.
+ * <p>
+ * Live ticks that arrive while the ring is full are dropped. The times of the dropped ticks are kept so calculators
+ * can tell which bars are missing ticks, see {@link #isComplete(long, long)}.
+ *
+ * @author Tyler Stroud
+ */
+public class LiveTickBuffer {
+    private static final int defaultCapacity = 1 << 16;
+
+    // ring of buffered live ticks
+    private final long[] times;
+    private final float[] prices;
+    private final float[] bidPrices;
+    private final float[] askPrices;
+    private final int[] volumes;
+    private final boolean[] askTicks;
+    private int head = 0;
+    private int size = 0;
+    private int dropped = 0;
+    private volatile long firstDroppedTime = Long.MAX_VALUE;
+    private volatile long lastDroppedTime = Long.MIN_VALUE;
+
+    private final StudyLog log;
+    private final ReplayTick replayTick = new ReplayTick();
+    private final AtomicReference<Backfill> running = new AtomicReference<>();
+    private volatile Backfill finished;
+
+    public LiveTickBuffer() {
+        this(defaultCapacity);
+    }
+
+    /**
+     * @param log log is the log of the study, which is told when live ticks were dropped
+     */
+    public LiveTickBuffer(StudyLog log) {
+        this(defaultCapacity, log);
+    }
+
+    /**
+     * @param capacity capacity is the largest number of live ticks to hold while a backfill runs
+     */
+    public LiveTickBuffer(int capacity) {
+        this(capacity, new StudyLog(LiveTickBuffer.class.getSimpleName()));
+    }
+
+    /**
+     * @param capacity capacity is the largest number of live ticks to hold while a backfill runs
+     * @param log log is the log of the study, which is told when live ticks were dropped
+     */
+    public LiveTickBuffer(int capacity, StudyLog log) {
+        this.log = log;
+        times = new long[capacity];
+        prices = new float[capacity];
+        bidPrices = new float[capacity];
+        askPrices = new float[capacity];
+        volumes = new int[capacity];
+        askTicks = new boolean[capacity];
+    }
+
+    /**
+     * Starts buffering live ticks for a new backfill.
+     *
+     * @param calculator calculator live ticks are passed to once the backfill has finished
+     * @return The operation the backfill should replay historical ticks through
+     */
+    public TickOperation startBackfill(TickOperation calculator) {
+        // the new backfill replays the ticks dropped so far from history
+        firstDroppedTime = Long.MAX_VALUE;
+        lastDroppedTime = Long.MIN_VALUE;
+        Backfill backfill = new Backfill(calculator);
+        Backfill superseded = running.getAndSet(backfill);
+        if (superseded != null) superseded.isSuperseded = true;
+        return backfill;
+    }
+
+    /**
+     * Stops buffering and publishes the calculator of the given backfill to the data thread. Buffered ticks are passed
+     * to it with the next live tick. Nothing is published if another backfill has been started since.
+     *
+     * @param backfill backfill is the operation returned by {@link #startBackfill(TickOperation)}
+     * @return {@code false} if the backfill was superseded
+     */
+    public boolean finishBackfill(TickOperation backfill) {
+        if (running.get() != backfill) return false;
+        // publish before clearing running, so the data thread always sees one of them
+        finished = (Backfill) backfill;
+        return running.compareAndSet((Backfill) backfill, null);
+    }
+
+    /**
+     * Stops buffering for a backfill that did not complete, e.g. because its replay failed, without publishing its
+     * calculator. The calculator of the last finished backfill, if any, keeps receiving live ticks, starting with the
+     * ones buffered meanwhile.
+     *
+     * @param backfill backfill is the operation returned by {@link #startBackfill(TickOperation)}
+     */
+    public void cancelBackfill(TickOperation backfill) {
+        ((Backfill) backfill).isSuperseded = true;
+        running.compareAndSet((Backfill) backfill, null);
+    }
+
+    /**
+     * @return {@code true} if live ticks are being buffered
+     */
+    public boolean isBackfilling() {
+        return running.get() != null;
+    }
+
+    /**
+     * @param startTime startTime is the start of the time range, e.g. the start time of a bar
+     * @param endTime endTime is the end of the time range
+     * @return {@code false} if live ticks inside the given time range were dropped since the last backfill started
+     */
+    public boolean isComplete(long startTime, long endTime) {
+        return endTime < firstDroppedTime || startTime > lastDroppedTime;
+    }
+
+    /**
+     * Buffers the given live tick while a backfill runs. Otherwise passes any buffered ticks and then the given tick
+     * to the calculator of the last finished backfill.
+     */
+    public void onTick(Tick tick) {
+        if (running.get() != null) {
+            offer(tick);
+            return;
+        }
+        Backfill backfill = finished;
+        if (backfill == null) return;
+
+        if (size > 0) drain(backfill);
+        if (backfill.isReplayed(tick.getTime(), tick.getPrice(), tick.getVolume(), tick.isAskTick())) return;
+        backfill.calculator.onTick(tick);
+    }
+
+    private void offer(Tick tick) {
+        if (size == times.length) {
+            dropped++;
+            long time = tick.getTime();
+            if (time < firstDroppedTime) firstDroppedTime = time;
+            if (time > lastDroppedTime) lastDroppedTime = time;
+            return;
+        }
+        int i = (head + size) % times.length;
+        times[i] = tick.getTime();
+        prices[i] = tick.getPrice();
+        bidPrices[i] = tick.getBidPrice();
+        askPrices[i] = tick.getAskPrice();
+        volumes[i] = tick.getVolume();
+        askTicks[i] = tick.isAskTick();
+        size++;
+    }
+
+    private void drain(Backfill backfill) {
+        if (dropped > 0) {
+            int count = dropped;
+            log.warning(() -> "Live tick buffer was full, " + count + " ticks were dropped during the backfill");
+            dropped = 0;
+        }
+        while (size > 0) {
+            int i = head;
+            head = (head + 1) % times.length;
+            size--;
+            if (backfill.isReplayed(times[i], prices[i], volumes[i], askTicks[i])) continue;
+            backfill.calculator.onTick(replayTick.set(times[i], prices[i], bidPrices[i], askPrices[i], volumes[i], askTicks[i]));
+        }
+    }
+
+    /**
+     * Passes historical ticks to the calculator and remembers the ticks replayed at the latest time
+     */
+    private static class Backfill implements TickOperation {
+        private final TickOperation calculator;
+        private volatile boolean isSuperseded = false;
+        private long lastTime = Long.MIN_VALUE;
+        private float[] lastPrices = new float[8];
+        private int[] lastVolumes = new int[8];
+        private boolean[] lastAskTicks = new boolean[8];
+        private int lastCount = 0;
+
+        Backfill(TickOperation calculator) {
+            this.calculator = calculator;
+        }
+
+        @Override
+        public void onTick(Tick tick) {
+            if (isSuperseded) return;
+            long time = tick.getTime();
+            if (time != lastTime) {
+                lastTime = time;
+                lastCount = 0;
+            }
+            if (lastCount == lastPrices.length) {
+                lastPrices = Arrays.copyOf(lastPrices, lastCount * 2);
+                lastVolumes = Arrays.copyOf(lastVolumes, lastCount * 2);
+                lastAskTicks = Arrays.copyOf(lastAskTicks, lastCount * 2);
+            }
+            lastPrices[lastCount] = tick.getPrice();
+            lastVolumes[lastCount] = tick.getVolume();
+            lastAskTicks[lastCount] = tick.isAskTick();
+            lastCount++;
+            calculator.onTick(tick);
+        }
+
+        /**
+         * Only called on the data thread after the backfill has finished. Each replayed tick at the latest time
+         * matches at most one live tick.
+         */
+        boolean isReplayed(long time, float price, int volume, boolean isAskTick) {
+            if (time > lastTime) return false;
+            if (time < lastTime) return true;
+            for (int i = 0; i < lastCount; i++) {
+                if (lastPrices[i] == price && lastVolumes[i] == volume && lastAskTicks[i] == isAskTick) {
+                    lastCount--;
+                    lastPrices[i] = lastPrices[lastCount];
+                    lastVolumes[i] = lastVolumes[lastCount];
+                    lastAskTicks[i] = lastAskTicks[lastCount];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
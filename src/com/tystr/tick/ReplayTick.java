@@ -0,0 +1,103 @@
+package com.tystr.tick;
+
+import com.motivewave.platform.sdk.common.Tick;
+
+/**
+ * A mutable {@link Tick} used to replay stored ticks without creating an object per tick. The same instance is
+ * refilled before every call to {@code TickOperation.onTick}, so calculators must not hold on to it.
+ *
+ * @author Tyler Stroud
+ */
+public class ReplayTick implements Tick {
+    private long time;
+    private float price;
+    private float bidPrice;
+    private float askPrice;
+    private int volume;
+    private boolean isAskTick;
+
+    /**
+     * Replaces the contents of this tick
+     */
+    public ReplayTick set(long time, float price, float bidPrice, float askPrice, int volume, boolean isAskTick) {
+        this.time = time;
+        this.price = price;
+        this.bidPrice = bidPrice;
+        this.askPrice = askPrice;
+        this.volume = volume;
+        this.isAskTick = isAskTick;
+        return this;
+    }
+
+    /**
+     * Replaces the contents of this tick with a copy of the given tick
+     */
+    public ReplayTick set(Tick tick) {
+        return set(tick.getTime(), tick.getPrice(), tick.getBidPrice(), tick.getAskPrice(), tick.getVolume(), tick.isAskTick());
+    }
+
+    @Override
+    public float getPrice() {
+        return price;
+    }
+
+    @Override
+    public int getVolume() {
+        return volume;
+    }
+
+    @Override
+    public float getVolumeAsFloat() {
+        return volume;
+    }
+
+    @Override
+    public float getAskPrice() {
+        return askPrice;
+    }
+
+    @Override
+    public int getAskSize() {
+        return 0;
+    }
+
+    @Override
+    public float getAskSizeAsFloat() {
+        return 0;
+    }
+
+    @Override
+    public float getBidPrice() {
+        return bidPrice;
+    }
+
+    @Override
+    public int getBidSize() {
+        return 0;
+    }
+
+    @Override
+    public float getBidSizeAsFloat() {
+        return 0;
+    }
+
+    @Override
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public boolean isAskTick() {
+        return isAskTick;
+    }
+
+    @Override
+    public long getExchOrderId() {
+        return 0;
+    }
+
+    @Override
+    public long getAggExchOrderId() {
+        return 0;
+    }
+}
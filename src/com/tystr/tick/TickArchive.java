@@ -0,0 +1,326 @@
+package com.tystr.tick;
+
+import com.motivewave.platform.sdk.common.Instrument;
+import com.motivewave.platform.sdk.common.TickOperation;
+import com.motivewave.platform.sdk.common.Util;
+import com.tystr.StudyLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * A local archive of historical ticks, stored as one file per instrument per day (UTC). Each file holds the ticks of the
+ * day as separate columns of time, price, bid price, ask price, volume and aggressor side, and is memory mapped when it
+ * is replayed, so ticks are read sequentially from the page cache and passed to the operation through a single
+ * {@link ReplayTick} rather than as an object per tick.
+ * <p>
+ * Days that have not been archived yet are requested from the instrument as a whole, passed on to the operation and
+ * written to the archive, as long as the day has ended. The current day is always requested from the instrument.
+ * <p>
+ * The instrument may return fewer ticks than the day had, e.g. when its history does not reach back to the start of
+ * the day. Each file records the part of the day its ticks are known to cover: the whole day if the first and last
+ * ticks fall within a few minutes of the start and end of the instrument's trading hours for the day, otherwise only
+ * the time from the first to the last tick returned. Ranges outside the covered part are requested from the
+ * instrument again, and the file is replaced when the new ticks cover more of the day. A day that is known to be
+ * wrong can be removed with {@link #invalidate(Instrument, long, long, boolean)} or requested again at once with
+ * {@link #rebuild(Instrument, long, long, boolean)}.
+ * <pre>
+ *     ~/.tystr/ticks/&lt;symbol&gt;/&lt;rth|eth&gt;/&lt;day&gt;.ticks
+ * </pre>
+ *
+ * @author Tyler Stroud
+ */
+public class TickArchive {
+    private static final int MAGIC = 0x54544B32; // TTK2
+    private static final int HEADER_SIZE = 32; // magic, count, day, covered start, covered end
+    private static final long coverageToleranceMillis = 5 * Util.MILLIS_IN_MINUTE;
+    private static final StudyLog log = new StudyLog(TickArchive.class.getSimpleName());
+    private static Path root = Paths.get(System.getProperty("user.home"), ".tystr", "ticks");
+    private static boolean enabled = true;
+
+    private TickArchive() {}
+
+    /**
+     * Calls the given operation for each tick of the instrument in the given range, reading archived days from disk
+     *
+     * @param instrument instrument to replay
+     * @param start start of the range
+     * @param end end of the range
+     * @param rth {@code true} to only replay ticks inside regular trading hours
+     * @param operation operation to call for each tick. The tick passed to it may be reused after it returns.
+     */
+    public static void forEachTick(Instrument instrument, long start, long end, boolean rth, TickOperation operation) {
+        if (!enabled) {
+            instrument.forEachTick(start, end, rth, operation);
+            return;
+        }
+
+        Path directory = getDirectory(instrument, rth);
+        long now = System.currentTimeMillis();
+        for (long day = dayOf(start); day <= dayOf(end); day++) {
+            long dayStart = day * Util.MILLIS_IN_DAY;
+            long dayEnd = dayStart + Util.MILLIS_IN_DAY - 1;
+            long from = Math.max(start, dayStart);
+            long to = Math.min(end, dayEnd);
+
+            if (dayEnd >= now) {
+                instrument.forEachTick(from, to, rth, operation);
+                continue;
+            }
+
+            Path file = directory.resolve(day + ".ticks");
+            long[] covered = readCoverage(file);
+            if (covered != null && covered[0] <= from && to <= covered[1]) {
+                if (replay(file, from, to, operation)) continue;
+                covered = null; // the file can not be read, replace it
+            }
+
+            TickTape tape = archive(instrument, file, day, rth, covered);
+            tape.replay(0, tape.size(), from, to, operation);
+        }
+    }
+
+    /**
+     * Removes the archived days overlapping the given range, so they are requested from the instrument again the next
+     * time they are replayed
+     *
+     * @param instrument instrument the days were archived for
+     * @param start start of the range
+     * @param end end of the range
+     * @param rth {@code true} for the days archived with only the ticks inside regular trading hours
+     */
+    public static void invalidate(Instrument instrument, long start, long end, boolean rth) {
+        Path directory = getDirectory(instrument, rth);
+        for (long day = dayOf(start); day <= dayOf(end); day++) {
+            Path file = directory.resolve(day + ".ticks");
+            try {
+                if (Files.deleteIfExists(file)) log.info(() -> "Removed archived ticks " + file);
+            } catch (IOException e) {
+                log.error(() -> "Unable to remove archived ticks " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Requests the days overlapping the given range from the instrument again and archives them, replacing what was
+     * archived for them before. Days that have not ended are skipped.
+     *
+     * @param instrument instrument to archive
+     * @param start start of the range
+     * @param end end of the range
+     * @param rth {@code true} to only archive ticks inside regular trading hours
+     */
+    public static void rebuild(Instrument instrument, long start, long end, boolean rth) {
+        Path directory = getDirectory(instrument, rth);
+        long now = System.currentTimeMillis();
+        for (long day = dayOf(start); day <= dayOf(end); day++) {
+            if ((day + 1) * Util.MILLIS_IN_DAY - 1 >= now) break;
+            archive(instrument, directory.resolve(day + ".ticks"), day, rth, null);
+        }
+    }
+
+    /**
+     * Enables or disables the archive. While disabled, ticks are requested from the instrument and nothing is written.
+     */
+    public static void setEnabled(boolean enabled) {
+        TickArchive.enabled = enabled;
+    }
+
+    /**
+     * Sets the directory archived ticks are read from and written to
+     */
+    public static void setRoot(Path root) {
+        TickArchive.root = root;
+    }
+
+    /**
+     * Replays the ticks of an archived day within {@code [from, to]}.
+     *
+     * @return {@code false} if the file could not be read, in which case nothing was replayed
+     */
+    private static boolean replay(Path file, long from, long to, TickOperation operation) {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            log.error(() -> "Unable to read ticks from " + file + ": " + e.getMessage());
+            return false;
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            log.warning(() -> "Ignoring unrecognized tick archive " + file);
+            return false;
+        }
+        int count = buffer.getInt(4);
+        if (buffer.capacity() < HEADER_SIZE + (long) count * 25) {
+            log.warning(() -> "Ignoring truncated tick archive " + file);
+            return false;
+        }
+
+        int offset = HEADER_SIZE;
+        LongBuffer times = slice(buffer, offset).asLongBuffer();
+        offset += count * 8;
+        FloatBuffer prices = slice(buffer, offset).asFloatBuffer();
+        offset += count * 4;
+        FloatBuffer bidPrices = slice(buffer, offset).asFloatBuffer();
+        offset += count * 4;
+        FloatBuffer askPrices = slice(buffer, offset).asFloatBuffer();
+        offset += count * 4;
+        IntBuffer volumes = slice(buffer, offset).asIntBuffer();
+        offset += count * 4;
+        ByteBuffer sides = slice(buffer, offset);
+
+        // ticks are stored in time order, so skip straight to the first one in range
+        int i = firstAtOrAfter(times, count, from);
+        ReplayTick tick = new ReplayTick();
+        for (; i < count; i++) {
+            long time = times.get(i);
+            if (time > to) break;
+            operation.onTick(tick.set(time, prices.get(i), bidPrices.get(i), askPrices.get(i), volumes.get(i), sides.get(i) != 0));
+        }
+        return true;
+    }
+
+    /**
+     * Requests a day from the instrument and archives it, unless the ticks returned cover none of the day or no more of
+     * it than the file already does.
+     *
+     * @param covered covered is the part of the day the file covers, or {@code null} to replace the file regardless
+     * @return The ticks of the day returned by the instrument
+     */
+    private static TickTape archive(Instrument instrument, Path file, long day, boolean rth, long[] covered) {
+        long dayStart = day * Util.MILLIS_IN_DAY;
+        long dayEnd = dayStart + Util.MILLIS_IN_DAY - 1;
+        TickTape tape = new TickTape();
+        instrument.forEachTick(dayStart, dayEnd, rth, tape::add);
+
+        long[] returned = getCoverage(instrument, dayStart, dayEnd, rth, tape);
+        if (returned == null) {
+            log.debug(() -> "Not archiving " + file + ", no ticks were returned for the trading hours of the day");
+        } else if (covered == null || covers(returned, covered) && !covers(covered, returned)) {
+            write(file, day, tape, returned[0], returned[1]);
+        }
+        return tape;
+    }
+
+    /**
+     * @return The part of the day the given ticks are known to cover, as its start and end time, or {@code null} if
+     * they cover none of the day's trading hours
+     */
+    private static long[] getCoverage(Instrument instrument, long dayStart, long dayEnd, boolean rth, TickTape tape) {
+        long tradingStart = Long.MAX_VALUE;
+        long tradingEnd = Long.MIN_VALUE;
+        for (long minute = dayStart; minute < dayEnd; minute += Util.MILLIS_IN_MINUTE) {
+            if (!instrument.isInsideTradingHours(minute, rth)) continue;
+            if (tradingStart == Long.MAX_VALUE) tradingStart = minute;
+            tradingEnd = minute + Util.MILLIS_IN_MINUTE - 1;
+        }
+        if (tradingStart == Long.MAX_VALUE) return new long[] {dayStart, dayEnd}; // no trading hours, no ticks to miss
+        if (tape.size() == 0) return null;
+
+        long first = tape.getTime(0);
+        long last = tape.getTime(tape.size() - 1);
+        return new long[] {
+                first - tradingStart <= coverageToleranceMillis ? dayStart : first,
+                tradingEnd - last <= coverageToleranceMillis ? dayEnd : last
+        };
+    }
+
+    private static boolean covers(long[] range, long[] other) {
+        return range[0] <= other[0] && range[1] >= other[1];
+    }
+
+    /**
+     * @return The part of the day an archived file covers, as its start and end time, or {@code null} if there is no
+     * readable file
+     */
+    private static long[] readCoverage(Path file) {
+        if (!Files.exists(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() >= HEADER_SIZE) {
+                while (header.hasRemaining()) channel.read(header);
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                log.info(() -> "Archiving " + file + " again, it was written by an older version or is unreadable");
+                return null;
+            }
+            return new long[] {header.getLong(16), header.getLong(24)};
+        } catch (IOException e) {
+            log.error(() -> "Unable to read ticks from " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void write(Path file, long day, TickTape tape, long coveredStart, long coveredEnd) {
+        int count = tape.size();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * 25);
+        buffer.putInt(MAGIC).putInt(count).putLong(day).putLong(coveredStart).putLong(coveredEnd);
+        for (int i = 0; i < count; i++) buffer.putLong(tape.getTime(i));
+        for (int i = 0; i < count; i++) buffer.putFloat(tape.getPrice(i));
+        for (int i = 0; i < count; i++) buffer.putFloat(tape.getBidPrice(i));
+        for (int i = 0; i < count; i++) buffer.putFloat(tape.getAskPrice(i));
+        for (int i = 0; i < count; i++) buffer.putInt(tape.getVolume(i));
+        for (int i = 0; i < count; i++) buffer.put((byte) (tape.isAskTick(i) ? 1 : 0));
+        buffer.flip();
+
+        // write to a temporary file first so a partially written day is never read back
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), day + "-", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error(() -> "Unable to write ticks to " + file + ": " + e.getMessage());
+            return;
+        }
+        if (coveredStart > day * Util.MILLIS_IN_DAY || coveredEnd < (day + 1) * Util.MILLIS_IN_DAY - 1) {
+            log.info(() -> "Archived part of a day in " + file + ", " + count + " ticks from "
+                    + Instant.ofEpochMilli(coveredStart) + " to " + Instant.ofEpochMilli(coveredEnd));
+        }
+    }
+
+    private static int firstAtOrAfter(LongBuffer times, int count, long time) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times.get(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        return duplicate.slice();
+    }
+
+    private static Path getDirectory(Instrument instrument, boolean rth) {
+        return root.resolve(sanitize(instrument.getSymbol())).resolve(rth ? "rth" : "eth");
+    }
+
+    private static long dayOf(long time) {
+        return Math.floorDiv(time, Util.MILLIS_IN_DAY);
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
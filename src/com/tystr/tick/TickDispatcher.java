@@ -0,0 +1,322 @@
+package com.tystr.tick;
+
+import com.motivewave.platform.sdk.common.Instrument;
+import com.motivewave.platform.sdk.common.Tick;
+import com.motivewave.platform.sdk.common.TickOperation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares historical tick replays between studies. Studies on the same chart usually ask for the same instrument and
+ * nearly the same range of ticks when they calculate, so rather than each of them calling
+ * {@link Instrument#forEachTick(long, long, boolean, TickOperation)}, they call
+ * {@link #forEachTick(Instrument, long, long, boolean, TickOperation)} here.
+ * <p>
+ * The first caller for an instrument runs the replay and records the ticks on a {@link TickTape}. Callers that arrive
+ * while it is running are caught up from the tape and then fed every following tick by the same replay. Callers that
+ * arrive shortly after it finished, within {@link #setReleaseDelayMillis(long) the release delay}, are served from the
+ * tape on their own thread, and read the ticks after the last recorded one themselves. The tape is then released, or
+ * as soon as it grows past {@link #setMaxBufferedTicks(int) the limit}; callers that arrive after that start a replay
+ * of their own, in which days that have already been archived are read from the {@link TickArchive} rather than the
+ * instrument. Any part of a requested range that falls after the recorded range is read from the instrument by the
+ * caller itself.
+ * <p>
+ * An exception thrown by the operation of one caller does not stop the replay for the others; it is rethrown to that
+ * caller once the replay finishes. An exception thrown by the replay itself is rethrown to every caller sharing it.
+ * <p>
+ * Like {@code Instrument.forEachTick}, {@link #forEachTick(Instrument, long, long, boolean, TickOperation)} only
+ * returns once the operation has seen every tick in its range.
+ *
+ * @author Tyler Stroud
+ */
+public class TickDispatcher {
+    private static final Map<String, Replay> replays = new HashMap<>();
+    private static int maxBufferedTicks = 4_000_000;
+    private static long releaseDelayMillis = 10_000;
+    private static final ScheduledExecutorService releaser = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "tystr-tick-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private TickDispatcher() {}
+
+    /**
+     * Calls the given operation for each tick of the instrument in the given range, sharing the replay with any other
+     * calculator asking for the same instrument.
+     *
+     * @param instrument instrument to replay
+     * @param start start of the range
+     * @param end end of the range
+     * @param rth {@code true} to only replay ticks inside regular trading hours
+     * @param operation operation to call for each tick. The tick passed to it may be reused after it returns.
+     */
+    public static void forEachTick(Instrument instrument, long start, long end, boolean rth, TickOperation operation) {
+        String key = instrument.getSymbol() + "|" + rth;
+        while (true) {
+            Replay replay;
+            boolean isLeader = false;
+            synchronized (replays) {
+                replay = replays.get(key);
+                if (replay == null || !replay.canServe(start)) {
+                    replay = new Replay(key, instrument, start, end, rth);
+                    replays.put(key, replay);
+                    isLeader = true;
+                }
+            }
+
+            if (isLeader) {
+                replay.run(operation);
+                return;
+            }
+            // the replay may have stopped recording or finished since it was looked up, in which case another is started
+            if (replay.join(operation, start, end)) return;
+        }
+    }
+
+    /**
+     * Sets the largest number of ticks to keep for a single replay. Replays that grow past it stop recording and
+     * release their ticks, and calculators that arrive afterwards replay the instrument themselves.
+     */
+    public static void setMaxBufferedTicks(int maxBufferedTicks) {
+        TickDispatcher.maxBufferedTicks = maxBufferedTicks;
+    }
+
+    /**
+     * Sets how long the ticks of a finished replay are kept for calculators that ask for them after it finished, e.g.
+     * the other studies of a workspace that is still loading. 0 releases them as soon as the replay finishes.
+     */
+    public static void setReleaseDelayMillis(long releaseDelayMillis) {
+        TickDispatcher.releaseDelayMillis = releaseDelayMillis;
+    }
+
+    /**
+     * Forgets all running replays, so the next caller for each instrument starts a new one
+     */
+    public static void clear() {
+        synchronized (replays) {
+            replays.clear();
+        }
+    }
+
+    private static class Subscriber {
+        private final TickOperation operation;
+        private final long start;
+        private final long end;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private int caughtUpTo; // ticks on the tape before this index still have to be replayed to the subscriber
+        private RuntimeException error;
+
+        Subscriber(TickOperation operation, long start, long end, int caughtUpTo) {
+            this.operation = operation;
+            this.start = start;
+            this.end = end;
+            this.caughtUpTo = caughtUpTo;
+        }
+
+        void catchUp(TickTape tape) {
+            if (caughtUpTo == 0 || error != null) return;
+            try {
+                tape.replay(0, caughtUpTo, start, end, operation);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            caughtUpTo = 0;
+        }
+
+        void onTick(Tick tick) {
+            if (error != null) return;
+            long time = tick.getTime();
+            if (time < start || time > end) return;
+            try {
+                operation.onTick(tick);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+    }
+
+    private static class Replay {
+        private final String key;
+        private final Instrument instrument;
+        private final long start;
+        private final long end;
+        private final boolean rth;
+        private TickTape tape = new TickTape(); // null once released
+        private final List<Subscriber> pending = new ArrayList<>();
+        private Subscriber[] subscribers = new Subscriber[0];
+        private boolean isRecording = true;
+        private boolean isDone = false; // the tape may still be kept for late callers until released
+
+        Replay(String key, Instrument instrument, long start, long end, boolean rth) {
+            this.key = key;
+            this.instrument = instrument;
+            this.start = start;
+            this.end = end;
+            this.rth = rth;
+        }
+
+        synchronized boolean canServe(long start) {
+            return isRecording && start >= this.start;
+        }
+
+        /**
+         * Runs the replay on the calling thread, delivering every tick to the given operation and to any subscriber
+         * that joins while it is running. An exception thrown by the operation only stops the ticks to the operation.
+         */
+        void run(TickOperation operation) {
+            Subscriber leader = new Subscriber(operation, Long.MIN_VALUE, Long.MAX_VALUE, 0);
+            RuntimeException replayError = null;
+            try {
+                TickArchive.forEachTick(instrument, start, end, rth, tick -> {
+                    dispatch(tick);
+                    leader.onTick(tick);
+                });
+            } catch (RuntimeException e) {
+                replayError = e;
+            } finally {
+                finish(replayError);
+            }
+            if (replayError != null) throw replayError;
+            if (leader.error != null) throw leader.error;
+        }
+
+        private void dispatch(Tick tick) {
+            Subscriber[] subscribers;
+            synchronized (this) {
+                if (!pending.isEmpty()) admitPending();
+                if (isRecording) {
+                    if (tape.size() < maxBufferedTicks) {
+                        tape.add(tick);
+                    } else {
+                        // every subscriber has been caught up, and no more can join
+                        isRecording = false;
+                        tape = null;
+                    }
+                }
+                subscribers = this.subscribers;
+            }
+            for (Subscriber subscriber : subscribers) {
+                subscriber.onTick(tick);
+            }
+        }
+
+        /**
+         * Catches up subscribers that joined since the last tick. Called with the monitor held, on the replay thread.
+         */
+        private void admitPending() {
+            Subscriber[] admitted = new Subscriber[subscribers.length + pending.size()];
+            System.arraycopy(subscribers, 0, admitted, 0, subscribers.length);
+            int i = subscribers.length;
+            for (Subscriber subscriber : pending) {
+                subscriber.catchUp(tape);
+                admitted[i++] = subscriber;
+            }
+            pending.clear();
+            subscribers = admitted;
+        }
+
+        /**
+         * @param replayError replayError is the exception that stopped the replay, or {@code null} if it completed
+         */
+        private void finish(RuntimeException replayError) {
+            Subscriber[] subscribers;
+            boolean isKept;
+            synchronized (this) {
+                if (!pending.isEmpty()) admitPending();
+                isDone = true;
+                isKept = isRecording && replayError == null && releaseDelayMillis > 0;
+                subscribers = this.subscribers;
+                this.subscribers = new Subscriber[0];
+            }
+            if (isKept) {
+                releaser.schedule(this::release, releaseDelayMillis, TimeUnit.MILLISECONDS);
+            } else {
+                release();
+            }
+            for (Subscriber subscriber : subscribers) {
+                // a subscriber must not calculate on the part of its range the replay did not get to
+                if (replayError != null && subscriber.error == null) {
+                    subscriber.error = new IllegalStateException("Shared tick replay of " + key + " failed", replayError);
+                }
+                subscriber.finished.countDown();
+            }
+        }
+
+        private void release() {
+            synchronized (this) {
+                isRecording = false;
+                tape = null;
+            }
+            synchronized (replays) {
+                replays.remove(key, this);
+            }
+        }
+
+        /**
+         * Delivers the recorded and following ticks in {@code [start, end]} to the given operation, blocking until the
+         * whole range has been seen.
+         *
+         * @return {@code false} if the replay has stopped recording or released its ticks, in which case the
+         *         operation has seen no ticks
+         */
+        boolean join(TickOperation operation, long start, long end) {
+            Subscriber subscriber;
+            TickTape recorded;
+            synchronized (this) {
+                // checked under the monitor that stops recording, so every tick not on the tape is dispatched to the
+                // subscriber
+                if (!isRecording) return false;
+                recorded = isDone ? tape : null;
+                subscriber = isDone ? null : new Subscriber(operation, start, end, tape.size());
+                if (subscriber != null) pending.add(subscriber);
+            }
+            if (recorded != null) {
+                replayRecorded(recorded, operation, start, end);
+                return true;
+            }
+
+            try {
+                subscriber.finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for tick replay", e);
+            }
+            if (subscriber.error != null) throw subscriber.error;
+
+            if (end > this.end) {
+                long recordedEnd = this.end;
+                TickArchive.forEachTick(instrument, recordedEnd, end, rth, tick -> {
+                    if (tick.getTime() > recordedEnd) operation.onTick(tick);
+                });
+            }
+            return true;
+        }
+
+        /**
+         * Delivers the ticks in {@code [start, end]} to the given operation from the tape of the finished replay, up to
+         * the time of the last recorded tick, and reads the ticks from that time on from the archive. The tape is no
+         * longer written to, so it can be read on the calling thread.
+         */
+        private void replayRecorded(TickTape recorded, TickOperation operation, long start, long end) {
+            int size = recorded.size();
+            if (size == 0) {
+                TickArchive.forEachTick(instrument, start, end, rth, operation);
+                return;
+            }
+            // ticks at the time of the last recorded tick are all read again, so none sharing that time are missed
+            long lastTime = recorded.getTime(size - 1);
+            int to = size - 1;
+            while (to > 0 && recorded.getTime(to - 1) == lastTime) to--;
+            recorded.replay(0, to, start, end, operation);
+            if (end >= lastTime) TickArchive.forEachTick(instrument, Math.max(start, lastTime), end, rth, operation);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.tystr.tick;
+
+import com.motivewave.platform.sdk.common.Tick;
+import com.motivewave.platform.sdk.common.TickOperation;
+
+import java.util.Arrays;
+
+/**
+ * An in-memory, append only record of ticks stored as primitive columns. Ticks are copied in, so the tape does not
+ * depend on the SDK keeping its own tick objects around, and they are replayed through a single {@link ReplayTick}.
+ * <p>
+ * A tape is written by a single thread. Other threads may replay the part of the tape that was written before they
+ * last synchronized with the writer.
+ *
+ * @author Tyler Stroud
+ */
+public class TickTape {
+    private static final int defaultCapacity = 1 << 16;
+
+    private long[] times;
+    private float[] prices;
+    private float[] bidPrices;
+    private float[] askPrices;
+    private int[] volumes;
+    private boolean[] askTicks;
+    private int size = 0;
+
+    public TickTape() {
+        this(defaultCapacity);
+    }
+
+    public TickTape(int capacity) {
+        capacity = Math.max(capacity, 16);
+        times = new long[capacity];
+        prices = new float[capacity];
+        bidPrices = new float[capacity];
+        askPrices = new float[capacity];
+        volumes = new int[capacity];
+        askTicks = new boolean[capacity];
+    }
+
+    /**
+     * Appends a copy of the given tick to the tape
+     */
+    public void add(Tick tick) {
+        add(tick.getTime(), tick.getPrice(), tick.getBidPrice(), tick.getAskPrice(), tick.getVolume(), tick.isAskTick());
+    }
+
+    public void add(long time, float price, float bidPrice, float askPrice, int volume, boolean isAskTick) {
+        if (size == times.length) grow();
+        // write the columns before publishing the new size
+        times[size] = time;
+        prices[size] = price;
+        bidPrices[size] = bidPrice;
+        askPrices[size] = askPrice;
+        volumes[size] = volume;
+        askTicks[size] = isAskTick;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public float getPrice(int index) {
+        return prices[index];
+    }
+
+    public float getBidPrice(int index) {
+        return bidPrices[index];
+    }
+
+    public float getAskPrice(int index) {
+        return askPrices[index];
+    }
+
+    public int getVolume(int index) {
+        return volumes[index];
+    }
+
+    public boolean isAskTick(int index) {
+        return askTicks[index];
+    }
+
+    /**
+     * Removes all ticks while keeping the allocated capacity
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Replays ticks {@code [from, to)} to the given operation
+     */
+    public void replay(int from, int to, TickOperation operation) {
+        replay(from, to, Long.MIN_VALUE, Long.MAX_VALUE, operation);
+    }
+
+    /**
+     * Replays ticks {@code [from, to)} whose time is within {@code [startTime, endTime]} to the given operation
+     */
+    public void replay(int from, int to, long startTime, long endTime, TickOperation operation) {
+        ReplayTick tick = new ReplayTick();
+        long[] times = this.times;
+        float[] prices = this.prices;
+        float[] bidPrices = this.bidPrices;
+        float[] askPrices = this.askPrices;
+        int[] volumes = this.volumes;
+        boolean[] askTicks = this.askTicks;
+        for (int i = from; i < to; i++) {
+            long time = times[i];
+            if (time < startTime || time > endTime) continue;
+            operation.onTick(tick.set(time, prices[i], bidPrices[i], askPrices[i], volumes[i], askTicks[i]));
+        }
+    }
+
+    private void grow() {
+        int capacity = times.length * 2;
+        times = Arrays.copyOf(times, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        bidPrices = Arrays.copyOf(bidPrices, capacity);
+        askPrices = Arrays.copyOf(askPrices, capacity);
+        volumes = Arrays.copyOf(volumes, capacity);
+        askTicks = Arrays.copyOf(askTicks, capacity);
+    }
+}
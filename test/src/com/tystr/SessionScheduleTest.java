@@ -0,0 +1,193 @@
+package com.tystr;
+
+import com.motivewave.platform.sdk.common.Instrument;
+
+import java.lang.reflect.Proxy;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Regression checks for {@link SessionSchedule}. Run with the {@code test} target of the build, or from the command
+ * line:
+ * <pre>
+ *     java com.tystr.SessionScheduleTest
+ * </pre>
+ * Exits with a non-zero status if a check fails.
+ *
+ * @author Tyler Stroud
+ */
+public class SessionScheduleTest {
+    private static final long timeoutSeconds = 5;
+    private static final ZoneId newYork = ZoneId.of("America/New_York");
+    private static final int gbx = 0;
+    private static final int euro = 1;
+    private static final int rth = 2;
+
+    // the default GBX, Euro and RTH windows of Delta Pivots 3
+    private static final List<SessionSchedule.Session> sessions = List.of(
+            new SessionSchedule.Session("GBX", newYork, LocalTime.of(18, 0), LocalTime.of(3, 25)),
+            new SessionSchedule.Session("EURO", newYork, LocalTime.of(3, 31), LocalTime.of(8, 31)),
+            new SessionSchedule.Session("RTH", newYork, LocalTime.of(13, 30), LocalTime.of(15, 50))
+    );
+
+    private SessionScheduleTest() {}
+
+    public static void main(String[] args) throws InterruptedException {
+        int failures = 0;
+        failures += check("windows keep their local times across the change to daylight saving time", SessionScheduleTest::springForward);
+        failures += check("windows keep their local times across the change back to standard time", SessionScheduleTest::fallBack);
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * New York moves to daylight saving time on Sunday March 8, 2026, between the trading days of Friday and Monday
+     */
+    private static void springForward() {
+        SessionSchedule.Cursor cursor = new SessionSchedule(SessionCalendar.get(instrument("SPRING"), false), sessions).cursor();
+
+        assertWindow(cursor, gbx, "2026-03-05T23:00:00Z", "2026-03-06T08:25:00Z");
+        assertWindow(cursor, euro, "2026-03-06T08:31:00Z", "2026-03-06T13:31:00Z");
+        assertWindow(cursor, rth, "2026-03-06T18:30:00Z", "2026-03-06T20:50:00Z");
+
+        assertWindow(cursor, gbx, "2026-03-08T22:00:00Z", "2026-03-09T07:25:00Z");
+        assertWindow(cursor, euro, "2026-03-09T07:31:00Z", "2026-03-09T12:31:00Z");
+        assertWindow(cursor, rth, "2026-03-09T17:30:00Z", "2026-03-09T19:50:00Z");
+
+        // between the windows of a day and over the weekend, no session is active
+        assertMask(cursor, "2026-03-06T08:28:00Z", 0);
+        assertMask(cursor, "2026-03-06T16:00:00Z", 0);
+        assertMask(cursor, "2026-03-08T07:00:00Z", 0);
+        assertMask(cursor, "2026-03-09T07:28:00Z", 0);
+        assertMask(cursor, "2026-03-09T15:00:00Z", 0);
+    }
+
+    /**
+     * New York moves back to standard time on Sunday November 1, 2026, between the trading days of Friday and Monday
+     */
+    private static void fallBack() {
+        SessionSchedule.Cursor cursor = new SessionSchedule(SessionCalendar.get(instrument("FALL"), false), sessions).cursor();
+
+        assertWindow(cursor, gbx, "2026-10-29T22:00:00Z", "2026-10-30T07:25:00Z");
+        assertWindow(cursor, euro, "2026-10-30T07:31:00Z", "2026-10-30T12:31:00Z");
+        assertWindow(cursor, rth, "2026-10-30T17:30:00Z", "2026-10-30T19:50:00Z");
+
+        assertWindow(cursor, gbx, "2026-11-01T23:00:00Z", "2026-11-02T08:25:00Z");
+        assertWindow(cursor, euro, "2026-11-02T08:31:00Z", "2026-11-02T13:31:00Z");
+        assertWindow(cursor, rth, "2026-11-02T18:30:00Z", "2026-11-02T20:50:00Z");
+
+        assertMask(cursor, "2026-10-30T07:28:00Z", 0);
+        assertMask(cursor, "2026-10-30T15:00:00Z", 0);
+        assertMask(cursor, "2026-11-01T06:30:00Z", 0); // 01:30 New York time, which happens twice
+        assertMask(cursor, "2026-11-02T08:28:00Z", 0);
+        assertMask(cursor, "2026-11-02T16:00:00Z", 0);
+    }
+
+    /**
+     * Checks that only the given session is active from the start of its window to its end, and that the cursor
+     * reports the window's boundaries
+     */
+    private static void assertWindow(SessionSchedule.Cursor cursor, int session, String start, String end) {
+        long startTime = Instant.parse(start).toEpochMilli();
+        long endTime = Instant.parse(end).toEpochMilli();
+        String name = sessions.get(session).getName();
+        int mask = 1 << session;
+
+        assertEquals(0, cursor.seek(startTime - 1) & mask, name + " active before " + start);
+        assertEquals(mask, cursor.seek(startTime), "sessions active at " + start);
+        assertEquals(startTime, cursor.getWindowStart(session), name + " window start");
+        assertEquals(endTime, cursor.getWindowEnd(session), name + " window end");
+        assertEquals(mask, cursor.seek((startTime + endTime) / 2), "sessions active in " + name);
+        assertEquals(mask, cursor.seek(endTime - 1), "sessions active before " + end);
+        assertEquals(0, cursor.seek(endTime) & mask, name + " active at " + end);
+    }
+
+    private static void assertMask(SessionSchedule.Cursor cursor, String time, int expected) {
+        assertEquals(expected, cursor.seek(Instant.parse(time).toEpochMilli()), "sessions active at " + time);
+    }
+
+    private static void assertEquals(long expected, long actual, String what) {
+        if (expected != actual) throw new AssertionError(what + " was " + actual + ", expected " + expected);
+    }
+
+    /**
+     * @return An instrument trading CME equity index hours: each trading day opens at 18:00 New York time on the
+     * previous calendar day and closes at 17:00, Monday to Friday. Only the methods the session calendar calls are
+     * implemented.
+     */
+    private static Instrument instrument(String symbol) {
+        return (Instrument) Proxy.newProxyInstance(Instrument.class.getClassLoader(), new Class<?>[] { Instrument.class }, (self, method, args) -> {
+            switch (method.getName()) {
+                case "getSymbol":
+                    return symbol;
+                case "getStartOfDay":
+                    return toMillis(getTradingDay((Long) args[0]).minusDays(1), LocalTime.of(18, 0));
+                case "getEndOfDay":
+                    return toMillis(getTradingDay((Long) args[0]), LocalTime.of(17, 0));
+                case "getEndOfWeek":
+                    return toMillis(getTradingDay((Long) args[0]).with(DayOfWeek.FRIDAY), LocalTime.of(17, 0));
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "equals":
+                    return self == args[0];
+                case "toString":
+                    return symbol;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * @return The trading day the given time belongs to. Times after the close belong to the next trading day.
+     */
+    private static LocalDate getTradingDay(long time) {
+        ZonedDateTime local = Instant.ofEpochMilli(time).atZone(newYork);
+        LocalDate day = local.toLocalDate();
+        if (!local.toLocalTime().isBefore(LocalTime.of(17, 0))) day = day.plusDays(1);
+        while (day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY) day = day.plusDays(1);
+        return day;
+    }
+
+    private static long toMillis(LocalDate date, LocalTime time) {
+        return ZonedDateTime.of(date, time, newYork).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Runs a check on another thread, so a check that hangs fails instead of hanging the run
+     *
+     * @return 1 if the check failed, 0 if it passed
+     */
+    private static int check(String name, Runnable check) throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Future<?> result = executor.submit(check);
+            result.get(timeoutSeconds, TimeUnit.SECONDS);
+            System.out.println("PASS " + name);
+            return 0;
+        } catch (TimeoutException e) {
+            System.out.println("FAIL " + name + ": did not finish within " + timeoutSeconds + " seconds");
+            return 1;
+        } catch (ExecutionException e) {
+            System.out.println("FAIL " + name + ": " + e.getCause());
+            return 1;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
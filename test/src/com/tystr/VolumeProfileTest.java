@@ -0,0 +1,162 @@
+package com.tystr;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Regression checks for {@link VolumeProfile}. Run with the {@code test} target of the build, or from the command line:
+ * <pre>
+ *     java com.tystr.VolumeProfileTest
+ * </pre>
+ * Exits with a non-zero status if a check fails.
+ *
+ * @author Tyler Stroud
+ */
+public class VolumeProfileTest {
+    private static final long timeoutSeconds = 5;
+    private static final float tickSize = 0.25f;
+
+    private VolumeProfileTest() {}
+
+    public static void main(String[] args) throws InterruptedException {
+        int failures = 0;
+        failures += check("incremental value area widens across a price gap", VolumeProfileTest::incrementalValueAreaAcrossGap);
+        failures += check("incremental value area widens up once the low side is exhausted", VolumeProfileTest::incrementalValueAreaLowSideExhausted);
+        failures += check("incremental value area holds the value area percent when a recalculation does", VolumeProfileTest::incrementalValueAreaHoldsPercent);
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Volume added above a gap over the value area used to widen the low side forever
+     */
+    private static void incrementalValueAreaAcrossGap() {
+        Profile profile = new Profile(0.7f);
+        profile.add(100f, 100);
+        profile.add(99.75f, 50);
+        profile.add(102f, 10);
+        profile.volumeProfile.getValueAreaHigh();
+        profile.add(102f, 60);
+
+        assertEquals(102f, profile.volumeProfile.getValueAreaHigh(), "value area high");
+        profile.assertHoldsPercent();
+    }
+
+    private static void incrementalValueAreaLowSideExhausted() {
+        Profile profile = new Profile(0.9f);
+        profile.add(100f, 100);
+        profile.add(100.25f, 20);
+        profile.volumeProfile.getValueAreaHigh();
+        profile.add(105f, 30);
+        profile.add(110f, 40);
+
+        assertEquals(110f, profile.volumeProfile.getValueAreaHigh(), "value area high");
+        profile.assertHoldsPercent();
+    }
+
+    /**
+     * The full calculation can stop short of the value area percent across gaps, and the incremental value area starts
+     * from it, so the incremental value area is only held to the percent when a recalculation reaches it
+     */
+    private static void incrementalValueAreaHoldsPercent() {
+        Random random = new Random(42);
+        for (int run = 0; run < 2000; run++) {
+            Profile profile = new Profile(0.5f + random.nextFloat() * 0.45f);
+            int adds = 1 + random.nextInt(200);
+            for (int i = 0; i < adds; i++) {
+                // mostly near the open, with the odd print far enough away to leave a gap
+                int offset = random.nextInt(10) < 2 ? random.nextInt(400) - 200 : random.nextInt(20) - 10;
+                profile.add(100 + offset * tickSize, 1 + random.nextInt(50));
+                if (random.nextInt(3) == 0) profile.volumeProfile.getValueAreaHigh();
+            }
+            if (profile.holdsPercent(profile.recalculated())) profile.assertHoldsPercent();
+        }
+    }
+
+    private static void assertEquals(float expected, float actual, String what) {
+        if (Math.abs(expected - actual) > 0.0001f) throw new AssertionError(what + " was " + actual + ", expected " + expected);
+    }
+
+    /**
+     * Runs a check on another thread, so a check that hangs fails instead of hanging the run
+     *
+     * @return 1 if the check failed, 0 if it passed
+     */
+    private static int check(String name, Runnable check) throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Future<?> result = executor.submit(check);
+            result.get(timeoutSeconds, TimeUnit.SECONDS);
+            System.out.println("PASS " + name);
+            return 0;
+        } catch (TimeoutException e) {
+            System.out.println("FAIL " + name + ": did not finish within " + timeoutSeconds + " seconds");
+            return 1;
+        } catch (ExecutionException e) {
+            System.out.println("FAIL " + name + ": " + e.getCause());
+            return 1;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * An incremental volume profile, with the volume added to it kept alongside to check its value area against
+     */
+    private static class Profile {
+        private final VolumeProfile volumeProfile;
+        private final PriceLadder volumes = new PriceLadder(tickSize);
+        private final float valueAreaPercent;
+
+        Profile(float valueAreaPercent) {
+            this.valueAreaPercent = valueAreaPercent;
+            volumeProfile = new VolumeProfile(valueAreaPercent);
+            volumeProfile.setIncremental(true);
+        }
+
+        void add(float price, int volume) {
+            volumeProfile.addVolumeAtPrice(price, volume);
+            volumes.add(price, volume);
+        }
+
+        void assertHoldsPercent() {
+            if (!holdsPercent(volumeProfile)) {
+                throw new AssertionError("value area " + volumeProfile.getValueAreaLow() + " - " + volumeProfile.getValueAreaHigh()
+                        + " holds " + getVolumeInside(volumeProfile) + " of " + volumes.getTotal() + ", less than " + valueAreaPercent);
+            }
+        }
+
+        /**
+         * @return A copy of the profile with its value area calculated in full
+         */
+        VolumeProfile recalculated() {
+            VolumeProfile copy = new VolumeProfile(volumeProfile);
+            copy.calculateValueArea();
+            return copy;
+        }
+
+        /**
+         * @param profile profile is this profile or a copy of it
+         */
+        boolean holdsPercent(VolumeProfile profile) {
+            return (float) getVolumeInside(profile) / volumes.getTotal() >= valueAreaPercent;
+        }
+
+        private long getVolumeInside(VolumeProfile profile) {
+            long low = volumes.toTick(profile.getValueAreaLow());
+            long high = volumes.toTick(profile.getValueAreaHigh());
+            long inside = 0;
+            for (long tick = low; tick <= high; tick++) inside += volumes.getAtTick(tick);
+            return inside;
+        }
+    }
+}